@@ -62,12 +62,14 @@ public final class ArrayDataDecoder implements DataDecoder {
     private final byte[] dataArray;
     private final FECParameters fecParams;
     private final ImmutableList<SourceBlockDecoder> srcBlockDecoders;
+    private final DecodingSchedules decodingSchedules;
 
 
     private ArrayDataDecoder(byte[] dataArray, FECParameters fecParams, final int symbOver) {
 
         this.dataArray = dataArray;
         this.fecParams = fecParams;
+        this.decodingSchedules = new DecodingSchedules(); // must be created before the source block decoders
         this.srcBlockDecoders = DataUtils.partitionSourceData(
             fecParams,
             SourceBlockDecoder.class, new SourceBlockSupplier<SourceBlockDecoder>() {
@@ -83,6 +85,12 @@ public final class ArrayDataDecoder implements DataDecoder {
             });
     }
 
+    // shared by all source block decoders
+    DecodingSchedules decodingSchedules() {
+
+        return decodingSchedules;
+    }
+
     @Override
     public FECParameters fecParameters() {
 
@@ -139,6 +139,20 @@ public final class ArrayDataEncoder implements DataEncoder {
         return srcBlockEncoders;
     }
 
+    /**
+     * Generates ahead of time, in the calling thread, the intermediate symbols of every source block, from which the
+     * repair symbols are computed. Source blocks with the same number of source symbols are generated together, solving
+     * the system of linear equations once for many source blocks instead of once per source block.
+     * <p>
+     * Without this method, the intermediate symbols of a source block are generated on their own when its first repair
+     * packet is produced. This method may be called concurrently by multiple threads, in which case each source block
+     * is generated by one thread only.
+     */
+    public void prepareIntermediateSymbols() {
+
+        ArraySourceBlockEncoder.prepareIntermediateSymbols(srcBlockEncoders);
+    }
+
     /**
      * Returns an array of bytes containing the source data.
      * 
@@ -17,26 +17,38 @@ package net.fec.openrq;
 
 
 import java.nio.ByteBuffer;
-import java.util.BitSet;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.fec.openrq.DecodingSchedules.ErasurePattern;
+import net.fec.openrq.decoder.DataDecoder;
 import net.fec.openrq.decoder.SourceBlockDecoder;
 import net.fec.openrq.decoder.SourceBlockState;
 import net.fec.openrq.parameters.FECParameters;
 import net.fec.openrq.parameters.ParameterChecker;
-import net.fec.openrq.util.collection.BitSetIterators;
 import net.fec.openrq.util.collection.ImmutableList;
 import net.fec.openrq.util.io.ByteBuffers.BufferType;
 import net.fec.openrq.util.linearalgebra.matrix.ByteMatrix;
+import net.fec.openrq.util.rq.SymbolMatrix;
 import net.fec.openrq.util.rq.SystematicIndices;
 
 
@@ -44,6 +56,16 @@ import net.fec.openrq.util.rq.SystematicIndices;
  */
 final class ArraySourceBlockDecoder implements SourceBlockDecoder {
 
+    private static final Runnable NO_OP = new Runnable() {
+
+        @Override
+        public void run() {
+
+            // used for already completed futures
+        }
+    };
+
+
     // requires valid arguments
     static ArraySourceBlockDecoder newDecoder(
         ArrayDataDecoder dataDecoder,
@@ -67,29 +89,95 @@ final class ArraySourceBlockDecoder implements SourceBlockDecoder {
                 }
             });
 
-        return new ArraySourceBlockDecoder(dataDecoder, sbn, sourceSymbols, symbOver);
+        return new ArraySourceBlockDecoder(
+            dataDecoder, dataDecoder.decodingSchedules(), sbn, sourceSymbols, null, BufferType.ARRAY_BACKED, symbOver);
     }
 
+    // requires valid arguments
+    static ArraySourceBlockDecoder newDecoder(
+        BufferDataDecoder dataDecoder,
+        final ByteBuffer buffer,
+        int bufferOff,
+        FECParameters fecParams,
+        int sbn,
+        int symbOver)
+    {
+
+        ImmutableList<SourceSymbol> sourceSymbols = DataUtils.partitionSourceBlock(
+            sbn,
+            fecParams,
+            bufferOff,
+            SourceSymbol.class, new DataUtils.SourceSymbolSupplier<SourceSymbol>() {
+
+                @Override
+                public SourceSymbol get(int off, @SuppressWarnings("unused") int esi, int T) {
+
+                    return BufferSourceSymbol.newSymbol(buffer, off, T);
+                }
+            });
+
+        // the repair symbols and the decoding symbols are stored in the same type of buffer as the source data
+        final BufferType type = buffer.isDirect() ? BufferType.DIRECT : BufferType.ARRAY_BACKED;
+        return new ArraySourceBlockDecoder(
+            dataDecoder, dataDecoder.decodingSchedules(), sbn, sourceSymbols, null, type, symbOver);
+    }
+
+    // requires valid arguments
+    static ArraySourceBlockDecoder newDecoder(
+        DataDecoder dataDecoder,
+        DecodingSchedules decodingSchedules,
+        SourceBlockMapping block,
+        int sbn,
+        int symbOver)
+    {
+
+        final ImmutableList<SourceSymbol> sourceSymbols =
+            block.sourceSymbols(DataUtils.getK(dataDecoder.fecParameters(), sbn));
+        return new ArraySourceBlockDecoder(
+            dataDecoder, decodingSchedules, sbn, sourceSymbols, block, BufferType.ARRAY_BACKED, symbOver);
+    }
+
+
+    private final DataDecoder dataDecoder;
+    private final DecodingSchedules decodingSchedules;
 
-    private final ArrayDataDecoder dataDecoder;
+    // null if the source data is always in memory, otherwise mapped from the first source symbol written into it until
+    // the source block is decoded
+    private final SourceBlockMapping mapping;
+    private final AtomicReference<MappingState> mappingState;
+
+    private final BufferType symbolsType; // of the repair symbols and of the symbols used in decoding
 
     private final int sbn;
 
     private final SymbolsState symbolsState;
 
+    // the decoding currently in progress, if any (there is at most one per source block)
+    private final AtomicReference<FutureTask<SourceBlockState>> pendingDecoding;
+
 
     private ArraySourceBlockDecoder(
-        ArrayDataDecoder dataDecoder,
+        DataDecoder dataDecoder,
+        DecodingSchedules decodingSchedules,
         int sbn,
         ImmutableList<SourceSymbol> sourceSymbols,
+        SourceBlockMapping mapping,
+        BufferType symbolsType,
         int symbOver)
     {
 
         this.dataDecoder = Objects.requireNonNull(dataDecoder);
+        this.decodingSchedules = Objects.requireNonNull(decodingSchedules);
+
+        this.mapping = mapping;
+        this.mappingState = new AtomicReference<>(MappingState.UNMAPPED);
+
+        this.symbolsType = Objects.requireNonNull(symbolsType);
 
         this.sbn = sbn;
 
-        this.symbolsState = new SymbolsState(sourceSymbols, symbOver);
+        this.symbolsState = new SymbolsState(sourceSymbols, symbOver, symbolsType);
+        this.pendingDecoding = new AtomicReference<>();
     }
 
     private FECParameters fecParameters() {
@@ -103,7 +191,7 @@ final class ArraySourceBlockDecoder implements SourceBlockDecoder {
     }
 
     @Override
-    public ArrayDataDecoder dataDecoder() {
+    public DataDecoder dataDecoder() {
 
         return dataDecoder;
     }
@@ -124,153 +212,117 @@ final class ArraySourceBlockDecoder implements SourceBlockDecoder {
     public boolean containsSourceSymbol(int esi) {
 
         checkSourceSymbolESI(esi);
-        symbolsState.lock();
-        try {
-            return symbolsState.containsSourceSymbol(esi);
-        }
-        finally {
-            symbolsState.unlock();
-        }
+        return symbolsState.containsSourceSymbol(esi);
     }
 
     @Override
     public boolean containsRepairSymbol(int esi) {
 
         checkRepairSymbolESI(esi);
-        symbolsState.lock();
-        try {
-            return symbolsState.containsRepairSymbol(esi);
-        }
-        finally {
-            symbolsState.unlock();
-        }
+        return symbolsState.containsRepairSymbol(esi);
     }
 
     @Override
     public boolean isSourceBlockDecoded() {
 
-        symbolsState.lock();
-        try {
-            return symbolsState.isSourceBlockDecoded();
-        }
-        finally {
-            symbolsState.unlock();
-        }
+        return symbolsState.isSourceBlockDecoded();
     }
 
     @Override
     public SourceBlockState latestState() {
 
-        symbolsState.lock();
-        try {
-            return symbolsState.sourceBlockState();
-        }
-        finally {
-            symbolsState.unlock();
-        }
+        return symbolsState.sourceBlockState();
     }
 
     @Override
     public Set<Integer> missingSourceSymbols() {
 
-        symbolsState.lock();
-        try {
-            return getMissingSourceSymbols();
-        }
-        finally {
-            symbolsState.unlock();
-        }
+        return getMissingSourceSymbols();
     }
 
     @Override
     public Set<Integer> availableRepairSymbols() {
 
-        symbolsState.lock();
-        try {
-            return getAvailableRepairSymbols();
-        }
-        finally {
-            symbolsState.unlock();
-        }
+        return getAvailableRepairSymbols();
     }
 
     @Override
     public SBDInfo information() {
 
-        symbolsState.lock();
-        try {
-            return SBDInfo.newInformation(
-                sbn,
-                symbolsState.sourceBlockState(),
-                getMissingSourceSymbols(),
-                getAvailableRepairSymbols());
-        }
-        finally {
-            symbolsState.unlock();
-        }
+        return SBDInfo.newInformation(
+            sbn,
+            symbolsState.sourceBlockState(),
+            getMissingSourceSymbols(),
+            getAvailableRepairSymbols());
+    }
+
+    // for testing
+    int numRepairSymbols() {
+
+        return symbolsState.numRepairSymbols();
     }
 
     @Override
     public SourceBlockState putEncodingPacket(EncodingPacket packet) {
 
-        // other than a different SBN, this method assumes a correct encoding packet
-        if (packet.sourceBlockNumber() != sourceBlockNumber()) {
-            throw new IllegalArgumentException("the provided packet is not compatible with this source block");
-        }
+        checkPacketSBN(packet);
 
-        symbolsState.lock();
-        try {
-            if (!symbolsState.isSourceBlockDecoded()) { // do nothing if already decoded
-                final ByteBuffer symbols = packet.symbols();
-                final int esi = packet.encodingSymbolID();
-                boolean putNewSymbol = false;
-
-                // put symbol data
-                switch (packet.symbolType()) {
-                    case SOURCE:
-                        for (int i = 0; i < packet.numberOfSymbols(); i++) {
-                            putNewSymbol |= putSourceData(esi + i, symbols, SourceSymbolDataType.TRANSPORT);
-                        }
-                    break;
-
-                    case REPAIR:
-                        for (int i = 0; i < packet.numberOfSymbols(); i++) {
-                            putNewSymbol |= putRepairData(esi + i, symbols);
-                        }
-                    break;
+        if (!symbolsState.isSourceBlockDecoded()) { // do nothing if already decoded
+            final boolean putNewSymbol = putSymbols(packet);
 
-                    default:
-                        throw new AssertionError("unknown enum value");
+            // 1. don't bother if no new symbols were added
+            // 2. the addition of a source symbol may have decoded the source block
+            // 3. enough (source/repair) symbols may have been received for a decode to start
+            // 4. a decoding in progress takes the new symbols into account once it finishes
+            if (putNewSymbol && symbolsState.canDecode()) {
+                final FutureTask<SourceBlockState> decoding = newDecoding();
+                if (pendingDecoding.compareAndSet(null, decoding)) {
+                    runInCallingThread(decoding);
                 }
+            }
+        }
 
-                // 1. don't bother if no new symbols were added
-                // 2. the addition of a source symbol may have decoded the source block
-                // 3. enough (source/repair) symbols may have been received for a decode to start
-                if (putNewSymbol &&
-                    !symbolsState.isSourceBlockDecoded() &&
-                    symbolsState.haveEnoughSymbolsToDecode())
-                {
-                    decode();
+        return symbolsState.sourceBlockState();
+    }
+
+    @Override
+    public Future<SourceBlockState> putEncodingPacket(EncodingPacket packet, Executor executor) {
+
+        checkPacketSBN(packet);
+        Objects.requireNonNull(executor);
+
+        if (!symbolsState.isSourceBlockDecoded()) { // do nothing if already decoded
+            final boolean putNewSymbol = putSymbols(packet);
+
+            if (putNewSymbol && symbolsState.canDecode()) {
+                final FutureTask<SourceBlockState> decoding = newDecoding();
+                if (pendingDecoding.compareAndSet(null, decoding)) {
+                    try {
+                        executor.execute(decoding);
+                    }
+                    catch (RuntimeException e) {
+                        pendingDecoding.compareAndSet(decoding, null);
+                        throw e;
+                    }
+
+                    return decoding;
                 }
             }
 
-            return symbolsState.sourceBlockState();
-        }
-        finally {
-            symbolsState.unlock();
+            // new symbols are taken into account by the pending decoding once it finishes
+            final FutureTask<SourceBlockState> pending = pendingDecoding.get();
+            if (pending != null) {
+                return pending;
+            }
         }
+
+        return completedFuture(symbolsState.sourceBlockState());
     }
 
     @Override
     public int symbolOverhead() {
 
-        symbolsState.lock();
-        try {
-            return symbolsState.symbolOverhead();
-        }
-        finally {
-            symbolsState.unlock();
-        }
+        return symbolsState.symbolOverhead();
     }
 
     @Override
@@ -278,15 +330,51 @@ final class ArraySourceBlockDecoder implements SourceBlockDecoder {
 
         if (symbOver < 0) throw new IllegalArgumentException("symbol overhead must be non-negative");
 
-        symbolsState.lock();
+        symbolsState.setSymbolOverhead(symbOver);
+    }
+
+    private void checkPacketSBN(EncodingPacket packet) {
+
+        // other than a different SBN, this class assumes a correct encoding packet
+        if (packet.sourceBlockNumber() != sourceBlockNumber()) {
+            throw new IllegalArgumentException("the provided packet is not compatible with this source block");
+        }
+    }
+
+    private FutureTask<SourceBlockState> newDecoding() {
+
+        final Decoding decoding = new Decoding();
+        final FutureTask<SourceBlockState> future = new FutureTask<>(decoding);
+        decoding.future = future;
+        return future;
+    }
+
+    // runs the decoding and rethrows any exception it throws
+    private static void runInCallingThread(FutureTask<SourceBlockState> decoding) {
+
+        decoding.run();
         try {
-            symbolsState.setSymbolOverhead(symbOver);
+            decoding.get();
         }
-        finally {
-            symbolsState.unlock();
+        catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            throw new AssertionError(cause); // a decoding never throws checked exceptions
+        }
+        catch (InterruptedException e) {
+            throw new AssertionError(e); // should never happen, the decoding is already done
         }
     }
 
+    private static Future<SourceBlockState> completedFuture(SourceBlockState state) {
+
+        final FutureTask<SourceBlockState> future = new FutureTask<>(NO_OP, state);
+        future.run();
+        return future;
+    }
+
+
     private void checkSourceSymbolESI(int esi) {
 
         if (esi < 0 || esi >= K()) {
@@ -301,20 +389,17 @@ final class ArraySourceBlockDecoder implements SourceBlockDecoder {
         }
     }
 
-    /*
-     * ===== Requires locked symbolsState! =====
-     */
     private Set<Integer> getMissingSourceSymbols() {
 
         if (symbolsState.isSourceBlockDecoded()) {
             return Collections.emptySet();
         }
         else {
-            final int numMissing = symbolsState.numMissingSourceSymbols();
+            final int[] missingESIs = symbolsState.missingSourceSymbols();
 
             // linked hash set preserves insertion ordering (while not being sorted)
-            final Set<Integer> missingSourceSymbols = new LinkedHashSet<>(numMissing);
-            for (Integer esi : symbolsState.missingSourceSymbols()) {
+            final Set<Integer> missingSourceSymbols = new LinkedHashSet<>(missingESIs.length);
+            for (int esi : missingESIs) {
                 missingSourceSymbols.add(esi);
             }
 
@@ -322,9 +407,6 @@ final class ArraySourceBlockDecoder implements SourceBlockDecoder {
         }
     }
 
-    /*
-     * ===== Requires locked symbolsState! =====
-     */
     private Set<Integer> getAvailableRepairSymbols() {
 
         if (symbolsState.isSourceBlockDecoded()) {
@@ -332,44 +414,96 @@ final class ArraySourceBlockDecoder implements SourceBlockDecoder {
         }
         else {
             // linked hash set preserves insertion ordering (while not being sorted)
-            return new LinkedHashSet<>(symbolsState.repairSymbolsESIs());
+            return symbolsState.repairSymbolsESIs();
         }
     }
 
-    /*
-     * ===== Requires locked symbolsState! =====
-     */
+    private boolean putSymbols(EncodingPacket packet) {
+
+        final ByteBuffer symbols = packet.symbols();
+        final int esi = packet.encodingSymbolID();
+        boolean putNewSymbol = false;
+
+        // put symbol data
+        switch (packet.symbolType()) {
+            case SOURCE:
+                for (int i = 0; i < packet.numberOfSymbols(); i++) {
+                    putNewSymbol |= putSourceData(esi + i, symbols, SourceSymbolDataType.TRANSPORT);
+                }
+            break;
+
+            case REPAIR:
+                for (int i = 0; i < packet.numberOfSymbols(); i++) {
+                    putNewSymbol |= putRepairData(esi + i, symbols);
+                }
+            break;
+
+            default:
+                throw new AssertionError("unknown enum value");
+        }
+
+        return putNewSymbol;
+    }
+
     private void decode() {
 
-        // generate intermediate symbols -- watch out for decoding failure
-        final byte[][] intermediate_symbols = generateIntermediateSymbols();
+        final DecodingSnapshot snapshot = symbolsState.takeSnapshot();
+        if (snapshot != null) {
+            putDecodingResult(snapshot, recoverSourceSymbols(snapshot));
+        }
+    }
 
-        if (intermediate_symbols == null) {
+    private void putDecodingResult(DecodingSnapshot snapshot, ByteBuffer[] recoveredSymbols) {
+
+        if (recoveredSymbols == null) {
             symbolsState.setSourceBlockDecodingFailure();
         }
         else {
-            /*
-             * with the intermediate symbols calculated, one can recover
-             * every missing source symbol
-             */
+            // write to data buffer (symbols received meanwhile are skipped)
+            for (int i = 0; i < recoveredSymbols.length; i++) {
+                putSourceData(snapshot.missingSourceESIs[i], recoveredSymbols[i], SourceSymbolDataType.CODE);
+            }
+        }
+    }
 
-            final int Kprime = SystematicIndices.ceil(K());
+    // returns the missing source symbols in the snapshot, or null in case of decoding failure
+    private ByteBuffer[] recoverSourceSymbols(DecodingSnapshot snapshot) {
 
-            // recover missing source symbols
-            for (int esi : missingSourceSymbols()) {
-                byte[] sourceSymbol = LinearSystem.enc(
-                    Kprime, intermediate_symbols, new Tuple(Kprime, esi), fecParameters().symbolSize());
+        // the intermediate symbols are only valid until the workspace is released
+        final int Kprime = SystematicIndices.ceil(K());
+        final DecodingWorkspace ws = DecodingWorkspace.acquire(Kprime, fecParameters().symbolSize(), symbolsType);
+        try {
+            // generate intermediate symbols -- watch out for decoding failure
+            final SymbolMatrix intermediate_symbols = generateIntermediateSymbols(snapshot, ws);
+
+            if (intermediate_symbols == null) {
+                return null;
+            }
+            else {
+                /*
+                 * with the intermediate symbols calculated, one can recover
+                 * every missing source symbol
+                 */
+
+                final EncodingIndexes encIndexes = EncodingIndexes.forKPrime(Kprime);
+                final int[] missingESIs = snapshot.missingSourceESIs;
+
+                // recover missing source symbols
+                final ByteBuffer[] recoveredSymbols = new ByteBuffer[missingESIs.length];
+                for (int i = 0; i < missingESIs.length; i++) {
+                    recoveredSymbols[i] = LinearSystem.enc(intermediate_symbols, encIndexes.get(missingESIs[i]),
+                        fecParameters().symbolSize(), symbolsType);
+                }
 
-                // write to data buffer
-                putSourceData(esi, ByteBuffer.wrap(sourceSymbol), SourceSymbolDataType.CODE);
+                return recoveredSymbols;
             }
         }
+        finally {
+            DecodingWorkspace.release(ws);
+        }
     }
 
-    /*
-     * ===== Requires locked symbolsState! =====
-     */
-    private final byte[][] generateIntermediateSymbols() {
+    private final SymbolMatrix generateIntermediateSymbols(DecodingSnapshot snapshot, DecodingWorkspace ws) {
 
         // constraint matrix parameters
         final int Kprime = SystematicIndices.ceil(K());
@@ -378,72 +512,61 @@ final class ArraySourceBlockDecoder implements SourceBlockDecoder {
         int H = SystematicIndices.H(Ki);
         int L = Kprime + S + H;
         int T = fecParameters().symbolSize();
+        final EncodingIndexes encIndexes = EncodingIndexes.forKPrime(Kprime);
+
+        final int[] missingSourceESIs = snapshot.missingSourceESIs;
+        final int[] repairESIs = snapshot.repairESIs;
+        final RepairSymbol[] repairSymbols = snapshot.repairSymbols;
 
         // number of extra repair symbols to be used for the decoding process
-        int overhead = symbolsState.numRepairSymbols() - symbolsState.numMissingSourceSymbols();
+        int overhead = repairESIs.length - missingSourceESIs.length;
 
         // number of rows in the decoding matrix
         int M = L + overhead;
 
-        // generate the original constraint matrix and allocate memory for overhead rows
-        ByteMatrix A = LinearSystem.generateConstraintMatrix(Kprime, overhead);
-
         // initialize D
-        byte[][] D = new byte[M][T];
+        final SymbolMatrix D = ws.symbols(M);
 
-        // populate D with the received source symbols
-        for (int esi : symbolsState.receivedSourceSymbols()) {
-            symbolsState.getSourceSymbol(esi).getCodeData(ByteBuffer.wrap(D[S + H + esi]));
+        // populate D with the received source symbols (these are never modified once received)
+        for (int esi : snapshot.receivedSourceESIs) {
+            symbolsState.getSourceSymbol(esi).getCodeData(D.row(S + H + esi));
         }
 
-        /*
-         * for every repair symbol received
-         * - replace a missing source symbol's decoding matrix line for its corresponding line
-         * - populate D accordingly
-         */
-
-        Iterator<Entry<Integer, RepairSymbol>> repairSymbolsIter = symbolsState.repairSymbols().iterator();
-
-        // identify missing source symbols and replace their lines with "repair lines"
-        for (Integer missingSrcESI : missingSourceSymbols()) {
-
-            Entry<Integer, RepairSymbol> next = repairSymbolsIter.next();
-            final int repairESI = next.getKey();
-            final int repairISI = SystematicIndices.getISI(repairESI, K(), Kprime);
-            final RepairSymbol repairSymbol = next.getValue();
-
-            final int row = S + H + missingSrcESI;
-
-            // replace line S + H + missingSrcESI with the line for encIndexes
-            Set<Integer> indexes = LinearSystem.encIndexes(Kprime, new Tuple(Kprime, repairISI));
-
-            A.clearRow(row); // must clear previous data first!
-            for (Integer col : indexes) {
-                A.set(row, col, (byte)1);
-            }
-
-            // fill in missing source symbols in D with the repair symbols
-            D[row] = repairSymbol.copyOfData(BufferType.ARRAY_BACKED).array();
+        // the rows of missing source symbols, followed by the overhead rows, are filled with the repair symbols
+        final int[] repairRows = new int[repairESIs.length];
+        for (int n = 0; n < missingSourceESIs.length; n++) {
+            repairRows[n] = S + H + missingSourceESIs[n];
+        }
+        for (int n = missingSourceESIs.length, row = L; row < M; n++, row++) {
+            repairRows[n] = row;
+        }
+        for (int n = 0; n < repairESIs.length; n++) {
+            D.row(repairRows[n]).put(repairSymbols[n].readOnlyData());
         }
 
-        // insert the values for overhead (repair) symbols
-        for (int row = L; row < M; row++) {
+        // other source blocks may have been decoded with the same erasure pattern, and so with the same operations,
+        // in which case the decoding matrix is not needed
+        final ErasurePattern pattern = new ErasurePattern(K(), missingSourceESIs, repairESIs);
+        final ISDProgram schedule = decodingSchedules.get(pattern);
+        if (schedule != null) {
+            return schedule.execute(D, ISDProgram.numStripes(T));
+        }
 
-            Entry<Integer, RepairSymbol> next = repairSymbolsIter.next();
-            final int repairESI = next.getKey();
-            final int repairISI = SystematicIndices.getISI(repairESI, K(), Kprime);
-            final RepairSymbol repairSymbol = next.getValue();
+        // generate the original constraint matrix and allocate memory for overhead rows
+        final ByteMatrix A = ws.constraintMatrix(M);
 
-            // generate the overhead lines
-            Set<Integer> indexes = LinearSystem.encIndexes(Kprime, new Tuple(Kprime, repairISI));
+        /*
+         * for every repair symbol received, replace the line of a missing source symbol (or an overhead line) with the
+         * line of the repair symbol
+         */
+        for (int n = 0; n < repairESIs.length; n++) {
+            final int repairISI = SystematicIndices.getISI(repairESIs[n], K(), Kprime);
+            final int row = repairRows[n];
 
             A.clearRow(row); // must clear previous data first!
-            for (Integer col : indexes) {
+            for (int col : encIndexes.get(repairISI)) {
                 A.set(row, col, (byte)1);
             }
-
-            // update D with the data for that symbol
-            D[row] = repairSymbol.copyOfData(BufferType.ARRAY_BACKED).array();
         }
 
         /*
@@ -452,7 +575,15 @@ final class ArraySourceBlockDecoder implements SourceBlockDecoder {
          */
 
         try {
-            return LinearSystem.PInactivationDecoding(A, D, Kprime);
+            if (decodingSchedules.shouldRecord(pattern)) {
+                final List<ISDOperation> ops = new ArrayList<>();
+                final SymbolMatrix C = LinearSystem.PInactivationDecoding(A, D, Kprime, ops, ws);
+                decodingSchedules.put(pattern, ops);
+                return C;
+            }
+            else {
+                return LinearSystem.PInactivationDecoding(A, D, Kprime, null, ws);
+            }
             // return MatrixUtilities.gaussElimination(constraint_matrix, D);
         }
         catch (SingularMatrixException e) {
@@ -461,80 +592,187 @@ final class ArraySourceBlockDecoder implements SourceBlockDecoder {
         }
     }
 
-    /*
-     * ===== Requires locked symbolsState! =====
-     */
     // requires valid ESI
     private boolean putSourceData(int esi, ByteBuffer symbolData, SourceSymbolDataType dataType) {
 
-        if (symbolsState.containsSourceSymbol(esi)) { // if already received, just advance the buffer position
+        mapSourceData();
+        if (symbolsState.addSourceSymbol(esi, symbolData, dataType)) {
+            if (symbolsState.isSourceBlockDecoded()) {
+                releaseMapping();
+            }
+            return true;
+        }
+        else { // if already received (or being received), just advance the buffer position
             final int T = fecParameters().symbolSize();
             symbolData.position(symbolData.position() + T);
             return false;
         }
-        else {
-            symbolsState.addSourceSymbol(esi, symbolData, dataType);
-            return true;
+    }
+
+    // received and recovered source symbols are written directly into the mapping, which is only created when the
+    // first source symbol is written, so that source blocks that receive no packets yet take no address space
+    private void mapSourceData() {
+
+        if (mapping != null && mappingState.get() == MappingState.UNMAPPED) {
+            mapping.map();
+            if (!mappingState.compareAndSet(MappingState.UNMAPPED, MappingState.MAPPED)) {
+                mapping.unmap(); // mapped by another thread meanwhile, or already released
+            }
+        }
+    }
+
+    // the source data is complete once the source block is decoded, so it can be written to its destination
+    private void releaseMapping() {
+
+        if (mapping != null) {
+            final MappingState previous = mappingState.getAndSet(MappingState.RELEASED);
+            if (previous != MappingState.RELEASED) {
+                try {
+                    mapping.flush();
+                }
+                finally {
+                    if (previous == MappingState.MAPPED) {
+                        mapping.unmap();
+                    }
+                }
+            }
         }
     }
 
-    /*
-     * ===== Requires locked symbolsState! =====
-     */
     // requires valid ESI
     private boolean putRepairData(int esi, ByteBuffer symbolData) {
 
-        if (symbolsState.containsRepairSymbol(esi)) { // if already received, just advance the buffer position
+        // add this repair symbol to the set of received repair symbols (copying it advances the buffer position)
+        if (!symbolsState.containsRepairSymbol(esi)) {
+            return symbolsState.addRepairSymbol(esi, symbolData);
+        }
+        else { // if already received, just advance the buffer position
             final int T = fecParameters().symbolSize();
             symbolData.position(symbolData.position() + T);
             return false;
         }
-        else {
-            // add this repair symbol to the set of received repair symbols
-            symbolsState.addRepairSymbol(esi, symbolData);
-            return true;
-        }
     }
 
 
+    private static enum MappingState {
+
+        UNMAPPED,
+        MAPPED,
+        RELEASED
+    }
+
     private static enum SourceSymbolDataType {
 
         CODE,
         TRANSPORT
     }
 
+    private final class Decoding implements Callable<SourceBlockState> {
+
+        // the future that runs this decoding
+        FutureTask<SourceBlockState> future;
+
+
+        @Override
+        public SourceBlockState call() {
+
+            try {
+                int numDecodedSymbols = -1; // number of symbols used in the last decoding attempt
+                while (true) {
+                    // symbols received during a failed decoding may be enough for another attempt
+                    while (symbolsState.canDecode() && symbolsState.numReceivedSymbols() > numDecodedSymbols) {
+                        final DecodingSnapshot snapshot = symbolsState.takeSnapshot();
+                        if (snapshot == null) {
+                            break; // the source block was decoded meanwhile
+                        }
+
+                        numDecodedSymbols = snapshot.numReceivedSymbols;
+                        putDecodingResult(snapshot, recoverSourceSymbols(snapshot));
+                    }
+
+                    pendingDecoding.compareAndSet(future, null);
+
+                    // other threads may have received symbols after the last check and before the reset above
+                    if (!symbolsState.canDecode() ||
+                        symbolsState.numReceivedSymbols() <= numDecodedSymbols ||
+                        !pendingDecoding.compareAndSet(null, future))
+                    {
+                        return symbolsState.sourceBlockState();
+                    }
+                }
+            }
+            catch (RuntimeException | Error e) {
+                pendingDecoding.compareAndSet(future, null);
+                throw e;
+            }
+        }
+    }
+
+    // the symbols available at the start of a decoding operation
+    private static final class DecodingSnapshot {
+
+        final int numReceivedSymbols;
+        final int[] receivedSourceESIs;
+        final int[] missingSourceESIs;
+        final int[] repairESIs;
+        final RepairSymbol[] repairSymbols;
+
+
+        DecodingSnapshot(
+            int[] receivedSourceESIs,
+            int[] missingSourceESIs,
+            int[] repairESIs,
+            RepairSymbol[] repairSymbols)
+        {
+
+            this.numReceivedSymbols = receivedSourceESIs.length + repairESIs.length;
+            this.receivedSourceESIs = receivedSourceESIs;
+            this.missingSourceESIs = missingSourceESIs;
+            this.repairESIs = repairESIs;
+            this.repairSymbols = repairSymbols;
+        }
+    }
+
+    /*
+     * The symbols state is updated without locking. Source symbols are marked as received in a bitmap only after their
+     * data is written, and the number of received symbols is kept in counters.
+     */
     private static final class SymbolsState {
 
-        private SourceBlockState sbState;
+        private final AtomicReference<SourceBlockState> sbState;
 
         private final ImmutableList<SourceSymbol> sourceSymbols;
-        private final Map<Integer, RepairSymbol> repairSymbols;
+        private final AtomicLongArray claimedSourceSymbols; // symbols being written or already received
+        private final AtomicLongArray receivedSourceSymbols;
+        private final AtomicInteger numSourceSymbols;
 
-        private final BitSet sourceSymbolsBitSet;
-        private final Iterable<Integer> missingSourceSymbols;
-        private final Iterable<Integer> receivedSourceSymbols;
+        private final ConcurrentMap<Integer, RepairSymbol> repairSymbols;
+        private final Queue<Integer> repairSymbolsOrder; // preserves receiving ordering
+        private final AtomicInteger numRepairSymbols;
+        private final BufferType repairSymbolsType;
 
-        private int symbolOverhead;
+        private volatile int symbolOverhead;
 
-        private final Lock symbolsStateLock;
 
+        SymbolsState(ImmutableList<SourceSymbol> sourceSymbols, int symbOver, BufferType repairSymbolsType) {
 
-        SymbolsState(ImmutableList<SourceSymbol> sourceSymbols, int symbOver) {
-
-            this.sbState = SourceBlockState.INCOMPLETE;
+            this.sbState = new AtomicReference<>(SourceBlockState.INCOMPLETE);
 
             this.sourceSymbols = Objects.requireNonNull(sourceSymbols);
-            this.repairSymbols = new LinkedHashMap<>(); // preserved receiving ordering
 
             final int K = sourceSymbols.size();
+            final int numWords = (K + Long.SIZE - 1) / Long.SIZE;
 
-            this.sourceSymbolsBitSet = new BitSet(K);
-            this.missingSourceSymbols = new MissingSourceSymbolsIterable(sourceSymbolsBitSet, K);
-            this.receivedSourceSymbols = new ReceivedSourceSymbolsIterable(sourceSymbolsBitSet);
+            this.claimedSourceSymbols = new AtomicLongArray(numWords);
+            this.receivedSourceSymbols = new AtomicLongArray(numWords);
+            this.numSourceSymbols = new AtomicInteger(0);
 
-            setSymbolOverhead(symbOver);
+            this.repairSymbols = new ConcurrentHashMap<>();
+            this.repairSymbolsOrder = new ConcurrentLinkedQueue<>();
+            this.numRepairSymbols = new AtomicInteger(0);
+            this.repairSymbolsType = Objects.requireNonNull(repairSymbolsType);
 
-            this.symbolsStateLock = new ReentrantLock(false); // non-fair lock
+            setSymbolOverhead(symbOver);
         }
 
         int K() {
@@ -542,54 +780,63 @@ final class ArraySourceBlockDecoder implements SourceBlockDecoder {
             return sourceSymbols.size();
         }
 
-        // Always call this method before accessing the symbols state!
-        void lock() {
-
-            symbolsStateLock.lock();
-        }
-
-        // Always call this method after using the symbols state!
-        void unlock() {
+        int symbolSize() {
 
-            symbolsStateLock.unlock();
+            return sourceSymbols.get(0).codeSize();
         }
 
         SourceBlockState sourceBlockState() {
 
-            return sbState;
+            return sbState.get();
         }
 
         void setSourceBlockDecodingFailure() {
 
-            sbState = SourceBlockState.DECODING_FAILURE;
+            // the source block may have been decoded meanwhile
+            sbState.compareAndSet(SourceBlockState.INCOMPLETE, SourceBlockState.DECODING_FAILURE);
         }
 
         boolean isSourceBlockDecoded() {
 
-            return sbState == SourceBlockState.DECODED;
-        }
-
-        int numMissingSourceSymbols() {
-
-            return K() - sourceSymbolsBitSet.cardinality();
+            return sbState.get() == SourceBlockState.DECODED;
         }
 
         // requires valid parameter
         boolean containsSourceSymbol(int esi) {
 
-            return sourceSymbolsBitSet.get(esi);
+            return getBit(receivedSourceSymbols, esi);
         }
 
         // requires valid parameter
-        void addSourceSymbol(int esi, ByteBuffer symbolData, SourceSymbolDataType dataType) {
+        // returns false if the symbol was already received (or is being received by another thread)
+        boolean addSourceSymbol(int esi, ByteBuffer symbolData, SourceSymbolDataType dataType) {
+
+            if (!setBit(claimedSourceSymbols, esi)) {
+                return false;
+            }
 
             putSourceSymbolData(esi, symbolData, dataType);
-            sourceSymbolsBitSet.set(esi); // mark the symbol as received
-            sbState = SourceBlockState.INCOMPLETE;
+            setBit(receivedSourceSymbols, esi); // mark the symbol as received
 
-            if (numMissingSourceSymbols() == 0) {
-                sbState = SourceBlockState.DECODED;
-                repairSymbols.clear(); // free memory
+            if (numSourceSymbols.incrementAndGet() == K()) {
+                sbState.set(SourceBlockState.DECODED);
+                discardRepairSymbols(); // free memory
+            }
+            else {
+                sbState.compareAndSet(SourceBlockState.DECODING_FAILURE, SourceBlockState.INCOMPLETE);
+            }
+
+            return true;
+        }
+
+        // repair symbols added after the source block is decoded are discarded by their adding thread instead
+        private void discardRepairSymbols() {
+
+            Integer esi;
+            while ((esi = repairSymbolsOrder.poll()) != null) {
+                if (repairSymbols.remove(esi) != null) {
+                    numRepairSymbols.decrementAndGet();
+                }
             }
         }
 
@@ -615,19 +862,15 @@ final class ArraySourceBlockDecoder implements SourceBlockDecoder {
             return sourceSymbols.get(esi);
         }
 
-        Iterable<Integer> missingSourceSymbols() {
+        int[] missingSourceSymbols() {
 
-            return missingSourceSymbols;
-        }
-
-        Iterable<Integer> receivedSourceSymbols() {
-
-            return receivedSourceSymbols;
+            final long[] received = getBits(receivedSourceSymbols);
+            return bitIndexes(received, false, K() - bitCount(received));
         }
 
         int numRepairSymbols() {
 
-            return repairSymbols.size();
+            return numRepairSymbols.get();
         }
 
         // requires valid parameter
@@ -640,25 +883,93 @@ final class ArraySourceBlockDecoder implements SourceBlockDecoder {
          * requires valid parameter
          * requires !isSourceBlockDecoded()
          */
-        void addRepairSymbol(int esi, ByteBuffer symbolData) {
+        // returns false if the symbol was already received, and always advances the buffer position by the symbol size
+        boolean addRepairSymbol(int esi, ByteBuffer symbolData) {
 
-            repairSymbols.put(esi, RepairSymbol.copyData(symbolData));
-            sbState = SourceBlockState.INCOMPLETE;
-        }
+            final RepairSymbol repairSymbol = RepairSymbol.copyData(symbolData, symbolSize(), repairSymbolsType);
+            if (repairSymbols.putIfAbsent(esi, repairSymbol) != null) {
+                return false;
+            }
+
+            repairSymbolsOrder.add(esi);
+            numRepairSymbols.incrementAndGet();
 
-        Iterable<Entry<Integer, RepairSymbol>> repairSymbols() {
+            // the source block may have been decoded (and its repair symbols discarded) after the caller's check
+            if (isSourceBlockDecoded()) {
+                if (repairSymbols.remove(esi, repairSymbol)) {
+                    numRepairSymbols.decrementAndGet();
+                }
+                repairSymbolsOrder.remove(esi);
+                return false;
+            }
 
-            return repairSymbols.entrySet();
+            sbState.compareAndSet(SourceBlockState.DECODING_FAILURE, SourceBlockState.INCOMPLETE);
+            return true;
         }
 
         Set<Integer> repairSymbolsESIs() {
 
-            return repairSymbols.keySet();
+            final Set<Integer> esis = new LinkedHashSet<>();
+            for (Integer esi : repairSymbolsOrder) {
+                if (repairSymbols.containsKey(esi)) {
+                    esis.add(esi);
+                }
+            }
+
+            return esis;
+        }
+
+        int numReceivedSymbols() {
+
+            return numSourceSymbols.get() + numRepairSymbols.get();
+        }
+
+        // returns null if the snapshot does not have enough symbols to decode
+        DecodingSnapshot takeSnapshot() {
+
+            final long[] received = getBits(receivedSourceSymbols);
+            final int numReceived = bitCount(received);
+            final int[] receivedESIs = bitIndexes(received, true, numReceived);
+            final int[] missingESIs = bitIndexes(received, false, K() - numReceived);
+
+            // sorted by ESI, so that the same set of received symbols always results in the same erasure pattern
+            final SortedMap<Integer, RepairSymbol> repairSymbs = new TreeMap<>();
+            for (Integer esi : repairSymbolsOrder) {
+                final RepairSymbol repairSymbol = repairSymbols.get(esi);
+                if (repairSymbol != null) { // repair symbols are discarded when the source block is decoded
+                    repairSymbs.put(esi, repairSymbol);
+                }
+            }
+
+            if (repairSymbs.size() < missingESIs.length) {
+                return null;
+            }
+
+            final int[] repairESIsArray = new int[repairSymbs.size()];
+            final RepairSymbol[] repairSymbolsArray = new RepairSymbol[repairSymbs.size()];
+            int n = 0;
+            for (Map.Entry<Integer, RepairSymbol> entry : repairSymbs.entrySet()) {
+                repairESIsArray[n] = entry.getKey();
+                repairSymbolsArray[n] = entry.getValue();
+                n++;
+            }
+
+            return new DecodingSnapshot(
+                receivedESIs,
+                missingESIs,
+                repairESIsArray,
+                repairSymbolsArray);
         }
 
         boolean haveEnoughSymbolsToDecode() {
 
-            return (sourceSymbolsBitSet.cardinality() + repairSymbols.size()) >= (K() + symbolOverhead);
+            return numReceivedSymbols() >= (K() + symbolOverhead);
+        }
+
+        // returns true if a decoding operation should take place
+        boolean canDecode() {
+
+            return !isSourceBlockDecoded() && haveEnoughSymbolsToDecode();
         }
 
         int symbolOverhead() {
@@ -673,41 +984,58 @@ final class ArraySourceBlockDecoder implements SourceBlockDecoder {
             this.symbolOverhead = Math.min(symbOver, ParameterChecker.numRepairSymbolsPerBlock(K()));
         }
 
+        private int[] bitIndexes(long[] bits, boolean value, int numIndexes) {
 
-        private static final class MissingSourceSymbolsIterable implements Iterable<Integer> {
-
-            private final BitSet bitSet;
-            private final int K;
+            final int[] indexes = new int[numIndexes];
+            int n = 0;
+            for (int i = 0; i < K(); i++) {
+                if (((bits[i / Long.SIZE] & (1L << i)) != 0) == value) {
+                    indexes[n++] = i;
+                }
+            }
 
+            return indexes;
+        }
 
-            MissingSourceSymbolsIterable(BitSet bitSet, int K) {
+        private static boolean getBit(AtomicLongArray bits, int index) {
 
-                this.bitSet = Objects.requireNonNull(bitSet);
-                this.K = K;
-            }
+            return (bits.get(index / Long.SIZE) & (1L << index)) != 0;
+        }
 
-            @Override
-            public Iterator<Integer> iterator() {
+        // returns true if the bit was previously unset
+        private static boolean setBit(AtomicLongArray bits, int index) {
 
-                return BitSetIterators.newFalseIterator(bitSet, K);
+            final int word = index / Long.SIZE;
+            final long mask = 1L << index;
+            while (true) {
+                final long oldBits = bits.get(word);
+                if ((oldBits & mask) != 0) {
+                    return false;
+                }
+                if (bits.compareAndSet(word, oldBits, oldBits | mask)) {
+                    return true;
+                }
             }
         }
 
-        private static final class ReceivedSourceSymbolsIterable implements Iterable<Integer> {
+        private static long[] getBits(AtomicLongArray bits) {
 
-            private final BitSet bitSet;
+            final long[] copy = new long[bits.length()];
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = bits.get(i);
+            }
 
+            return copy;
+        }
 
-            ReceivedSourceSymbolsIterable(BitSet bitSet) {
+        private static int bitCount(long[] bits) {
 
-                this.bitSet = bitSet;
+            int count = 0;
+            for (long word : bits) {
+                count += Long.bitCount(word);
             }
 
-            @Override
-            public Iterator<Integer> iterator() {
-
-                return BitSetIterators.newTrueIterator(bitSet);
-            }
+            return count;
         }
     }
 
@@ -716,14 +1044,8 @@ final class ArraySourceBlockDecoder implements SourceBlockDecoder {
 
     static SourceBlockState forceDecode(ArraySourceBlockDecoder decoder) {
 
-        decoder.symbolsState.lock();
-        try {
-            decoder.decode();
-            return decoder.symbolsState.sourceBlockState();
-        }
-        finally {
-            decoder.symbolsState.unlock();
-        }
+        decoder.decode();
+        return decoder.symbolsState.sourceBlockState();
     }
 }
 
@@ -16,16 +16,26 @@
 package net.fec.openrq;
 
 
+import java.lang.ref.SoftReference;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import net.fec.openrq.encoder.DataEncoder;
 import net.fec.openrq.encoder.SourceBlockEncoder;
 import net.fec.openrq.parameters.FECParameters;
 import net.fec.openrq.parameters.ParameterChecker;
 import net.fec.openrq.util.collection.ImmutableList;
+import net.fec.openrq.util.io.ByteBuffers;
+import net.fec.openrq.util.io.ByteBuffers.BufferType;
 import net.fec.openrq.util.linearalgebra.matrix.ByteMatrix;
 import net.fec.openrq.util.rq.IntermediateSymbolsDecoder;
+import net.fec.openrq.util.rq.SymbolMatrix;
 import net.fec.openrq.util.rq.SystematicIndices;
 
 
@@ -33,6 +43,9 @@ import net.fec.openrq.util.rq.SystematicIndices;
  */
 final class ArraySourceBlockEncoder implements SourceBlockEncoder {
 
+    // maximum number of bytes of the intermediate symbols of source blocks that are generated together
+    static final long MAX_GROUP_SIZE = 64L * 1024 * 1024;
+
     /*
      * Requires valid arguments.
      */
@@ -50,23 +63,66 @@ final class ArraySourceBlockEncoder implements SourceBlockEncoder {
                 }
             });
 
-        return new ArraySourceBlockEncoder(dataEncoder, sbn, sourceSymbols);
+        return new ArraySourceBlockEncoder(dataEncoder, sbn, sourceSymbols, null, BufferType.ARRAY_BACKED);
+    }
+
+    /*
+     * Requires valid arguments.
+     */
+    static ArraySourceBlockEncoder newEncoder(DataEncoder dataEncoder,
+        final ByteBuffer buffer, int bufferOff, FECParameters fecParams, int sbn) {
+
+        ImmutableList<SourceSymbol> sourceSymbols = DataUtils.partitionSourceBlock(
+            sbn, fecParams, bufferOff,
+            SourceSymbol.class, new DataUtils.SourceSymbolSupplier<SourceSymbol>() {
+
+                @Override
+                public SourceSymbol get(int off, @SuppressWarnings("unused") int esi, int T) {
+
+                    return BufferSourceSymbol.newSymbol(buffer, off, T);
+                }
+            });
+
+        // the intermediate and repair symbols are stored in the same type of buffer as the source data
+        final BufferType type = buffer.isDirect() ? BufferType.DIRECT : BufferType.ARRAY_BACKED;
+        return new ArraySourceBlockEncoder(dataEncoder, sbn, sourceSymbols, null, type);
     }
 
+    /*
+     * Requires valid arguments.
+     */
+    static ArraySourceBlockEncoder newEncoder(DataEncoder dataEncoder, FileSourceBlock block, int sbn) {
 
-    private final ArrayDataEncoder dataEncoder;
+        final ImmutableList<SourceSymbol> sourceSymbols =
+            block.sourceSymbols(DataUtils.getK(dataEncoder.fecParameters(), sbn));
+        return new ArraySourceBlockEncoder(dataEncoder, sbn, sourceSymbols, block, BufferType.ARRAY_BACKED);
+    }
+
+
+    private final DataEncoder dataEncoder;
     private final ImmutableList<SourceSymbol> sourceSymbols;
-    private byte[][] intermediateSymbols = null;
+    private final SourceBlockMapping mapping; // null if the source data is always in memory
+    private final BufferType symbolsType; // of the intermediate and repair symbols
+
+    // the intermediate symbols are only softly referenced if the source data is mapped, since these are large and can
+    // be generated again
+    private volatile SymbolMatrix intermediateSymbols = null;
+    private volatile SoftReference<SymbolMatrix> softIntermediateSymbols = null;
+
+    // set while a thread generates the intermediate symbols, so that groups of source blocks skip this one
+    private final AtomicBoolean generating = new AtomicBoolean(false);
 
     private final int sbn;
     private final int Kprime;
 
 
-    private ArraySourceBlockEncoder(ArrayDataEncoder dataEncoder, int sbn,
-        ImmutableList<SourceSymbol> sourceSymbols) {
+    private ArraySourceBlockEncoder(DataEncoder dataEncoder, int sbn,
+        ImmutableList<SourceSymbol> sourceSymbols, SourceBlockMapping mapping, BufferType symbolsType) {
 
         this.dataEncoder = Objects.requireNonNull(dataEncoder);
         this.sourceSymbols = Objects.requireNonNull(sourceSymbols);
+        this.mapping = mapping;
+        this.symbolsType = Objects.requireNonNull(symbolsType);
 
         this.sbn = sbn;
         this.Kprime = SystematicIndices.ceil(K());
@@ -83,23 +139,113 @@ final class ArraySourceBlockEncoder implements SourceBlockEncoder {
     }
 
     // use only this method for access to the intermediate symbols
-    private byte[][] getIntermediateSymbols() {
+    private SymbolMatrix getIntermediateSymbols() {
 
         // Note: if multiple threads call this method concurrently, then
         // no harm is done, only the fact that some threads may perform
         // useless work
 
-        byte[][] is = intermediateSymbols;
+        SymbolMatrix is = cachedIntermediateSymbols();
         if (is == null) {
-            is = generateIntermediateSymbols();
-            intermediateSymbols = is;
+            // only this source block is generated, so that the first repair symbol does not wait for other source
+            // blocks; if a group with this source block is being generated by another thread, it is generated again
+            final boolean claimed = generating.compareAndSet(false, true);
+            try {
+                is = generateIntermediateSymbols();
+                cacheIntermediateSymbols(is);
+            }
+            finally {
+                if (claimed) {
+                    generating.set(false);
+                }
+            }
         }
 
         return is;
     }
 
+    private SymbolMatrix cachedIntermediateSymbols() {
+
+        if (mapping == null) {
+            return intermediateSymbols;
+        }
+        else {
+            final SoftReference<SymbolMatrix> ref = softIntermediateSymbols;
+            return (ref == null) ? null : ref.get();
+        }
+    }
+
+    private void cacheIntermediateSymbols(SymbolMatrix is) {
+
+        if (mapping == null) {
+            intermediateSymbols = is;
+        }
+        else {
+            softIntermediateSymbols = new SoftReference<>(is);
+        }
+    }
+
+    /*
+     * Generates ahead of time the intermediate symbols of the given source blocks, in the calling thread. Source blocks
+     * with the same K' are generated together, in groups of at most MAX_GROUP_SIZE bytes of intermediate symbols.
+     * Source blocks that already have intermediate symbols, or that are being generated by another thread, are
+     * skipped, so concurrent callers share the work instead of repeating it.
+     */
+    static void prepareIntermediateSymbols(Iterable<SourceBlockEncoder> sourceBlocks) {
+
+        final Map<Integer, List<ArraySourceBlockEncoder>> groups = new LinkedHashMap<>(); // by K'
+        final List<ArraySourceBlockEncoder> claimed = new ArrayList<>();
+        try {
+            for (SourceBlockEncoder sbEnc : sourceBlocks) {
+                final ArraySourceBlockEncoder enc = (ArraySourceBlockEncoder)sbEnc;
+                if (enc.cachedIntermediateSymbols() != null || !enc.generating.compareAndSet(false, true)) {
+                    continue;
+                }
+                claimed.add(enc);
+
+                List<ArraySourceBlockEncoder> group = groups.get(enc.Kprime);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    groups.put(enc.Kprime, group);
+                }
+                group.add(enc);
+
+                if (group.size() >= enc.maxGroupBlocks()) {
+                    generateIntermediateSymbols(group);
+                    groups.remove(enc.Kprime);
+                }
+            }
+
+            for (List<ArraySourceBlockEncoder> group : groups.values()) {
+                generateIntermediateSymbols(group);
+            }
+        }
+        finally {
+            for (ArraySourceBlockEncoder enc : claimed) {
+                enc.generating.set(false);
+            }
+        }
+    }
+
+    private long maxGroupBlocks() {
+
+        return Math.max(1, MAX_GROUP_SIZE / ((long)L() * fecParameters().symbolSize()));
+    }
+
+    // for testing
+    boolean hasIntermediateSymbols() {
+
+        return cachedIntermediateSymbols() != null;
+    }
+
+    private int L() {
+
+        final int Ki = SystematicIndices.getKIndex(Kprime);
+        return Kprime + SystematicIndices.S(Ki) + SystematicIndices.H(Ki);
+    }
+
     @Override
-    public ArrayDataEncoder dataEncoder() {
+    public DataEncoder dataEncoder() {
 
         return dataEncoder;
     }
@@ -152,7 +298,7 @@ final class ArraySourceBlockEncoder implements SourceBlockEncoder {
             totalSize += getSourceSymbol(ii).transportSize();
         }
 
-        final ByteBuffer symbols = ByteBuffer.allocate(totalSize);
+        final ByteBuffer symbols = ByteBuffers.allocate(totalSize, symbolsType);
         for (int n = 0, ii = esi; n < numSymbols; n++, ii++) {
             symbols.put(getSourceSymbol(ii).transportData());
         }
@@ -177,8 +323,7 @@ final class ArraySourceBlockEncoder implements SourceBlockEncoder {
         checkNumRepairSymbols(esi, numSymbols);
 
         // retrieve repair symbols data
-        final ByteBuffer symbols = ByteBuffer.allocate(numSymbols
-                                                       * fecParameters().symbolSize());
+        final ByteBuffer symbols = ByteBuffers.allocate(numSymbols * fecParameters().symbolSize(), symbolsType);
         for (int i = 0; i < numSymbols; i++) {
             symbols.put(getRepairSymbol(esi + i).readOnlyData());
         }
@@ -270,35 +415,97 @@ final class ArraySourceBlockEncoder implements SourceBlockEncoder {
 
         // generate the repair symbol data
         final int T = fecParameters().symbolSize();
-        byte[] enc_data = LinearSystem.enc(Kprime, getIntermediateSymbols(),
-            new Tuple(Kprime, isi), T);
+        final ByteBuffer enc_data = LinearSystem.enc(getIntermediateSymbols(),
+            EncodingIndexes.forKPrime(Kprime).get(isi), T, symbolsType);
 
         // TODO should we store the repair symbols generated?
-        return RepairSymbol.wrapData(ByteBuffer.wrap(enc_data));
+        return RepairSymbol.wrapData(enc_data);
     }
 
-    private byte[][] initVectorD() {
+    /*
+     * Generates the intermediate symbols of this source block alone, without accessing other source blocks of the data
+     * encoder, and keeps them for the repair symbols.
+     */
+    void prepareIntermediateSymbols() {
+
+        getIntermediateSymbols();
+    }
+
+    private SymbolMatrix initVectorD() {
+
+        // allocate and initialize vector D
+        SymbolMatrix D = SymbolMatrix.allocate(L(), fecParameters().symbolSize(), symbolsType);
+        initVectorD(D);
+
+        return D;
+    }
+
+    // D must have L zeroed rows
+    private void initVectorD(SymbolMatrix D) {
 
         // source block's parameters
         int Ki = SystematicIndices.getKIndex(Kprime);
         int S = SystematicIndices.S(Ki);
         int H = SystematicIndices.H(Ki);
-        int L = Kprime + S + H;
-        int T = fecParameters().symbolSize();
 
-        // allocate and initialize vector D
-        byte[][] D = new byte[L][T];
-        for (int row = S + H, esi = 0; row < K() + S + H; row++, esi++) {
-            getSourceSymbol(esi).getCodeData(ByteBuffer.wrap(D[row]));
+        // the source data is only mapped while it is copied
+        if (mapping != null) {
+            mapping.map();
+        }
+        try {
+            for (int row = S + H, esi = 0; row < K() + S + H; row++, esi++) {
+                getSourceSymbol(esi).getCodeData(D.row(row));
+            }
+        }
+        finally {
+            if (mapping != null) {
+                mapping.unmap();
+            }
         }
-
-        return D;
     }
 
-    private byte[][] generateIntermediateSymbols() {
+    private SymbolMatrix generateIntermediateSymbols() {
 
         // initialize the vector D with source data
-        final byte[][] D = initVectorD();
+        return generateIntermediateSymbols(initVectorD(), Kprime);
+    }
+
+    /*
+     * Generates the intermediate symbols of source blocks with the same K' at once, and caches them in each source
+     * block. Since every source block solves the same system of linear equations, the system is solved a single time
+     * for symbols that are the concatenation of the symbols of every source block, and the intermediate symbols of
+     * each source block are then a range of bytes of the solution.
+     */
+    private static void generateIntermediateSymbols(List<ArraySourceBlockEncoder> group) {
+
+        final ArraySourceBlockEncoder first = group.get(0);
+        if (group.size() == 1) {
+            first.cacheIntermediateSymbols(first.generateIntermediateSymbols());
+            return;
+        }
+
+        final int T = first.fecParameters().symbolSize();
+
+        // initialize the vector D with the concatenated source data
+        final SymbolMatrix D = SymbolMatrix.allocate(first.L(), group.size() * T, first.symbolsType);
+        for (int b = 0; b < group.size(); b++) {
+            group.get(b).initVectorD(D.columnView(b * T, T));
+        }
+
+        // the intermediate symbols of each source block are copied out of the solution, so that each source block
+        // keeps only its own symbols
+        final SymbolMatrix C = generateIntermediateSymbols(D, first.Kprime);
+        for (int b = 0; b < group.size(); b++) {
+            final SymbolMatrix view = C.columnView(b * T, T);
+            final SymbolMatrix is = SymbolMatrix.allocate(view.rows(), T, first.symbolsType);
+            for (int row = 0; row < view.rows(); row++) {
+                is.copyRow(view, row, row);
+            }
+            group.get(b).cacheIntermediateSymbols(is);
+        }
+    }
+
+    private static SymbolMatrix generateIntermediateSymbols(SymbolMatrix D, int Kprime) {
 
         // first try to obtain an optimized decoder that supports Kprime
         final IntermediateSymbolsDecoder isd = ISDManager.get(Kprime);
@@ -308,20 +515,33 @@ final class ArraySourceBlockEncoder implements SourceBlockEncoder {
         else { // if no optimized decoder is available, fall back to the
                // standard decoding process
 
+            // the intermediate symbols are computed in D, which is not part of the workspace
+            final DecodingWorkspace ws = DecodingWorkspace.acquire(Kprime, D.symbolSize());
+
             // generate LxL Constraint Matrix
-            ByteMatrix constraint_matrix = LinearSystem
-                .generateConstraintMatrix(Kprime); // A
+            ByteMatrix constraint_matrix = ws.constraintMatrix(D.rows()); // A
 
             // solve system of equations
             try {
-                return LinearSystem.PInactivationDecoding(constraint_matrix, D,
-                    Kprime);
+                if (ISDManager.shouldRecord(Kprime)) {
+                    // record the decoding process so it can be replayed for the next source blocks with the same K'
+                    final List<ISDOperation> ops = new ArrayList<>();
+                    final SymbolMatrix C = LinearSystem.PInactivationDecoding(constraint_matrix, D, Kprime, ops, ws);
+                    ISDManager.register(Kprime, ops);
+                    return C;
+                }
+                else {
+                    return LinearSystem.PInactivationDecoding(constraint_matrix, D, Kprime, null, ws);
+                }
                 // return Utilities.gaussElimination(constraint_matrix, D);
             }
             catch (SingularMatrixException e) {
                 throw new RuntimeException(
                     "FATAL ERROR: Singular matrix for the encoding process. This should never happen.");
             }
+            finally {
+                DecodingWorkspace.release(ws);
+            }
         }
     }
 
@@ -464,7 +684,7 @@ final class ArraySourceBlockEncoder implements SourceBlockEncoder {
 
     // ============================= TEST_CODE ============================= //
 
-    static byte[][] forceInitVectorD(ArraySourceBlockEncoder enc) {
+    static SymbolMatrix forceInitVectorD(ArraySourceBlockEncoder enc) {
 
         return enc.initVectorD();
     }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import net.fec.openrq.DataUtils.SourceBlockSupplier;
+import net.fec.openrq.encoder.DataEncoder;
+import net.fec.openrq.encoder.SourceBlockEncoder;
+import net.fec.openrq.parameters.FECParameters;
+import net.fec.openrq.util.collection.ImmutableList;
+
+
+/**
+ * A RaptorQ encoder for a data object stored in a buffer.
+ * <p>
+ * If the buffer is direct, then the intermediate symbols of each source block, and the repair symbols, are also stored
+ * in direct buffers, and the source data is never copied into the heap.
+ * <p>
+ * The source data must not be modified while the encoder is in use.
+ */
+public final class BufferDataEncoder implements DataEncoder {
+
+    /**
+     * @param data
+     *            A buffer with the source data to be encoded, between its position and its limit
+     * @param fecParams
+     *            FEC parameters that configure the returned data encoder object
+     * @return a data encoder object backed by a buffer
+     * @exception NullPointerException
+     *                If {@code data} or {@code fecParams} are {@code null}
+     * @exception IllegalArgumentException
+     *                If {@code fecParams.dataLength() > Integer.MAX_VALUE}
+     * @exception IndexOutOfBoundsException
+     *                If {@code fecParams.dataLength() > data.remaining()}
+     */
+    static BufferDataEncoder newEncoder(ByteBuffer data, FECParameters fecParams) {
+
+        Objects.requireNonNull(data);
+        // throws NullPointerException if null fecParams
+        if (fecParams.dataLength() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("data length must be at most 2^^31 - 1");
+        }
+        if (fecParams.dataLength() > data.remaining()) {
+            throw new IndexOutOfBoundsException("source data exceeds the limit of the buffer");
+        }
+
+        final ByteBuffer buffer = data.slice();
+        buffer.limit(fecParams.dataLengthAsInt());
+        return new BufferDataEncoder(buffer, fecParams);
+    }
+
+
+    private final ByteBuffer buffer; // position zero and limit equal to the data length
+
+    private final FECParameters fecParams;
+    private final ImmutableList<SourceBlockEncoder> srcBlockEncoders;
+
+
+    private BufferDataEncoder(ByteBuffer buffer, FECParameters fecParams) {
+
+        this.buffer = buffer;
+
+        this.fecParams = fecParams;
+
+        this.srcBlockEncoders = DataUtils.partitionSourceData(
+            fecParams,
+            SourceBlockEncoder.class, new SourceBlockSupplier<SourceBlockEncoder>() {
+
+                @Override
+                public SourceBlockEncoder get(int off, int sbn) {
+
+                    return ArraySourceBlockEncoder.newEncoder(
+                        BufferDataEncoder.this,
+                        BufferDataEncoder.this.buffer, off,
+                        BufferDataEncoder.this.fecParams, sbn);
+                }
+            });
+    }
+
+    @Override
+    public FECParameters fecParameters() {
+
+        return fecParams;
+    }
+
+    @Override
+    public long dataLength() {
+
+        return fecParams.dataLength();
+    }
+
+    @Override
+    public int symbolSize() {
+
+        return fecParams.symbolSize();
+    }
+
+    @Override
+    public int numberOfSourceBlocks() {
+
+        return fecParams.numberOfSourceBlocks();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @exception IllegalArgumentException
+     *                If the provided source block number is invalid
+     * @see #numberOfSourceBlocks()
+     */
+    @Override
+    public SourceBlockEncoder sourceBlock(int sbn) {
+
+        try {
+            return srcBlockEncoders.get(sbn); // list is random access
+        }
+        catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("invalid source block number");
+        }
+    }
+
+    @Override
+    public Iterable<SourceBlockEncoder> sourceBlockIterable() {
+
+        return srcBlockEncoders;
+    }
+
+    /**
+     * Generates ahead of time, in the calling thread, the intermediate symbols of every source block, from which the
+     * repair symbols are computed. Source blocks with the same number of source symbols are generated together, solving
+     * the system of linear equations once for many source blocks instead of once per source block.
+     * <p>
+     * Without this method, the intermediate symbols of a source block are generated on their own when its first repair
+     * packet is produced. This method may be called concurrently by multiple threads, in which case each source block
+     * is generated by one thread only.
+     */
+    public void prepareIntermediateSymbols() {
+
+        ArraySourceBlockEncoder.prepareIntermediateSymbols(srcBlockEncoders);
+    }
+
+    /**
+     * Returns a new buffer over the source data (no data copies are performed). The returned buffer has a position of
+     * zero and a limit equal to the data length.
+     *
+     * @return a new buffer over the source data
+     */
+    public ByteBuffer dataBuffer() {
+
+        return buffer.duplicate();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import net.fec.openrq.util.io.BufferOperation;
+import net.fec.openrq.util.io.ByteBuffers;
+
+
+/**
+ * Container of source symbol data stored in a buffer.
+ */
+final class BufferSourceSymbol implements SourceSymbol {
+
+    /*
+     * Requires valid parameters.
+     */
+    static BufferSourceSymbol newSymbol(ByteBuffer srcData, int symbolOff, int symbolSize) {
+
+        final int transportSize = Math.min(symbolSize, srcData.limit() - symbolOff);
+        return new BufferSourceSymbol(srcData, symbolOff, symbolSize, transportSize);
+    }
+
+
+    private final int codeSize;
+
+    private final ByteBuffer transportBuf;
+
+
+    private BufferSourceSymbol(ByteBuffer srcData, int symbolOff, int codeSize, int transportSize) {
+
+        this.codeSize = codeSize;
+
+        this.transportBuf = prepareTransportBuffer(srcData, symbolOff, transportSize);
+    }
+
+    private static ByteBuffer prepareTransportBuffer(ByteBuffer buf, int off, int len) {
+
+        final ByteBuffer dup = buf.duplicate();
+        dup.limit(off + len).position(off);
+        return dup.slice();
+    }
+
+    @Override
+    public int codeSize() {
+
+        return codeSize;
+    }
+
+    @Override
+    public void getCodeData(ByteBuffer dst) {
+
+        getCodeData(dst, BufferOperation.ADVANCE_POSITION);
+    }
+
+    @Override
+    public void getCodeData(ByteBuffer dst, BufferOperation op) {
+
+        final int pos = dst.position();
+        if (dst.remaining() < codeSize()) throw new BufferOverflowException();
+
+        dst.put(transportBuf.duplicate());
+        ByteBuffers.putZeros(dst, codeSize() - transportSize());
+
+        op.apply(dst, pos, dst.position());
+    }
+
+    @Override
+    public void putCodeData(ByteBuffer src) {
+
+        putCodeData(src, BufferOperation.ADVANCE_POSITION);
+    }
+
+    @Override
+    public void putCodeData(ByteBuffer src, BufferOperation op) {
+
+        final int pos = src.position();
+        if (src.remaining() < codeSize()) throw new BufferUnderflowException();
+
+        putData(src);
+        src.position(pos + codeSize()); // always advance by codeSize() bytes
+        op.apply(src, pos, src.position());
+    }
+
+    @Override
+    public int transportSize() {
+
+        return transportBuf.capacity();
+    }
+
+    @Override
+    public ByteBuffer transportData() {
+
+        return transportBuf.asReadOnlyBuffer();
+    }
+
+    @Override
+    public void putTransportData(ByteBuffer src) {
+
+        putTransportData(src, BufferOperation.ADVANCE_POSITION);
+    }
+
+    @Override
+    public void putTransportData(ByteBuffer src, BufferOperation op) {
+
+        final int pos = src.position();
+        if (src.remaining() < transportSize()) throw new BufferUnderflowException();
+
+        putData(src);
+        op.apply(src, pos, src.position());
+    }
+
+    // copies transportSize() bytes from the source buffer, advancing its position
+    private void putData(ByteBuffer src) {
+
+        final ByteBuffer from = src.duplicate();
+        from.limit(from.position() + transportSize());
+        transportBuf.duplicate().put(from);
+        src.position(from.position());
+    }
+}
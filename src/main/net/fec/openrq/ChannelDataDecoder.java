@@ -0,0 +1,552 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.fec.openrq.decoder.DataDecoder;
+import net.fec.openrq.decoder.SourceBlockDecoder;
+import net.fec.openrq.decoder.SourceBlockState;
+import net.fec.openrq.parameters.FECParameters;
+import net.fec.openrq.parameters.ParameterChecker;
+import net.fec.openrq.util.io.ExtraChannels;
+import net.fec.openrq.util.io.UncheckedIOException;
+
+
+/**
+ * A RaptorQ decoder that writes the source data to a channel.
+ * <p>
+ * The source data of each source block is written to the channel as soon as that source block and all previous source
+ * blocks are decoded, so the source data is written in order. The memory of a source block is only allocated when its
+ * decoder is first accessed, and is released once its source data is written (the received repair symbols are already
+ * released when the source block is decoded). The decoder of a source block that was already written is then replaced
+ * by a decoder that holds no symbols and ignores every encoding packet.
+ * <p>
+ * The source data is written by a thread that completes the decoding of a source block, one source block at a time.
+ * Writing does not hold any lock that is needed to receive encoding packets, so a slow channel does not block the
+ * threads that receive packets of other source blocks. The channel must be in blocking mode. The decoder must not be
+ * used after an error occurs while writing the channel.
+ */
+public final class ChannelDataDecoder implements DataDecoder {
+
+    /**
+     * @param channel
+     *            A writable channel to where the source data is written
+     * @param fecParams
+     *            FEC parameters that configure the returned data decoder object
+     * @param symbOver
+     *            Repair symbol overhead (must be non-negative)
+     * @return a data decoder object that writes the source data to a channel
+     * @exception NullPointerException
+     *                If {@code channel} or {@code fecParams} are {@code null}
+     * @exception IllegalArgumentException
+     *                If a source block has more than {@code Integer.MAX_VALUE} bytes, or if {@code symbOver < 0}
+     */
+    static ChannelDataDecoder newDecoder(WritableByteChannel channel, FECParameters fecParams, int symbOver) {
+
+        Objects.requireNonNull(channel);
+        // throws NullPointerException if null fecParams
+        if ((long)DataUtils.getK(fecParams, 0) * fecParams.symbolSize() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("source block length must be at most 2^^31 - 1");
+        }
+        if (symbOver < 0) {
+            throw new IllegalArgumentException("negative symbol overhead");
+        }
+
+        return new ChannelDataDecoder(channel, fecParams, symbOver);
+    }
+
+
+    private final WritableByteChannel channel;
+    private final FECParameters fecParams;
+    private final int symbOver;
+    private final DecodingSchedules decodingSchedules;
+
+    // read without locking, created when first accessed (under the lock of this) and replaced once written
+    private final AtomicReferenceArray<SourceBlockDecoder> srcBlockDecoders;
+
+    // guarded by this
+    private final ChannelSourceBlock[] srcBlocks; // null once queued for writing
+    private final boolean[] decoded;
+    private int nextQueuedSBN = 0;
+    private final Deque<ByteBuffer> writeQueue; // source data of decoded source blocks, in order, not written yet
+    private boolean writing = false; // true while a thread writes the queued source data
+
+    // only modified by the thread that writes the queued source data
+    private volatile int nextWrittenSBN = 0;
+
+
+    private ChannelDataDecoder(WritableByteChannel channel, FECParameters fecParams, int symbOver) {
+
+        this.channel = channel;
+        this.fecParams = fecParams;
+        this.symbOver = symbOver;
+        this.decodingSchedules = new DecodingSchedules();
+
+        final int Z = fecParams.numberOfSourceBlocks();
+        this.srcBlockDecoders = new AtomicReferenceArray<>(Z);
+        this.srcBlocks = new ChannelSourceBlock[Z];
+        this.decoded = new boolean[Z];
+        this.writeQueue = new ArrayDeque<>();
+    }
+
+    @Override
+    public FECParameters fecParameters() {
+
+        return fecParams;
+    }
+
+    @Override
+    public long dataLength() {
+
+        return fecParams.dataLength();
+    }
+
+    @Override
+    public int symbolSize() {
+
+        return fecParams.symbolSize();
+    }
+
+    @Override
+    public int numberOfSourceBlocks() {
+
+        return fecParams.numberOfSourceBlocks();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The source data is decoded once it is entirely written to the channel.
+     */
+    @Override
+    public boolean isDataDecoded() {
+
+        return nextWrittenSBN == numberOfSourceBlocks();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @exception IllegalArgumentException
+     *                If the provided source block number is invalid
+     */
+    @Override
+    public SourceBlockDecoder sourceBlock(int sbn) {
+
+        if (sbn < 0 || sbn >= numberOfSourceBlocks()) {
+            throw new IllegalArgumentException("invalid source block number");
+        }
+
+        final SourceBlockDecoder dec = srcBlockDecoders.get(sbn);
+        return (dec != null) ? dec : newSourceBlockDecoder(sbn);
+    }
+
+    private synchronized SourceBlockDecoder newSourceBlockDecoder(int sbn) {
+
+        if (srcBlockDecoders.get(sbn) == null) {
+            final int T = fecParams.symbolSize();
+            final long blockOff = DataUtils.getSourceBlockOffset(fecParams, sbn);
+            final int K = DataUtils.getK(fecParams, sbn);
+            final int blockLen = (int)Math.min((long)K * T, fecParams.dataLength() - blockOff);
+
+            srcBlocks[sbn] = new ChannelSourceBlock(this, sbn, blockLen, T);
+            srcBlockDecoders.set(sbn, ArraySourceBlockDecoder.newDecoder(
+                this, decodingSchedules, srcBlocks[sbn], sbn, symbOver));
+        }
+
+        return srcBlockDecoders.get(sbn);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The returned iterable creates the decoders of source blocks as they are iterated.
+     */
+    @Override
+    public Iterable<SourceBlockDecoder> sourceBlockIterable() {
+
+        return new Iterable<SourceBlockDecoder>() {
+
+            @Override
+            public Iterator<SourceBlockDecoder> iterator() {
+
+                return new Iterator<SourceBlockDecoder>() {
+
+                    private int nextSBN = 0;
+
+
+                    @Override
+                    public boolean hasNext() {
+
+                        return nextSBN < numberOfSourceBlocks();
+                    }
+
+                    @Override
+                    public SourceBlockDecoder next() {
+
+                        if (!hasNext()) throw new NoSuchElementException();
+                        return sourceBlock(nextSBN++);
+                    }
+
+                    @Override
+                    public void remove() {
+
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Returns the channel to where the source data is written.
+     *
+     * @return the channel to where the source data is written
+     */
+    public WritableByteChannel dataChannel() {
+
+        return channel;
+    }
+
+    // called by a source block once it is decoded, queues every source block that can now be written in order, and
+    // writes them unless another thread is already writing
+    void sourceBlockDecoded(int sbn) {
+
+        synchronized (this) {
+            decoded[sbn] = true;
+            while (nextQueuedSBN < numberOfSourceBlocks() && decoded[nextQueuedSBN]) {
+                writeQueue.add(srcBlocks[nextQueuedSBN].release());
+                srcBlocks[nextQueuedSBN] = null;
+                nextQueuedSBN++;
+            }
+
+            if (writing || writeQueue.isEmpty()) {
+                return; // the writing thread also writes the newly queued source blocks
+            }
+            writing = true;
+        }
+
+        writeQueuedSourceBlocks();
+    }
+
+    // a single thread at a time writes the queued source data, without holding the lock while writing
+    private void writeQueuedSourceBlocks() {
+
+        while (true) {
+            final ByteBuffer data;
+            synchronized (this) {
+                data = writeQueue.poll();
+                if (data == null) {
+                    writing = false;
+                    return;
+                }
+            }
+
+            try {
+                ExtraChannels.writeBytes(channel, data);
+            }
+            catch (IOException e) {
+                synchronized (this) {
+                    writing = false;
+                }
+                throw new UncheckedIOException(e);
+            }
+
+            final int sbn = nextWrittenSBN;
+            final SourceBlockDecoder written = srcBlockDecoders.get(sbn);
+            srcBlockDecoders.set(sbn, new WrittenSourceBlockDecoder(
+                this, sbn, written.numberOfSourceSymbols(), written.symbolOverhead()));
+            nextWrittenSBN = sbn + 1;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @exception NullPointerException
+     *                If {@code symbols} is {@code null}
+     */
+    @Override
+    public Parsed<EncodingPacket> parsePacket(int sbn, int esi, byte[] symbols, boolean copySymbols) {
+
+        return DataUtils.parsePacket(this, sbn, esi, symbols, copySymbols);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @exception IndexOutOfBoundsException
+     *                If the pre-conditions on the array offset and length do not hold
+     * @exception NullPointerException
+     *                If {@code symbols} is {@code null}
+     */
+    @Override
+    public Parsed<EncodingPacket> parsePacket(int sbn, int esi, byte[] symbols, int off, int len, boolean copySymbols) {
+
+        return DataUtils.parsePacket(this, sbn, esi, symbols, off, len, copySymbols);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @exception NullPointerException
+     *                If {@code symbols} is {@code null}
+     */
+    @Override
+    public Parsed<EncodingPacket> parsePacket(int sbn, int esi, ByteBuffer symbols, boolean copySymbols) {
+
+        return DataUtils.parsePacket(this, sbn, esi, symbols, copySymbols);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @exception NullPointerException
+     *                If {@code ser} is {@code null}
+     */
+    @Override
+    public Parsed<EncodingPacket> parsePacket(SerializablePacket ser, boolean copySymbols) {
+
+        return DataUtils.parsePacket(this, ser, copySymbols);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @exception NullPointerException
+     *                If {@code array} is {@code null}
+     */
+    @Override
+    public Parsed<EncodingPacket> parsePacket(byte[] array, boolean copySymbols) {
+
+        return DataUtils.parsePacket(this, array, copySymbols);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @exception IndexOutOfBoundsException
+     *                If the pre-conditions on the array offset and length do not hold
+     * @exception NullPointerException
+     *                If {@code array} is {@code null}
+     */
+    @Override
+    public Parsed<EncodingPacket> parsePacket(byte[] array, int off, int len, boolean copySymbols) {
+
+        return DataUtils.parsePacket(this, array, off, len, copySymbols);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @exception NullPointerException
+     *                If {@code buffer} is {@code null}
+     */
+    @Override
+    public Parsed<EncodingPacket> parsePacket(ByteBuffer buffer, boolean copySymbols) {
+
+        return DataUtils.parsePacket(this, buffer, copySymbols);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IOException
+     *             If an I/O error occurs while reading from the {@code DataInput} object
+     * @exception NullPointerException
+     *                If {@code in} is {@code null}
+     */
+    @Override
+    public Parsed<EncodingPacket> readPacketFrom(DataInput in) throws IOException {
+
+        return DataUtils.readPacketFrom(this, in);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IOException
+     *             If an I/O error occurs while reading from the {@code ReadableByteChannel} object
+     * @exception NullPointerException
+     *                If {@code ch} is {@code null}
+     */
+    @Override
+    public Parsed<EncodingPacket> readPacketFrom(ReadableByteChannel ch) throws IOException {
+
+        return DataUtils.readPacketFrom(this, ch);
+    }
+
+
+    /*
+     * Replaces the decoder of a source block whose source data was already written, so that the symbols of that
+     * decoder can be released. It reports the source block as decoded, holds no symbols and ignores every packet.
+     */
+    private static final class WrittenSourceBlockDecoder implements SourceBlockDecoder {
+
+        private static final Runnable NO_OP = new Runnable() {
+
+            @Override
+            public void run() {
+
+                // do nothing
+            }
+        };
+
+
+        private final ChannelDataDecoder dataDecoder;
+        private final int sbn;
+        private final int K;
+        private final Future<SourceBlockState> decodedFuture;
+        private volatile int symbOver;
+
+
+        WrittenSourceBlockDecoder(ChannelDataDecoder dataDecoder, int sbn, int K, int symbOver) {
+
+            this.dataDecoder = dataDecoder;
+            this.sbn = sbn;
+            this.K = K;
+            this.symbOver = symbOver;
+
+            final FutureTask<SourceBlockState> future = new FutureTask<>(NO_OP, SourceBlockState.DECODED);
+            future.run();
+            this.decodedFuture = future;
+        }
+
+        @Override
+        public DataDecoder dataDecoder() {
+
+            return dataDecoder;
+        }
+
+        @Override
+        public int sourceBlockNumber() {
+
+            return sbn;
+        }
+
+        @Override
+        public int numberOfSourceSymbols() {
+
+            return K;
+        }
+
+        @Override
+        public boolean containsSourceSymbol(int esi) {
+
+            if (esi < 0 || esi >= K) {
+                throw new IllegalArgumentException("invalid encoding symbol ID");
+            }
+            return true;
+        }
+
+        @Override
+        public boolean containsRepairSymbol(int esi) {
+
+            if (esi < K || esi > ParameterChecker.maxEncodingSymbolID()) {
+                throw new IllegalArgumentException("invalid encoding symbol ID");
+            }
+            return false;
+        }
+
+        @Override
+        public boolean isSourceBlockDecoded() {
+
+            return true;
+        }
+
+        @Override
+        public SourceBlockState latestState() {
+
+            return SourceBlockState.DECODED;
+        }
+
+        @Override
+        public Set<Integer> missingSourceSymbols() {
+
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Set<Integer> availableRepairSymbols() {
+
+            return Collections.emptySet();
+        }
+
+        @Override
+        public SBDInfo information() {
+
+            return SBDInfo.newInformation(
+                sbn,
+                SourceBlockState.DECODED,
+                Collections.<Integer>emptySet(),
+                Collections.<Integer>emptySet());
+        }
+
+        @Override
+        public SourceBlockState putEncodingPacket(EncodingPacket packet) {
+
+            checkPacketSBN(packet);
+            return SourceBlockState.DECODED;
+        }
+
+        @Override
+        public Future<SourceBlockState> putEncodingPacket(EncodingPacket packet, Executor executor) {
+
+            checkPacketSBN(packet);
+            Objects.requireNonNull(executor);
+            return decodedFuture;
+        }
+
+        @Override
+        public int symbolOverhead() {
+
+            return symbOver;
+        }
+
+        @Override
+        public void setSymbolOverhead(int symbOver) {
+
+            if (symbOver < 0) throw new IllegalArgumentException("symbol overhead must be non-negative");
+
+            // the symbol overhead cannot exceed the number of repair symbols
+            this.symbOver = Math.min(symbOver, ParameterChecker.numRepairSymbolsPerBlock(K));
+        }
+
+        private void checkPacketSBN(EncodingPacket packet) {
+
+            if (packet.sourceBlockNumber() != sbn) {
+                throw new IllegalArgumentException("the provided packet is not compatible with this source block");
+            }
+        }
+    }
+}
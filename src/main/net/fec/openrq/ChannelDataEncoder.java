@@ -0,0 +1,296 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import net.fec.openrq.encoder.DataEncoder;
+import net.fec.openrq.encoder.SourceBlockEncoder;
+import net.fec.openrq.parameters.FECParameters;
+import net.fec.openrq.util.io.ExtraChannels;
+import net.fec.openrq.util.io.UncheckedIOException;
+
+
+/**
+ * A RaptorQ encoder for a data object read from a channel.
+ * <p>
+ * The source data is read from the channel one source block at a time, and source blocks must be accessed in order of
+ * source block number. A source block is returned as soon as its intermediate symbols are generated, and while its
+ * encoding packets are produced, the next source block is read and its intermediate symbols are generated by an
+ * executor. Only the latest returned source block and the next one are kept by this encoder, so the memory in use
+ * depends on the size of a source block and not on the length of the source data.
+ * <p>
+ * The channel must be in blocking mode, and must not be read by others while the encoder is in use. The encoder must
+ * not be used after an error occurs while reading the channel.
+ */
+public final class ChannelDataEncoder implements DataEncoder {
+
+    /**
+     * @param channel
+     *            A readable channel with the source data to be encoded
+     * @param fecParams
+     *            FEC parameters that configure the returned data encoder object
+     * @param executor
+     *            An executor that reads source blocks and generates their intermediate symbols
+     * @return a data encoder object that reads the source data from a channel
+     * @exception NullPointerException
+     *                If {@code channel}, {@code fecParams} or {@code executor} are {@code null}
+     * @exception IllegalArgumentException
+     *                If a source block has more than {@code Integer.MAX_VALUE} bytes
+     */
+    static ChannelDataEncoder newEncoder(ReadableByteChannel channel, FECParameters fecParams, Executor executor) {
+
+        Objects.requireNonNull(channel);
+        Objects.requireNonNull(executor);
+        // throws NullPointerException if null fecParams
+        if ((long)DataUtils.getK(fecParams, 0) * fecParams.symbolSize() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("source block length must be at most 2^^31 - 1");
+        }
+
+        return new ChannelDataEncoder(channel, fecParams, executor);
+    }
+
+
+    private final ReadableByteChannel channel;
+    private final FECParameters fecParams;
+    private final Executor executor;
+
+    // guarded by this
+    private int nextSBN = 0; // of the next source block to be returned
+    private FutureTask<ArraySourceBlockEncoder> pending = null; // the next source block, if already submitted
+    private ArraySourceBlockEncoder latest = null; // the latest returned source block
+
+
+    private ChannelDataEncoder(ReadableByteChannel channel, FECParameters fecParams, Executor executor) {
+
+        this.channel = channel;
+        this.fecParams = fecParams;
+        this.executor = executor;
+    }
+
+    @Override
+    public FECParameters fecParameters() {
+
+        return fecParams;
+    }
+
+    @Override
+    public long dataLength() {
+
+        return fecParams.dataLength();
+    }
+
+    @Override
+    public int symbolSize() {
+
+        return fecParams.symbolSize();
+    }
+
+    @Override
+    public int numberOfSourceBlocks() {
+
+        return fecParams.numberOfSourceBlocks();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only the latest returned source block, or the next one, can be accessed. If the next source block is accessed,
+     * then the caller waits until it is read and its intermediate symbols are generated.
+     *
+     * @exception IllegalArgumentException
+     *                If the provided source block number is invalid
+     * @exception IllegalStateException
+     *                If the source block is neither the latest returned nor the next one
+     * @exception UncheckedIOException
+     *                If an I/O error occurs while reading the channel
+     * @exception java.util.concurrent.RejectedExecutionException
+     *                If the reading and generation of the source block could not be submitted to the executor
+     * @see #numberOfSourceBlocks()
+     */
+    @Override
+    public synchronized SourceBlockEncoder sourceBlock(int sbn) {
+
+        if (sbn < 0 || sbn >= numberOfSourceBlocks()) {
+            throw new IllegalArgumentException("invalid source block number");
+        }
+
+        if (latest != null && sbn == latest.sourceBlockNumber()) {
+            return latest;
+        }
+        else if (sbn == nextSBN) {
+            return nextSourceBlock();
+        }
+        else {
+            throw new IllegalStateException("source blocks must be accessed in order");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The returned iterable iterates over the source blocks that were not returned yet, in order of source block
+     * number, and source blocks returned by one iterator are not returned by another. The method {@code next()} of an
+     * iterator has the same behavior, and throws the same exceptions, as the method {@link #sourceBlock(int)}.
+     */
+    @Override
+    public Iterable<SourceBlockEncoder> sourceBlockIterable() {
+
+        return new Iterable<SourceBlockEncoder>() {
+
+            @Override
+            public Iterator<SourceBlockEncoder> iterator() {
+
+                return new SourceBlockIterator();
+            }
+        };
+    }
+
+    /**
+     * Returns the channel with the source data.
+     *
+     * @return the channel with the source data
+     */
+    public ReadableByteChannel dataChannel() {
+
+        return channel;
+    }
+
+    // requires a next source block
+    private SourceBlockEncoder nextSourceBlock() {
+
+        final FutureTask<ArraySourceBlockEncoder> next = (pending != null) ? pending : submitSourceBlock(nextSBN);
+        pending = null;
+        nextSBN++;
+
+        latest = null; // may be discarded before the next source block is ready
+        latest = awaitSourceBlock(next);
+
+        // the following source block is read and generated while the encoding packets of this one are produced; it is
+        // only submitted now, so the channel is never read by two tasks at the same time
+        if (nextSBN < numberOfSourceBlocks()) {
+            try {
+                pending = submitSourceBlock(nextSBN);
+            }
+            catch (RejectedExecutionException e) {
+                // submitted again, and rejected to the caller, when the following source block is accessed
+            }
+        }
+
+        return latest;
+    }
+
+    private FutureTask<ArraySourceBlockEncoder> submitSourceBlock(final int sbn) {
+
+        final Callable<ArraySourceBlockEncoder> readAndGenerate = new Callable<ArraySourceBlockEncoder>() {
+
+            @Override
+            public ArraySourceBlockEncoder call() {
+
+                final ArraySourceBlockEncoder enc = readSourceBlock(sbn);
+                enc.prepareIntermediateSymbols();
+                return enc;
+            }
+        };
+        final FutureTask<ArraySourceBlockEncoder> task = new FutureTask<>(readAndGenerate);
+        executor.execute(task);
+
+        return task;
+    }
+
+    private ArraySourceBlockEncoder readSourceBlock(int sbn) {
+
+        final long blockOff = DataUtils.getSourceBlockOffset(fecParams, sbn);
+        final int K = DataUtils.getK(fecParams, sbn);
+        final int blockLen = (int)Math.min((long)K * fecParams.symbolSize(), fecParams.dataLength() - blockOff);
+
+        final ByteBuffer buffer = ByteBuffer.allocate(blockLen);
+        try {
+            ExtraChannels.readBytes(channel, buffer);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.flip();
+
+        return ArraySourceBlockEncoder.newEncoder(this, buffer, 0, fecParams, sbn);
+    }
+
+    // waits uninterruptibly, and rethrows any exception thrown while reading or generating the source block
+    private static ArraySourceBlockEncoder awaitSourceBlock(FutureTask<ArraySourceBlockEncoder> task) {
+
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+                    if (cause instanceof Error) throw (Error)cause;
+                    throw new AssertionError(cause); // a task never throws checked exceptions
+                }
+            }
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    private final class SourceBlockIterator implements Iterator<SourceBlockEncoder> {
+
+        @Override
+        public boolean hasNext() {
+
+            synchronized (ChannelDataEncoder.this) {
+                return nextSBN < numberOfSourceBlocks();
+            }
+        }
+
+        @Override
+        public SourceBlockEncoder next() {
+
+            synchronized (ChannelDataEncoder.this) {
+                if (!hasNext()) throw new NoSuchElementException();
+                return nextSourceBlock();
+            }
+        }
+
+        @Override
+        public void remove() {
+
+            throw new UnsupportedOperationException();
+        }
+    }
+}
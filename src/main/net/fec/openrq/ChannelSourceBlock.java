@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import net.fec.openrq.util.collection.ImmutableList;
+import net.fec.openrq.util.io.ByteBuffers;
+
+
+/**
+ * The source data of a source block that is decoded in memory, and written to a channel once decoded.
+ * <p>
+ * The source data is kept in memory until it is written, since the source blocks are written in order. Flushing the
+ * source block signals that it is decoded, and mapping it has no effect. After the source data is written and released,
+ * source symbols read as zeros and writes to source symbols are discarded, which only happens to the symbols of a
+ * decoding that finished after the source block was decoded by other means.
+ */
+final class ChannelSourceBlock implements SourceBlockMapping {
+
+    private final ChannelDataDecoder dataDecoder;
+    private final int sbn;
+    private final int T;
+
+    private volatile ByteBuffer data; // null after being released
+
+
+    /*
+     * Requires valid arguments.
+     */
+    ChannelSourceBlock(ChannelDataDecoder dataDecoder, int sbn, int length, int T) {
+
+        this.dataDecoder = Objects.requireNonNull(dataDecoder);
+        this.sbn = sbn;
+        this.T = T;
+        this.data = ByteBuffer.allocate(length);
+    }
+
+    @Override
+    public ImmutableList<SourceSymbol> sourceSymbols(int K) {
+
+        final int length = data.capacity();
+        final SourceSymbol[] symbols = new SourceSymbol[K];
+        for (int esi = 0; esi < K; esi++) {
+            final int transportSize = Math.max(0, Math.min(T, length - esi * T));
+            symbols[esi] = new MappedSourceSymbol(this, esi, T, transportSize);
+        }
+
+        return ImmutableList.of(symbols);
+    }
+
+    @Override
+    public void map() {
+
+        // the source data is always in memory
+    }
+
+    @Override
+    public void unmap() {
+
+        // the source data is released once written
+    }
+
+    @Override
+    public void flush() {
+
+        dataDecoder.sourceBlockDecoded(sbn);
+    }
+
+    /**
+     * Returns the source data and releases it from this source block.
+     *
+     * @return a buffer with the source data, between its position and its limit
+     */
+    ByteBuffer release() {
+
+        final ByteBuffer buf = data;
+        data = null;
+        return buf;
+    }
+
+    @Override
+    public void read(int esi, ByteBuffer dst, int len) {
+
+        final ByteBuffer buf = data;
+        if (buf != null) {
+            final ByteBuffer src = buf.duplicate();
+            src.limit(esi * T + len).position(esi * T);
+            dst.put(src);
+        }
+        else {
+            ByteBuffers.putZeros(dst, len);
+        }
+    }
+
+    @Override
+    public void write(int esi, ByteBuffer src, int len) {
+
+        final ByteBuffer buf = data;
+        if (buf != null) {
+            final ByteBuffer dst = buf.duplicate();
+            dst.limit(esi * T + len).position(esi * T);
+            final ByteBuffer part = src.duplicate();
+            part.limit(part.position() + len);
+            dst.put(part);
+        }
+        src.position(src.position() + len);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.fec.openrq.util.linearalgebra.matrix.ByteMatrix;
+
+
+/**
+ * A process-wide cache of constraint matrices (section 5.3.3.4.2 of RFC 6330), keyed by K'.
+ * <p>
+ * Cached matrices are never handed out; callers always receive a fresh copy which they may freely modify. The least
+ * recently used matrices are evicted when the total number of cached non-zero entries exceeds a fixed bound.
+ */
+final class ConstraintMatrixCache {
+
+    // maximum number of non-zero entries kept in all cached matrices (about 40 MB in sparse matrices)
+    private static final long MAX_CACHED_NON_ZEROS = 8L * 1024 * 1024;
+
+    private static final Map<Integer, CachedMatrix> CACHE = new LinkedHashMap<>(16, 0.75f, true); // access-order
+    private static long cachedNonZeros = 0L;
+
+
+    /**
+     * Returns a new copy of the constraint matrix for the given value of K', with the given number of additional
+     * (zeroed) rows at the bottom.
+     *
+     * @param Kprime
+     *            The number of source (and padding) symbols in an extended source block
+     * @param overheadRows
+     *            The number of additional rows
+     * @return a new copy of the constraint matrix
+     */
+    static ByteMatrix newConstraintMatrix(int Kprime, int overheadRows) {
+
+        final ByteMatrix template = getTemplate(Kprime);
+        return template.resizeRows(template.rows() + overheadRows);
+    }
+
+    /**
+     * Overwrites a matrix with the constraint matrix for the given value of K', followed by zeroed rows.
+     *
+     * @param Kprime
+     *            The number of source (and padding) symbols in an extended source block
+     * @param dst
+     *            A matrix with L columns and at least L rows
+     */
+    static void copyConstraintMatrix(int Kprime, HybridByteMatrix dst) {
+
+        dst.copyFrom(getTemplate(Kprime));
+    }
+
+    private static ByteMatrix getTemplate(int Kprime) {
+
+        synchronized (CACHE) {
+            final CachedMatrix cached = CACHE.get(Kprime);
+            if (cached != null) {
+                return cached.matrix;
+            }
+        }
+
+        // generate the matrix outside the lock, concurrent generations for the same K' are harmless
+        final ByteMatrix matrix = LinearSystem.buildConstraintMatrix(Kprime);
+        final long nonZeros = matrix.nonZeros();
+
+        if (nonZeros <= MAX_CACHED_NON_ZEROS) {
+            synchronized (CACHE) {
+                final CachedMatrix previous = CACHE.put(Kprime, new CachedMatrix(matrix, nonZeros));
+                if (previous != null) {
+                    cachedNonZeros -= previous.nonZeros;
+                }
+                cachedNonZeros += nonZeros;
+
+                evictEldest();
+            }
+        }
+
+        return matrix;
+    }
+
+    /*
+     * Requires locked CACHE.
+     */
+    private static void evictEldest() {
+
+        final Iterator<CachedMatrix> it = CACHE.values().iterator();
+        while (cachedNonZeros > MAX_CACHED_NON_ZEROS && it.hasNext()) {
+            cachedNonZeros -= it.next().nonZeros;
+            it.remove();
+        }
+    }
+
+    private ConstraintMatrixCache() {
+
+        // not instantiable
+    }
+
+
+    private static final class CachedMatrix {
+
+        final ByteMatrix matrix;
+        final long nonZeros;
+
+
+        CachedMatrix(ByteMatrix matrix, long nonZeros) {
+
+            this.matrix = matrix;
+            this.nonZeros = nonZeros;
+        }
+    }
+}
@@ -148,6 +148,34 @@ final class DataUtils {
         return ImmutableList.of(srcSymbols);
     }
 
+    /**
+     * Requires valid sbn in respect to Z.
+     * 
+     * @param fecParams
+     * @param sbn
+     * @return the offset in the source data of the first byte of a source
+     *         block identified by the provided source block number
+     */
+    static long getSourceBlockOffset(FECParameters fecParams, int sbn) {
+
+        final int Kt = fecParams.totalSymbols();
+        final int Z = fecParams.numberOfSourceBlocks();
+
+        // (KL, KS, ZL, ZS) = Partition[Kt, Z]
+        final Partition KZ = new Partition(Kt, Z);
+        final int KL = KZ.get(1);
+        final int KS = KZ.get(2);
+        final int ZL = KZ.get(3);
+
+        final long T = fecParams.symbolSize();
+        if (sbn < ZL) {
+            return sbn * KL * T;
+        }
+        else {
+            return (ZL * KL + (long)(sbn - ZL) * KS) * T;
+        }
+    }
+
     /**
      * Requires valid sbn in respect to Z.
      * 
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The decoding schedules of the erasure patterns last seen by the source blocks of a data decoder.
+ * <p>
+ * Source blocks with the same number of source symbols that received the same symbols (an erasure pattern) have the
+ * same decoding matrix, and are thus decoded by the same operations on their symbols. This is common when a lost
+ * packet carries the symbols with the same ESI for many source blocks. The first source block with an erasure pattern
+ * is decoded as usual, the operations that decode the second one are recorded, and the following ones replay these
+ * operations without eliminating the decoding matrix again.
+ */
+final class DecodingSchedules {
+
+    // maximum number of erasure patterns that are remembered
+    private static final int MAX_PATTERNS = 64;
+
+    // maximum number of operations kept in all recorded schedules
+    private static final long MAX_RECORDED_OPS = 1L << 21;
+
+
+    // access-ordered, guarded by itself
+    private final Map<ErasurePattern, Schedule> schedules;
+    private long recordedOps;
+
+
+    DecodingSchedules() {
+
+        this.schedules = new LinkedHashMap<>(16, 0.75f, true);
+        this.recordedOps = 0L;
+    }
+
+    /**
+     * Returns the recorded schedule for an erasure pattern, or {@code null} if there is none.
+     *
+     * @param pattern
+     *            An erasure pattern
+     * @return the recorded schedule for the erasure pattern, or {@code null} if there is none
+     */
+    ISDProgram get(ErasurePattern pattern) {
+
+        synchronized (schedules) {
+            final Schedule schedule = schedules.get(pattern);
+            return (schedule == null) ? null : schedule.program;
+        }
+    }
+
+    /**
+     * Returns {@code true} if the decoding with the given erasure pattern should be recorded, that is, if the erasure
+     * pattern was seen before without being recorded. Otherwise the erasure pattern is remembered as seen.
+     *
+     * @param pattern
+     *            An erasure pattern without a recorded schedule
+     * @return {@code true} if the decoding with the given erasure pattern should be recorded
+     */
+    boolean shouldRecord(ErasurePattern pattern) {
+
+        synchronized (schedules) {
+            final Schedule schedule = schedules.get(pattern);
+            if (schedule == null) {
+                schedules.put(pattern, new Schedule());
+                evictEldest();
+                return false;
+            }
+
+            return schedule.program == null && !schedule.unrecordable;
+        }
+    }
+
+    /**
+     * Records the operations that decode the given erasure pattern.
+     *
+     * @param pattern
+     *            An erasure pattern
+     * @param ops
+     *            The recorded operations (the list must not be modified afterwards)
+     */
+    void put(ErasurePattern pattern, List<ISDOperation> ops) {
+
+        final Schedule schedule = new Schedule();
+        if (ops.size() > MAX_RECORDED_OPS) {
+            schedule.unrecordable = true;
+        }
+        else {
+            schedule.program = ISDProgram.compile(ops);
+        }
+
+        synchronized (schedules) {
+            final Schedule previous = schedules.put(pattern, schedule);
+            if (previous != null && previous.program != null) {
+                recordedOps -= previous.program.numOperations();
+            }
+            if (schedule.program != null) {
+                recordedOps += schedule.program.numOperations();
+            }
+
+            evictEldest();
+        }
+    }
+
+    /*
+     * Requires locked schedules.
+     */
+    private void evictEldest() {
+
+        final Iterator<Schedule> it = schedules.values().iterator();
+        while ((schedules.size() > MAX_PATTERNS || recordedOps > MAX_RECORDED_OPS) && it.hasNext()) {
+            final Schedule schedule = it.next();
+            if (schedule.program != null) {
+                recordedOps -= schedule.program.numOperations();
+            }
+            it.remove();
+        }
+    }
+
+
+    /**
+     * The symbols that a source block used for decoding, which determine its decoding matrix.
+     */
+    static final class ErasurePattern {
+
+        private final int K;
+        private final int[] missingSourceESIs;
+        private final int[] repairESIs;
+        private final int hash;
+
+
+        /**
+         * @param K
+         *            The number of source symbols in the source block
+         * @param missingSourceESIs
+         *            The ESIs of the missing source symbols (the array must not be modified afterwards)
+         * @param repairESIs
+         *            The ESIs of the repair symbols, in the order of their rows in the decoding matrix (the array
+         *            must not be modified afterwards)
+         */
+        ErasurePattern(int K, int[] missingSourceESIs, int[] repairESIs) {
+
+            this.K = K;
+            this.missingSourceESIs = missingSourceESIs;
+            this.repairESIs = repairESIs;
+            this.hash = 31 * (31 * K + Arrays.hashCode(missingSourceESIs)) + Arrays.hashCode(repairESIs);
+        }
+
+        @Override
+        public int hashCode() {
+
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+
+            return this == other || other instanceof ErasurePattern && equals((ErasurePattern)other);
+        }
+
+        private boolean equals(ErasurePattern other) {
+
+            return K == other.K &&
+                   hash == other.hash &&
+                   Arrays.equals(missingSourceESIs, other.missingSourceESIs) &&
+                   Arrays.equals(repairESIs, other.repairESIs);
+        }
+    }
+
+    private static final class Schedule {
+
+        ISDProgram program = null; // null if not recorded yet
+        boolean unrecordable = false;
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.fec.openrq.util.io.ByteBuffers.BufferType;
+import net.fec.openrq.util.linearalgebra.matrix.ByteMatrix;
+import net.fec.openrq.util.rq.SymbolMatrix;
+import net.fec.openrq.util.rq.SystematicIndices;
+
+
+/**
+ * The reusable memory of the decoding of a source block: the symbols vector D, the decoding matrix A and its copy X,
+ * the permutation vectors c and d, and the pending HDPC additions.
+ * <p>
+ * Workspaces for the same K', symbol size and type of symbol buffers are kept in a single pool shared by all threads,
+ * so that the decoding of many source blocks of the same size allocates this memory only once. A workspace is owned by
+ * a single thread between {@link #acquire(int, int, BufferType)} and {@link #release(DecodingWorkspace)}. Idle
+ * workspaces are reused in LIFO order, so the most recently released workspace (whose memory is most likely still
+ * cached) is acquired next, whichever thread released it; there are no per-thread pools. The least recently used
+ * workspaces are evicted when the total size of idle workspaces exceeds a fixed bound.
+ */
+final class DecodingWorkspace {
+
+    // maximum number of bytes kept in all idle workspaces
+    private static final long MAX_POOLED_BYTES = 128L * 1024 * 1024;
+
+    // idle workspaces by K', symbol size and type of symbol buffers (in access-order)
+    private static final Map<Long, Deque<DecodingWorkspace>> POOL = new LinkedHashMap<>(16, 0.75f, true);
+    private static long totalPooledBytes = 0L;
+
+
+    /**
+     * Returns an idle workspace for the given parameters, or a new one if there is none.
+     *
+     * @param Kprime
+     *            The number of source (and padding) symbols in an extended source block
+     * @param T
+     *            The symbol size
+     * @return a workspace owned by the caller until it is released
+     */
+    static DecodingWorkspace acquire(int Kprime, int T) {
+
+        return acquire(Kprime, T, BufferType.ARRAY_BACKED);
+    }
+
+    /**
+     * Returns an idle workspace for the given parameters, or a new one if there is none.
+     *
+     * @param Kprime
+     *            The number of source (and padding) symbols in an extended source block
+     * @param T
+     *            The symbol size
+     * @param type
+     *            The type of buffers that store the symbols
+     * @return a workspace owned by the caller until it is released
+     */
+    static DecodingWorkspace acquire(int Kprime, int T, BufferType type) {
+
+        synchronized (POOL) {
+            final Deque<DecodingWorkspace> idle = POOL.get(key(Kprime, T, type));
+            if (idle != null && !idle.isEmpty()) {
+                final DecodingWorkspace ws = idle.pop(); // the most recently released one
+                totalPooledBytes -= ws.releasedBytes;
+                return ws;
+            }
+        }
+
+        return new DecodingWorkspace(Kprime, T, type);
+    }
+
+    /**
+     * Returns a workspace to the pool. The workspace, and any symbols or matrices obtained from it, must not be used
+     * after being released.
+     *
+     * @param ws
+     *            A workspace obtained from {@link #acquire(int, int)}
+     */
+    static void release(DecodingWorkspace ws) {
+
+        final long size = ws.sizeInBytes();
+        if (size > MAX_POOLED_BYTES) {
+            return;
+        }
+
+        synchronized (POOL) {
+            final Long key = key(ws.Kprime, ws.T, ws.type);
+            Deque<DecodingWorkspace> idle = POOL.get(key);
+            if (idle == null) {
+                idle = new ArrayDeque<>();
+                POOL.put(key, idle);
+            }
+
+            idle.push(ws);
+            ws.releasedBytes = size;
+            totalPooledBytes += size;
+
+            evictEldest();
+        }
+    }
+
+    private static Long key(int Kprime, int T, BufferType type) {
+
+        return ((long)Kprime << 33) | ((T & 0xFFFFFFFFL) << 1) | type.ordinal();
+    }
+
+    /*
+     * Requires locked POOL.
+     */
+    private static void evictEldest() {
+
+        final Iterator<Deque<DecodingWorkspace>> it = POOL.values().iterator();
+        while (totalPooledBytes > MAX_POOLED_BYTES && it.hasNext()) {
+            final Deque<DecodingWorkspace> idle = it.next();
+            while (totalPooledBytes > MAX_POOLED_BYTES && !idle.isEmpty()) {
+                totalPooledBytes -= idle.removeLast().releasedBytes;
+            }
+            if (idle.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+
+    private final int Kprime;
+    private final int T;
+    private final BufferType type;
+    private final int L;
+    private final int H;
+
+    private SymbolMatrix symbols = null;
+    private HybridByteMatrix A = null;
+    private HybridByteMatrix X = null;
+    private int[] c = null;
+    private int[] d = null;
+    private PendingHDPCAdditions hdpcAdditions = null;
+
+    private long releasedBytes = 0L; // size when it was released
+
+
+    /**
+     * Creates a workspace that is not pooled, unless it is released. Its memory is only allocated when first used.
+     *
+     * @param Kprime
+     *            The number of source (and padding) symbols in an extended source block
+     * @param T
+     *            The symbol size
+     */
+    DecodingWorkspace(int Kprime, int T) {
+
+        this(Kprime, T, BufferType.ARRAY_BACKED);
+    }
+
+    /**
+     * Creates a workspace that is not pooled, unless it is released. Its memory is only allocated when first used.
+     *
+     * @param Kprime
+     *            The number of source (and padding) symbols in an extended source block
+     * @param T
+     *            The symbol size
+     * @param type
+     *            The type of buffers that store the symbols
+     */
+    DecodingWorkspace(int Kprime, int T, BufferType type) {
+
+        final int Ki = SystematicIndices.getKIndex(Kprime);
+        this.Kprime = Kprime;
+        this.T = T;
+        this.type = type;
+        this.L = Kprime + SystematicIndices.S(Ki) + SystematicIndices.H(Ki);
+        this.H = SystematicIndices.H(Ki);
+    }
+
+    /**
+     * Returns a vector of M zeroed symbols.
+     *
+     * @param M
+     *            The number of symbols
+     * @return a vector of M zeroed symbols
+     */
+    SymbolMatrix symbols(int M) {
+
+        if (symbols == null || symbols.rows() < M) {
+            symbols = SymbolMatrix.allocate(M, T, type);
+            return symbols;
+        }
+
+        for (int i = 0; i < M; i++) {
+            symbols.clearRow(i);
+        }
+        if (M == symbols.rows()) {
+            return symbols;
+        }
+
+        // the first M symbols
+        final int[] rows = new int[M];
+        for (int i = 0; i < M; i++) {
+            rows[i] = i;
+        }
+        return symbols.rowView(rows);
+    }
+
+    /**
+     * Returns the constraint matrix with M - L zeroed rows at the bottom, which may be freely modified.
+     *
+     * @param M
+     *            The number of rows, at least L
+     * @return the constraint matrix with M rows
+     */
+    ByteMatrix constraintMatrix(int M) {
+
+        if ((long)M * L > LinearSystem.A_HYBRID_THRESHOLD) {
+            return LinearSystem.generateConstraintMatrix(Kprime, M - L);
+        }
+
+        if (A == null || A.rows() != M) {
+            A = new HybridByteMatrix(M, L);
+        }
+        ConstraintMatrixCache.copyConstraintMatrix(Kprime, A);
+        return A;
+    }
+
+    /**
+     * Returns a copy of a decoding matrix.
+     *
+     * @param matrix
+     *            A matrix obtained from {@link #constraintMatrix(int)}, or any other matrix
+     * @return a copy of the matrix
+     */
+    ByteMatrix copyOf(ByteMatrix matrix) {
+
+        if (!(matrix instanceof HybridByteMatrix)) {
+            return matrix.copy();
+        }
+
+        if (X == null || X.rows() != matrix.rows() || X.columns() != matrix.columns()) {
+            X = new HybridByteMatrix(matrix.rows(), matrix.columns());
+        }
+        X.copyFrom(matrix);
+        return X;
+    }
+
+    /**
+     * Returns the vector c of column indexes, with the identity permutation.
+     *
+     * @return the vector c, of length L
+     */
+    int[] c() {
+
+        if (c == null) {
+            c = new int[L];
+        }
+        for (int i = 0; i < L; i++) {
+            c[i] = i;
+        }
+
+        return c;
+    }
+
+    /**
+     * Returns the vector d of symbol indexes, with the identity permutation.
+     *
+     * @param M
+     *            The number of rows of the decoding matrix
+     * @return the vector d, of length M
+     */
+    int[] d(int M) {
+
+        if (d == null || d.length != M) {
+            d = new int[M];
+        }
+        for (int i = 0; i < M; i++) {
+            d[i] = i;
+        }
+
+        return d;
+    }
+
+    /**
+     * Returns an empty set of pending HDPC additions.
+     *
+     * @return an empty set of pending HDPC additions
+     */
+    PendingHDPCAdditions hdpcAdditions() {
+
+        if (hdpcAdditions == null) {
+            hdpcAdditions = new PendingHDPCAdditions(H, L);
+        }
+        else {
+            hdpcAdditions.clear();
+        }
+
+        return hdpcAdditions;
+    }
+
+    private long sizeInBytes() {
+
+        final long wordsPerRow = (L + Long.SIZE - 1) / Long.SIZE;
+
+        long size = 0L;
+        if (symbols != null) size += (long)symbols.rows() * T;
+        if (A != null) size += A.rows() * wordsPerRow * 8;
+        if (X != null) size += X.rows() * wordsPerRow * 8;
+        if (c != null) size += 4L * c.length;
+        if (d != null) size += 4L * d.length;
+        if (hdpcAdditions != null) size += 5L * H * L;
+
+        return size;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+/**
+ * A union-find structure over the integers from 0 (inclusive) to a fixed size (exclusive), used to find connected
+ * components of graphs in the first phase of PI decoding.
+ * <p>
+ * Clearing the structure takes constant time, so it can be reused for many graphs without new allocations.
+ */
+final class DisjointSets {
+
+    private final int[] parent;
+    private final int[] size;
+
+    // elements whose generation is not the current one are singletons
+    private final int[] generation;
+    private int currentGeneration;
+
+
+    /**
+     * Creates a structure where every element is in its own set.
+     *
+     * @param numElements
+     *            The number of elements
+     */
+    DisjointSets(int numElements) {
+
+        this.parent = new int[numElements];
+        this.size = new int[numElements];
+        this.generation = new int[numElements];
+        this.currentGeneration = 1;
+    }
+
+    /**
+     * Puts every element back in its own set.
+     */
+    void clear() {
+
+        currentGeneration++;
+    }
+
+    /**
+     * Returns the representative element of the set containing an element.
+     *
+     * @param element
+     *            An element
+     * @return the representative element of the set containing the element
+     */
+    int find(int element) {
+
+        touch(element);
+
+        int root = element;
+        while (parent[root] != root) {
+            root = parent[root];
+        }
+
+        // path compression
+        while (parent[element] != root) {
+            final int next = parent[element];
+            parent[element] = root;
+            element = next;
+        }
+
+        return root;
+    }
+
+    /**
+     * Merges the sets containing two elements.
+     *
+     * @param element1
+     *            An element
+     * @param element2
+     *            Another element
+     * @return the representative element of the merged set
+     */
+    int union(int element1, int element2) {
+
+        int root1 = find(element1);
+        int root2 = find(element2);
+        if (root1 == root2) {
+            return root1;
+        }
+
+        // union by size
+        if (size[root1] < size[root2]) {
+            final int tmp = root1;
+            root1 = root2;
+            root2 = tmp;
+        }
+
+        parent[root2] = root1;
+        size[root1] += size[root2];
+        return root1;
+    }
+
+    /**
+     * Returns the number of elements in the set with the given representative element.
+     *
+     * @param root
+     *            The representative element of a set
+     * @return the number of elements in the set
+     */
+    int size(int root) {
+
+        touch(root);
+        return size[root];
+    }
+
+    private void touch(int element) {
+
+        if (generation[element] != currentGeneration) {
+            generation[element] = currentGeneration;
+            parent[element] = element;
+            size[element] = 1;
+        }
+    }
+}
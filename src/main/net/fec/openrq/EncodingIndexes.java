@@ -0,0 +1,180 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.fec.openrq.util.rq.SystematicIndices;
+
+
+/**
+ * Computes the indexes of the intermediate symbols that are added together to generate an encoding symbol (section
+ * 5.3.5.3 of RFC 6330), for a fixed value of K'.
+ * <p>
+ * The parameters that depend only on K' are computed once per instance, and the indexes of recently requested ISIs are
+ * kept in a bounded, direct-mapped cache. Instances are shared and thread safe.
+ */
+final class EncodingIndexes {
+
+    // must be a power of 2
+    private static final int CACHE_SIZE = 2048;
+
+    private static final AtomicReferenceArray<EncodingIndexes> INSTANCES =
+        new AtomicReferenceArray<>(SystematicIndices.numKIndexes());
+
+
+    /**
+     * Returns the encoding indexes for the given value of K'.
+     *
+     * @param Kprime
+     *            The number of source (and padding) symbols in an extended source block
+     * @return the encoding indexes for the given value of K'
+     */
+    static EncodingIndexes forKPrime(int Kprime) {
+
+        final int Ki = SystematicIndices.getKIndex(Kprime);
+
+        EncodingIndexes inst = INSTANCES.get(Ki);
+        if (inst == null) {
+            // if multiple threads get here concurrently, only one instance is kept
+            INSTANCES.compareAndSet(Ki, null, new EncodingIndexes(Kprime, Ki));
+            inst = INSTANCES.get(Ki);
+        }
+
+        return inst;
+    }
+
+
+    private final int Kprime;
+    private final int J;
+    private final int W;
+    private final int P;
+    private final int P1;
+
+    private final CachedIndexes[] cache;
+
+
+    private EncodingIndexes(int Kprime, int Ki) {
+
+        this.Kprime = Kprime;
+        this.J = SystematicIndices.J(Ki);
+        this.W = SystematicIndices.W(Ki);
+        this.P = Kprime + SystematicIndices.S(Ki) + SystematicIndices.H(Ki) - W;
+        this.P1 = (int)MatrixUtilities.ceilPrime(P);
+
+        this.cache = new CachedIndexes[CACHE_SIZE];
+    }
+
+    int Kprime() {
+
+        return Kprime;
+    }
+
+    /**
+     * Returns a new tuple for the given ISI.
+     *
+     * @param isi
+     *            An internal symbol identifier
+     * @return a new tuple for the given ISI
+     */
+    Tuple tuple(int isi) {
+
+        return new Tuple(J, W, P1, isi);
+    }
+
+    /**
+     * Returns the indexes of the intermediate symbols that should be added together to encode the symbol with the
+     * given ISI. The returned array is shared and must not be modified.
+     *
+     * @param isi
+     *            An internal symbol identifier
+     * @return the indexes of the intermediate symbols for the given ISI
+     */
+    int[] get(int isi) {
+
+        final int slot = isi & (CACHE_SIZE - 1);
+
+        // a racy read is harmless, cached entries are immutable
+        final CachedIndexes cached = cache[slot];
+        if (cached != null && cached.isi == isi) {
+            return cached.indexes;
+        }
+
+        final int[] indexes = compute(tuple(isi));
+        cache[slot] = new CachedIndexes(isi, indexes);
+        return indexes;
+    }
+
+    private int[] compute(Tuple tuple) {
+
+        // tuple parameters
+        final int d = (int)tuple.getD();
+        final int a = (int)tuple.getA();
+
+        int b = (int)tuple.getB();
+
+        final int d1 = (int)tuple.getD1();
+        final int a1 = (int)tuple.getA1();
+
+        int b1 = (int)tuple.getB1();
+
+        // W is prime and P1 is prime, so no index is repeated
+        final int[] indexes = new int[d + d1];
+        int n = 0;
+
+        /*
+         * simulated encoding -- refer to section 5.3.5.3 of RFC 6330
+         */
+
+        indexes[n++] = b;
+
+        for (int j = 1; j < d; j++) {
+            b = (b + a) % W;
+            indexes[n++] = b;
+        }
+
+        while (b1 >= P) {
+            b1 = (b1 + a1) % P1;
+        }
+
+        indexes[n++] = W + b1;
+
+        for (int j = 1; j < d1; j++) {
+            do
+                b1 = (b1 + a1) % P1;
+            while (b1 >= P);
+
+            indexes[n++] = W + b1;
+        }
+
+        return indexes;
+    }
+
+
+    private static final class CachedIndexes {
+
+        final int isi;
+        final int[] indexes;
+
+
+        CachedIndexes(int isi, int[] indexes) {
+
+            this.isi = isi;
+            this.indexes = indexes;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Objects;
+
+import net.fec.openrq.decoder.DataDecoder;
+import net.fec.openrq.decoder.SourceBlockDecoder;
+import net.fec.openrq.parameters.FECParameters;
+import net.fec.openrq.util.collection.ImmutableList;
+
+
+/**
+ * A RaptorQ decoder for a data object stored in a file.
+ * <p>
+ * The source data is never held as a whole in the heap. The region of the file with a source block is mapped into
+ * memory when the first source symbol of the source block is written, and received and recovered source symbols are
+ * written directly into it until the source block is decoded. The region is flushed to the storage device as soon as
+ * the source block is decoded.
+ * <p>
+ * The file must not be modified, nor the file channel closed, while the decoder is in use.
+ */
+public final class FileDataDecoder implements DataDecoder {
+
+    /**
+     * @param file
+     *            A readable and writable file channel to where the source data is decoded
+     * @param position
+     *            The position in the file where the source data begins
+     * @param fecParams
+     *            FEC parameters that configure the returned data decoder object
+     * @param symbOver
+     *            Repair symbol overhead (must be non-negative)
+     * @return a data decoder object that decodes source data into a file
+     * @exception NullPointerException
+     *                If {@code file} or {@code fecParams} are {@code null}
+     * @exception IllegalArgumentException
+     *                If {@code position < 0 || symbOver < 0}
+     * @exception IOException
+     *                If an I/O error occurs while extending the file
+     */
+    static FileDataDecoder newDecoder(FileChannel file, long position, FECParameters fecParams, int symbOver)
+        throws IOException
+    {
+
+        Objects.requireNonNull(file);
+        // throws NullPointerException if null fecParams
+        final long dataLength = fecParams.dataLength();
+        if (position < 0) {
+            throw new IllegalArgumentException("negative file position");
+        }
+        if (symbOver < 0) {
+            throw new IllegalArgumentException("negative symbol overhead");
+        }
+
+        // preallocate the file so that every source block can be mapped
+        if (file.size() < position + dataLength) {
+            file.write(ByteBuffer.allocate(1), position + dataLength - 1);
+        }
+
+        return new FileDataDecoder(file, position, fecParams, symbOver);
+    }
+
+
+    private final FileChannel file; // to return to the user
+    private final long position; // to return to the user
+
+    private final FECParameters fecParams;
+    private final ImmutableList<SourceBlockDecoder> srcBlockDecoders;
+
+
+    private FileDataDecoder(FileChannel file, long position, FECParameters fecParams, int symbOver) {
+
+        this.file = file;
+        this.position = position;
+
+        this.fecParams = fecParams;
+
+        final DecodingSchedules decodingSchedules = new DecodingSchedules();
+        final int Z = fecParams.numberOfSourceBlocks();
+        final int T = fecParams.symbolSize();
+        final SourceBlockDecoder[] decoders = new SourceBlockDecoder[Z];
+        for (int sbn = 0; sbn < Z; sbn++) {
+            final long blockOff = DataUtils.getSourceBlockOffset(fecParams, sbn);
+            final long blockLen = Math.min((long)DataUtils.getK(fecParams, sbn) * T, fecParams.dataLength() - blockOff);
+            final FileSourceBlock block = new FileSourceBlock(file, MapMode.READ_WRITE, position + blockOff, blockLen, T);
+            decoders[sbn] = ArraySourceBlockDecoder.newDecoder(this, decodingSchedules, block, sbn, symbOver);
+        }
+        this.srcBlockDecoders = ImmutableList.of(decoders);
+    }
+
+    @Override
+    public FECParameters fecParameters() {
+
+        return fecParams;
+    }
+
+    @Override
+    public long dataLength() {
+
+        return fecParams.dataLength();
+    }
+
+    @Override
+    public int symbolSize() {
+
+        return fecParams.symbolSize();
+    }
+
+    @Override
+    public int numberOfSourceBlocks() {
+
+        return fecParams.numberOfSourceBlocks();
+    }
+
+    @Override
+    public boolean isDataDecoded() {
+
+        for (SourceBlockDecoder dec : srcBlockDecoders) {
+            if (!dec.isSourceBlockDecoded()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @exception IllegalArgumentException
+     *                If the provided source block number is invalid
+     */
+    @Override
+    public SourceBlockDecoder sourceBlock(int sbn) {
+
+        try {
+            return srcBlockDecoders.get(sbn); // list is random access
+        }
+        catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("invalid source block number");
+        }
+    }
+
+    @Override
+    public Iterable<SourceBlockDecoder> sourceBlockIterable() {
+
+        return srcBlockDecoders;
+    }
+
+    /**
+     * Returns the file channel to where the source data is decoded. Use method {@link #isDataDecoded()} to check if the
+     * data is complete.
+     *
+     * @return the file channel to where the source data is decoded
+     * @see #isDataDecoded()
+     */
+    public FileChannel dataFile() {
+
+        return file;
+    }
+
+    /**
+     * Returns the position in the file of the first byte of the source data.
+     *
+     * @return the position in the file of the first byte of the source data
+     */
+    public long dataPosition() {
+
+        return position;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @exception NullPointerException
+     *                If {@code symbols} is {@code null}
+     */
+    @Override
+    public Parsed<EncodingPacket> parsePacket(int sbn, int esi, byte[] symbols, boolean copySymbols) {
+
+        return DataUtils.parsePacket(this, sbn, esi, symbols, copySymbols);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @exception IndexOutOfBoundsException
+     *                If the pre-conditions on the array offset and length do not hold
+     * @exception NullPointerException
+     *                If {@code symbols} is {@code null}
+     */
+    @Override
+    public Parsed<EncodingPacket> parsePacket(int sbn, int esi, byte[] symbols, int off, int len, boolean copySymbols) {
+
+        return DataUtils.parsePacket(this, sbn, esi, symbols, off, len, copySymbols);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @exception NullPointerException
+     *                If {@code symbols} is {@code null}
+     */
+    @Override
+    public Parsed<EncodingPacket> parsePacket(int sbn, int esi, ByteBuffer symbols, boolean copySymbols) {
+
+        return DataUtils.parsePacket(this, sbn, esi, symbols, copySymbols);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @exception NullPointerException
+     *                If {@code ser} is {@code null}
+     */
+    @Override
+    public Parsed<EncodingPacket> parsePacket(SerializablePacket ser, boolean copySymbols) {
+
+        return DataUtils.parsePacket(this, ser, copySymbols);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @exception NullPointerException
+     *                If {@code array} is {@code null}
+     */
+    @Override
+    public Parsed<EncodingPacket> parsePacket(byte[] array, boolean copySymbols) {
+
+        return DataUtils.parsePacket(this, array, copySymbols);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @exception IndexOutOfBoundsException
+     *                If the pre-conditions on the array offset and length do not hold
+     * @exception NullPointerException
+     *                If {@code array} is {@code null}
+     */
+    @Override
+    public Parsed<EncodingPacket> parsePacket(byte[] array, int off, int len, boolean copySymbols) {
+
+        return DataUtils.parsePacket(this, array, off, len, copySymbols);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @exception NullPointerException
+     *                If {@code buffer} is {@code null}
+     */
+    @Override
+    public Parsed<EncodingPacket> parsePacket(ByteBuffer buffer, boolean copySymbols) {
+
+        return DataUtils.parsePacket(this, buffer, copySymbols);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IOException
+     *             If an I/O error occurs while reading from the {@code DataInput} object
+     * @exception NullPointerException
+     *                If {@code in} is {@code null}
+     */
+    @Override
+    public Parsed<EncodingPacket> readPacketFrom(DataInput in) throws IOException {
+
+        return DataUtils.readPacketFrom(this, in);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IOException
+     *             If an I/O error occurs while reading from the {@code ReadableByteChannel} object
+     * @exception NullPointerException
+     *                If {@code ch} is {@code null}
+     */
+    @Override
+    public Parsed<EncodingPacket> readPacketFrom(ReadableByteChannel ch) throws IOException {
+
+        return DataUtils.readPacketFrom(this, ch);
+    }
+}
+
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Objects;
+
+import net.fec.openrq.encoder.DataEncoder;
+import net.fec.openrq.encoder.SourceBlockEncoder;
+import net.fec.openrq.parameters.FECParameters;
+import net.fec.openrq.util.collection.ImmutableList;
+
+
+/**
+ * A RaptorQ encoder for a data object stored in a file.
+ * <p>
+ * The source data is never copied as a whole into memory. The region of the file with a source block is mapped into
+ * memory only while the intermediate symbols of the source block are generated, and source symbols are otherwise read
+ * from the file when needed. The intermediate symbols of each source block are kept in memory after being generated,
+ * but may be discarded (and later generated again) when memory is low.
+ * <p>
+ * The file must not be modified, nor the file channel closed, while the encoder is in use.
+ */
+public final class FileDataEncoder implements DataEncoder {
+
+    /**
+     * @param fecParams
+     *            FEC parameters that configure the returned data encoder object
+     * @param file
+     *            A readable file channel with the source data to be encoded
+     * @param position
+     *            The position in the file where the source data begins
+     * @return a data encoder object backed by a file
+     * @exception NullPointerException
+     *                If {@code file} or {@code fecParams} are {@code null}
+     * @exception IllegalArgumentException
+     *                If {@code position < 0}
+     * @exception IndexOutOfBoundsException
+     *                If {@code fecParams.dataLength() > (file.size() - position)}
+     * @exception IOException
+     *                If an I/O error occurs while checking the size of the file
+     */
+    static FileDataEncoder newEncoder(FileChannel file, long position, FECParameters fecParams) throws IOException {
+
+        Objects.requireNonNull(file);
+        // throws NullPointerException if null fecParams
+        final long dataLength = fecParams.dataLength();
+        if (position < 0) {
+            throw new IllegalArgumentException("negative file position");
+        }
+        if (dataLength > file.size() - position) {
+            throw new IndexOutOfBoundsException("source data exceeds the end of the file");
+        }
+
+        return new FileDataEncoder(file, position, fecParams);
+    }
+
+
+    private final FileChannel file; // to return to the user
+    private final long position; // to return to the user
+
+    private final FECParameters fecParams;
+    private final ImmutableList<SourceBlockEncoder> srcBlockEncoders;
+
+
+    private FileDataEncoder(FileChannel file, long position, FECParameters fecParams) {
+
+        this.file = file;
+        this.position = position;
+
+        this.fecParams = fecParams;
+
+        final int Z = fecParams.numberOfSourceBlocks();
+        final int T = fecParams.symbolSize();
+        final SourceBlockEncoder[] encoders = new SourceBlockEncoder[Z];
+        for (int sbn = 0; sbn < Z; sbn++) {
+            final long blockOff = DataUtils.getSourceBlockOffset(fecParams, sbn);
+            final long blockLen = Math.min((long)DataUtils.getK(fecParams, sbn) * T, fecParams.dataLength() - blockOff);
+            final FileSourceBlock block = new FileSourceBlock(file, MapMode.READ_ONLY, position + blockOff, blockLen, T);
+            encoders[sbn] = ArraySourceBlockEncoder.newEncoder(this, block, sbn);
+        }
+        this.srcBlockEncoders = ImmutableList.of(encoders);
+    }
+
+    @Override
+    public FECParameters fecParameters() {
+
+        return fecParams;
+    }
+
+    @Override
+    public long dataLength() {
+
+        return fecParams.dataLength();
+    }
+
+    @Override
+    public int symbolSize() {
+
+        return fecParams.symbolSize();
+    }
+
+    @Override
+    public int numberOfSourceBlocks() {
+
+        return fecParams.numberOfSourceBlocks();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @exception IllegalArgumentException
+     *                If the provided source block number is invalid
+     * @see #numberOfSourceBlocks()
+     */
+    @Override
+    public SourceBlockEncoder sourceBlock(int sbn) {
+
+        try {
+            return srcBlockEncoders.get(sbn); // list is random access
+        }
+        catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("invalid source block number");
+        }
+    }
+
+    @Override
+    public Iterable<SourceBlockEncoder> sourceBlockIterable() {
+
+        return srcBlockEncoders;
+    }
+
+    /**
+     * Generates ahead of time, in the calling thread, the intermediate symbols of every source block, from which the
+     * repair symbols are computed. Source blocks with the same number of source symbols are generated together, solving
+     * the system of linear equations once for many source blocks instead of once per source block.
+     * <p>
+     * Without this method, the intermediate symbols of a source block are generated on their own when its first repair
+     * packet is produced. This method may be called concurrently by multiple threads, in which case each source block
+     * is generated by one thread only.
+     * <p>
+     * Since the intermediate symbols may be discarded when memory is low, this method is mostly useful when repair
+     * packets of every source block are produced shortly after.
+     */
+    public void prepareIntermediateSymbols() {
+
+        ArraySourceBlockEncoder.prepareIntermediateSymbols(srcBlockEncoders);
+    }
+
+    /**
+     * Returns the file channel with the source data.
+     *
+     * @return the file channel with the source data
+     */
+    public FileChannel dataFile() {
+
+        return file;
+    }
+
+    /**
+     * Returns the position in the file of the first byte of the source data.
+     *
+     * @return the position in the file of the first byte of the source data
+     */
+    public long dataPosition() {
+
+        return position;
+    }
+}
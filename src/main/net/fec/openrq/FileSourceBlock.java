@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Objects;
+
+import net.fec.openrq.util.collection.ImmutableList;
+import net.fec.openrq.util.io.UncheckedIOException;
+
+
+/**
+ * The region of a file with the source data of a source block.
+ * <p>
+ * The region is mapped in chunks of whole symbols, since a single mapping is limited to 2 GiB and a source block may be
+ * larger than that. While the region is not mapped, the source symbols are read and written with positional file
+ * operations.
+ */
+final class FileSourceBlock implements SourceBlockMapping {
+
+    // maximum number of bytes in a single mapping
+    private static final int MAX_CHUNK_SIZE = 1 << 30;
+
+
+    private final FileChannel channel;
+    private final MapMode mode;
+    private final long position; // in the file, of the first byte of the source block
+    private final long length; // number of bytes of source data (excluding padding)
+    private final int T;
+    private final int symbolsPerChunk;
+
+    // guarded by this
+    private MappedByteBuffer[] chunks = null;
+    private int mapCount = 0;
+
+
+    /*
+     * Requires valid arguments.
+     */
+    FileSourceBlock(FileChannel channel, MapMode mode, long position, long length, int T) {
+
+        this.channel = Objects.requireNonNull(channel);
+        this.mode = Objects.requireNonNull(mode);
+        this.position = position;
+        this.length = length;
+        this.T = T;
+        this.symbolsPerChunk = Math.max(1, MAX_CHUNK_SIZE / T);
+    }
+
+    @Override
+    public ImmutableList<SourceSymbol> sourceSymbols(int K) {
+
+        final SourceSymbol[] symbols = new SourceSymbol[K];
+        for (int esi = 0; esi < K; esi++) {
+            final int transportSize = (int)Math.max(0, Math.min(T, length - (long)esi * T));
+            symbols[esi] = new MappedSourceSymbol(this, esi, T, transportSize);
+        }
+
+        return ImmutableList.of(symbols);
+    }
+
+    @Override
+    public synchronized void map() {
+
+        if (mapCount == 0) {
+            final int numChunks = (int)((length + (long)symbolsPerChunk * T - 1) / ((long)symbolsPerChunk * T));
+            final MappedByteBuffer[] mapped = new MappedByteBuffer[numChunks];
+            try {
+                for (int ch = 0; ch < numChunks; ch++) {
+                    final long chunkOff = (long)ch * symbolsPerChunk * T;
+                    final long chunkLen = Math.min((long)symbolsPerChunk * T, length - chunkOff);
+                    mapped[ch] = channel.map(mode, position + chunkOff, chunkLen);
+                }
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            chunks = mapped;
+        }
+
+        mapCount++;
+    }
+
+    @Override
+    public synchronized void unmap() {
+
+        if (--mapCount == 0) {
+            chunks = null; // the mappings are released when garbage collected
+        }
+    }
+
+    @Override
+    public void flush() {
+
+        if (mode == MapMode.READ_WRITE) {
+            // symbols written while not mapped are also flushed, since a mapping shares the pages of the file
+            map();
+            try {
+                forceChunks();
+            }
+            finally {
+                unmap();
+            }
+        }
+    }
+
+    private synchronized void forceChunks() {
+
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    // returns the mapping with a symbol, or null if not mapped
+    private synchronized ByteBuffer mappedChunk(int esi) {
+
+        return (chunks == null) ? null : chunks[esi / symbolsPerChunk];
+    }
+
+    @Override
+    public void read(int esi, ByteBuffer dst, int len) {
+
+        final ByteBuffer chunk = mappedChunk(esi);
+        if (chunk != null) {
+            final ByteBuffer src = chunk.duplicate();
+            final int off = (esi % symbolsPerChunk) * T;
+            src.limit(off + len).position(off);
+            dst.put(src);
+        }
+        else {
+            final ByteBuffer buf = dst.duplicate();
+            buf.limit(buf.position() + len);
+            final long pos = position + (long)esi * T;
+            try {
+                while (buf.hasRemaining()) {
+                    if (channel.read(buf, pos + len - buf.remaining()) < 0) {
+                        throw new EOFException();
+                    }
+                }
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            dst.position(buf.position());
+        }
+    }
+
+    @Override
+    public void write(int esi, ByteBuffer src, int len) {
+
+        final ByteBuffer chunk = mappedChunk(esi);
+        if (chunk != null && mode == MapMode.READ_WRITE) {
+            final ByteBuffer dst = chunk.duplicate();
+            final int off = (esi % symbolsPerChunk) * T;
+            dst.limit(off + len).position(off);
+            final ByteBuffer buf = src.duplicate();
+            buf.limit(buf.position() + len);
+            dst.put(buf);
+            src.position(buf.position());
+        }
+        else {
+            final ByteBuffer buf = src.duplicate();
+            buf.limit(buf.position() + len);
+            final long pos = position + (long)esi * T;
+            try {
+                while (buf.hasRemaining()) {
+                    channel.write(buf, pos + len - buf.remaining());
+                }
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            src.position(buf.position());
+        }
+    }
+}
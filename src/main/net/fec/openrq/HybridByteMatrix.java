@@ -0,0 +1,640 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import static net.fec.openrq.util.math.OctetOps.aPlusB;
+import static net.fec.openrq.util.math.OctetOps.aTimesB;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import net.fec.openrq.util.array.ArrayUtils;
+import net.fec.openrq.util.checking.Indexables;
+import net.fec.openrq.util.linearalgebra.LinearAlgebra;
+import net.fec.openrq.util.linearalgebra.factory.Factory;
+import net.fec.openrq.util.linearalgebra.io.ByteVectorIterator;
+import net.fec.openrq.util.linearalgebra.matrix.AbstractByteMatrix;
+import net.fec.openrq.util.linearalgebra.matrix.ByteMatrix;
+import net.fec.openrq.util.linearalgebra.serialize.Serialization;
+import net.fec.openrq.util.linearalgebra.vector.ByteVector;
+import net.fec.openrq.util.math.OctetOps;
+
+
+/**
+ * A matrix whose rows with only zeros and ones are stored as bitsets over GF(2), and whose remaining rows are stored as
+ * dense arrays of bytes, used in the decoding of the constraint matrix.
+ * <p>
+ * Besides the HDPC rows, every row of the constraint matrix is binary, and stays binary while only binary rows are
+ * added to it. Adding two binary rows is a bitwise XOR of their bitsets, and swapping two columns only swaps two bits in
+ * each row. A binary row is converted to a dense row as soon as it holds a value other than zero or one.
+ * <p>
+ * Operations that produce new matrices use the {@link LinearAlgebra#BASIC2D_FACTORY dense factory}, and the matrix is
+ * serialized as a sparse row matrix.
+ */
+final class HybridByteMatrix extends AbstractByteMatrix {
+
+    /**
+     * Returns a copy of the given matrix, where every row with only zeros and ones is stored as a bitset.
+     *
+     * @param matrix
+     *            A matrix
+     * @return a hybrid copy of the matrix
+     */
+    static HybridByteMatrix copyOf(ByteMatrix matrix) {
+
+        final HybridByteMatrix copy = new HybridByteMatrix(matrix.rows(), matrix.columns());
+        for (int i = 0; i < matrix.rows(); i++) {
+            ByteVectorIterator it = matrix.nonZeroRowIterator(i);
+            while (it.hasNext()) {
+                it.next();
+                copy.safeSet(i, it.index(), it.get());
+            }
+        }
+
+        return copy;
+    }
+
+    private static int numWords(int columns) {
+
+        return (columns + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    // the bits of word w that are inside the column range [from, to), which must not be empty
+    private static long rangeMask(int w, int from, int to) {
+
+        long mask = -1L;
+        if (w == from >>> 6) {
+            mask &= -1L << from;
+        }
+        if (w == (to - 1) >>> 6) {
+            mask &= -1L >>> -to;
+        }
+        return mask;
+    }
+
+
+    // for each row, only one of these is not null
+    private final long[][] bitRows;
+    private final byte[][] denseRows;
+
+    // arrays of rows whose storage was converted, kept for reuse
+    private final long[][] spareBitRows;
+    private int numSpareBitRows = 0;
+    private final byte[][] spareDenseRows;
+    private int numSpareDenseRows = 0;
+
+
+    /**
+     * Creates a matrix with only zeros.
+     *
+     * @param rows
+     *            The number of rows
+     * @param columns
+     *            The number of columns
+     */
+    HybridByteMatrix(int rows, int columns) {
+
+        super(LinearAlgebra.BASIC2D_FACTORY, rows, columns);
+
+        this.bitRows = new long[rows][numWords(columns)];
+        this.denseRows = new byte[rows][];
+        this.spareBitRows = new long[rows][];
+        this.spareDenseRows = new byte[rows][];
+    }
+
+    private HybridByteMatrix(int rows, int columns, long[][] bitRows, byte[][] denseRows) {
+
+        super(LinearAlgebra.BASIC2D_FACTORY, rows, columns);
+
+        this.bitRows = bitRows;
+        this.denseRows = denseRows;
+        this.spareBitRows = new long[rows][];
+        this.spareDenseRows = new byte[rows][];
+    }
+
+    /**
+     * Overwrites this matrix with a copy of the given matrix, followed by rows of zeros. The storage of the rows of
+     * this matrix is reused, so a matrix can be refilled for each decoding without allocating new rows.
+     *
+     * @param matrix
+     *            A matrix with the same number of columns as this one, and at most the same number of rows
+     * @exception IllegalArgumentException
+     *                If the matrix has a different number of columns, or more rows than this one
+     */
+    void copyFrom(ByteMatrix matrix) {
+
+        if (matrix.columns() != columns() || matrix.rows() > rows()) {
+            throw new IllegalArgumentException("incompatible matrix dimensions");
+        }
+
+        final HybridByteMatrix hybrid = (matrix instanceof HybridByteMatrix) ? (HybridByteMatrix)matrix : null;
+        for (int i = 0; i < rows(); i++) {
+            if (i >= matrix.rows()) {
+                clearedBitRow(i);
+            }
+            else if (hybrid != null) {
+                if (hybrid.bitRows[i] != null) {
+                    System.arraycopy(hybrid.bitRows[i], 0, clearedBitRow(i), 0, hybrid.bitRows[i].length);
+                }
+                else {
+                    System.arraycopy(hybrid.denseRows[i], 0, clearedDenseRow(i), 0, columns());
+                }
+            }
+            else {
+                boolean isBinary = true;
+                ByteVectorIterator it = matrix.nonZeroRowIterator(i);
+                while (it.hasNext() && isBinary) {
+                    it.next();
+                    isBinary = (it.get() == 1);
+                }
+
+                if (isBinary) {
+                    final long[] bits = clearedBitRow(i);
+                    it = matrix.nonZeroRowIterator(i);
+                    while (it.hasNext()) {
+                        it.next();
+                        bits[it.index() >>> 6] |= 1L << it.index();
+                    }
+                }
+                else {
+                    final byte[] dense = clearedDenseRow(i);
+                    it = matrix.nonZeroRowIterator(i);
+                    while (it.hasNext()) {
+                        it.next();
+                        dense[it.index()] = it.get();
+                    }
+                }
+            }
+        }
+    }
+
+    // stores a row as a bitset with only zeros
+    private long[] clearedBitRow(int i) {
+
+        long[] bits = bitRows[i];
+        if (bits == null) {
+            spareDenseRows[numSpareDenseRows++] = denseRows[i];
+            denseRows[i] = null;
+
+            bits = (numSpareBitRows > 0) ? spareBitRows[--numSpareBitRows] : new long[numWords(columns())];
+            bitRows[i] = bits;
+        }
+
+        Arrays.fill(bits, 0L);
+        return bits;
+    }
+
+    // stores a row as an array of bytes with only zeros
+    private byte[] clearedDenseRow(int i) {
+
+        byte[] dense = denseRows[i];
+        if (dense == null) {
+            spareBitRows[numSpareBitRows++] = bitRows[i];
+            bitRows[i] = null;
+
+            dense = (numSpareDenseRows > 0) ? spareDenseRows[--numSpareDenseRows] : new byte[columns()];
+            denseRows[i] = dense;
+        }
+
+        Arrays.fill(dense, (byte)0);
+        return dense;
+    }
+
+    /**
+     * Returns {@code true} if, and only if, a row is stored as a bitset.
+     *
+     * @param i
+     *            A row index
+     * @return {@code true} if the row only has zeros and ones
+     */
+    boolean isBinaryRow(int i) {
+
+        Indexables.checkIndexBounds(i, rows());
+        return bitRows[i] != null;
+    }
+
+    @Override
+    protected byte safeGet(int i, int j) {
+
+        final long[] bits = bitRows[i];
+        if (bits != null) {
+            return (byte)((bits[j >>> 6] >>> j) & 1L);
+        }
+        else {
+            return denseRows[i][j];
+        }
+    }
+
+    @Override
+    protected void safeSet(int i, int j, byte value) {
+
+        final long[] bits = bitRows[i];
+        if (bits != null && value == 0) {
+            bits[j >>> 6] &= ~(1L << j);
+        }
+        else if (bits != null && value == 1) {
+            bits[j >>> 6] |= 1L << j;
+        }
+        else {
+            denseRow(i)[j] = value;
+        }
+    }
+
+    // returns the row as an array of bytes, converting it first if it is binary
+    private byte[] denseRow(int i) {
+
+        final long[] bits = bitRows[i];
+        if (bits != null) {
+            final byte[] dense = clearedDenseRow(i);
+            for (int w = 0; w < bits.length; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    dense[(w << 6) + Long.numberOfTrailingZeros(word)] = 1;
+                    word &= word - 1;
+                }
+            }
+        }
+
+        return denseRows[i];
+    }
+
+    @Override
+    public void swapRows(int i, int j) {
+
+        Indexables.checkIndexBounds(i, rows());
+        Indexables.checkIndexBounds(j, rows());
+
+        if (i != j) {
+            ArrayUtils.swapObjects(bitRows, i, j);
+            ArrayUtils.swapObjects(denseRows, i, j);
+        }
+    }
+
+    @Override
+    public void swapColumns(int i, int j) {
+
+        Indexables.checkIndexBounds(i, columns());
+        Indexables.checkIndexBounds(j, columns());
+
+        if (i != j) {
+            final int wi = i >>> 6, wj = j >>> 6;
+            final long mi = 1L << i, mj = 1L << j;
+
+            for (int row = 0; row < rows(); row++) {
+                final long[] bits = bitRows[row];
+                if (bits != null) {
+                    // only swap if the bits differ
+                    if (((bits[wi] & mi) != 0) != ((bits[wj] & mj) != 0)) {
+                        bits[wi] ^= mi;
+                        bits[wj] ^= mj;
+                    }
+                }
+                else {
+                    ArrayUtils.swapBytes(denseRows[row], i, j);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void addRowsInPlace(int srcRow, int destRow) {
+
+        addRowsInPlace((byte)1, srcRow, destRow, 0, columns());
+    }
+
+    @Override
+    public void addRowsInPlace(int srcRow, int destRow, int fromColumn, int toColumn) {
+
+        addRowsInPlace((byte)1, srcRow, destRow, fromColumn, toColumn);
+    }
+
+    @Override
+    public void addRowsInPlace(byte srcMultiplier, int srcRow, int destRow) {
+
+        addRowsInPlace(srcMultiplier, srcRow, destRow, 0, columns());
+    }
+
+    @Override
+    public void addRowsInPlace(byte srcMultiplier, int srcRow, int destRow, int fromColumn, int toColumn) {
+
+        Indexables.checkIndexBounds(srcRow, rows());
+        Indexables.checkIndexBounds(destRow, rows());
+        Indexables.checkFromToBounds(fromColumn, toColumn, columns());
+
+        if (srcMultiplier == 0 || fromColumn == toColumn) {
+            return; // nothing to add
+        }
+
+        final long[] srcBits = bitRows[srcRow];
+        final long[] destBits = bitRows[destRow];
+        if (srcBits != null && destBits != null && srcMultiplier == 1) {
+            // the sum of two binary rows is still binary
+            for (int w = fromColumn >>> 6; w <= (toColumn - 1) >>> 6; w++) {
+                destBits[w] ^= srcBits[w] & rangeMask(w, fromColumn, toColumn);
+            }
+        }
+        else {
+            final byte[] dest = denseRow(destRow);
+            if (srcBits != null) {
+                for (int w = fromColumn >>> 6; w <= (toColumn - 1) >>> 6; w++) {
+                    long word = srcBits[w] & rangeMask(w, fromColumn, toColumn);
+                    while (word != 0) {
+                        final int j = (w << 6) + Long.numberOfTrailingZeros(word);
+                        dest[j] = aPlusB(dest[j], srcMultiplier);
+                        word &= word - 1;
+                    }
+                }
+            }
+            else {
+                final byte[] src = denseRows[srcRow];
+                OctetOps.vectorVectorAddition(
+                    srcMultiplier, src, fromColumn, dest, fromColumn, dest, fromColumn, toColumn - fromColumn);
+            }
+        }
+    }
+
+    @Override
+    public void divideRowInPlace(int i, byte value) {
+
+        divideRowInPlace(i, value, 0, columns());
+    }
+
+    @Override
+    public void divideRowInPlace(int i, byte value, int fromColumn, int toColumn) {
+
+        Indexables.checkIndexBounds(i, rows());
+        Indexables.checkFromToBounds(fromColumn, toColumn, columns());
+
+        if (value != 1) {
+            final byte[] row = denseRow(i);
+            OctetOps.valueVectorDivision(value, row, fromColumn, row, fromColumn, toColumn - fromColumn);
+        }
+    }
+
+    @Override
+    public int nonZeros() {
+
+        int nonZeros = 0;
+        for (int i = 0; i < rows(); i++) {
+            nonZeros += nonZerosInRow(i);
+        }
+
+        return nonZeros;
+    }
+
+    @Override
+    public int nonZerosInRow(int i) {
+
+        return nonZerosInRow(i, 0, columns());
+    }
+
+    @Override
+    public int nonZerosInRow(int i, int fromColumn, int toColumn) {
+
+        Indexables.checkIndexBounds(i, rows());
+        Indexables.checkFromToBounds(fromColumn, toColumn, columns());
+
+        int nonZeros = 0;
+        final long[] bits = bitRows[i];
+        if (bits != null) {
+            if (fromColumn < toColumn) {
+                for (int w = fromColumn >>> 6; w <= (toColumn - 1) >>> 6; w++) {
+                    nonZeros += Long.bitCount(bits[w] & rangeMask(w, fromColumn, toColumn));
+                }
+            }
+        }
+        else {
+            final byte[] dense = denseRows[i];
+            for (int j = fromColumn; j < toColumn; j++) {
+                if (dense[j] != 0) {
+                    nonZeros++;
+                }
+            }
+        }
+
+        return nonZeros;
+    }
+
+    @Override
+    public ByteVectorIterator nonZeroRowIterator(int i) {
+
+        return nonZeroRowIterator(i, 0, columns());
+    }
+
+    @Override
+    public ByteVectorIterator nonZeroRowIterator(int i, int fromColumn, int toColumn) {
+
+        Indexables.checkIndexBounds(i, rows());
+        Indexables.checkFromToBounds(fromColumn, toColumn, columns());
+        return new NonZeroRowIterator(i, fromColumn, toColumn);
+    }
+
+    // returns the column of the first non-zero in the range [from, to) of a row, or 'to' if there is none
+    private int nextNonZero(int i, int from, int to) {
+
+        if (from >= to) {
+            return to;
+        }
+
+        final long[] bits = bitRows[i];
+        if (bits != null) {
+            for (int w = from >>> 6; w <= (to - 1) >>> 6; w++) {
+                final long word = bits[w] & rangeMask(w, from, to);
+                if (word != 0) {
+                    return (w << 6) + Long.numberOfTrailingZeros(word);
+                }
+            }
+            return to;
+        }
+        else {
+            final byte[] dense = denseRows[i];
+            int j = from;
+            while (j < to && dense[j] == 0) {
+                j++;
+            }
+            return j;
+        }
+    }
+
+
+    private final class NonZeroRowIterator extends ByteVectorIterator {
+
+        private final int i;
+        private final int end;
+        private int cursor;
+        private int nextCursor;
+
+
+        /*
+         * Requires valid indices.
+         */
+        NonZeroRowIterator(int i, int fromColumn, int toColumn) {
+
+            super(toColumn - fromColumn);
+
+            this.i = i;
+            this.end = toColumn;
+            this.cursor = fromColumn - 1;
+            this.nextCursor = nextNonZero(i, fromColumn, toColumn);
+        }
+
+        @Override
+        public byte get() {
+
+            return safeGet(i, cursor);
+        }
+
+        @Override
+        public void set(byte value) {
+
+            safeSet(i, cursor, value);
+        }
+
+        @Override
+        public int index() {
+
+            return cursor;
+        }
+
+        @Override
+        public Byte next() {
+
+            cursor = nextCursor;
+            nextCursor = nextNonZero(i, cursor + 1, end);
+            return get();
+        }
+
+        @Override
+        public boolean hasNext() {
+
+            return nextCursor < end;
+        }
+    }
+
+
+    @Override
+    public ByteVector multiplyRow(int i, ByteMatrix matrix, Factory factory) {
+
+        return multiplyRow(i, matrix, 0, columns(), factory);
+    }
+
+    @Override
+    public ByteVector multiplyRow(int i, ByteMatrix matrix, int fromColumn, int toColumn, Factory factory) {
+
+        ensureFactoryIsNotNull(factory);
+        ensureArgumentIsNotNull(matrix, "matrix");
+        Indexables.checkFromToBounds(fromColumn, toColumn, columns());
+
+        if ((toColumn - fromColumn) != matrix.rows()) {
+            fail("Wrong matrix dimensions: " + matrix.rows() + "x" + matrix.columns() +
+                 ". Should be: " + (toColumn - fromColumn) + "x_.");
+        }
+
+        ByteVector result = factory.createVector(matrix.columns());
+
+        for (int j = 0; j < matrix.columns(); j++) {
+            byte acc = 0;
+
+            ByteVectorIterator it = nonZeroRowIterator(i, fromColumn, toColumn);
+            while (it.hasNext()) {
+                it.next();
+                final byte prod = aTimesB(it.get(), matrix.get(it.index() - fromColumn, j));
+                acc = aPlusB(acc, prod);
+            }
+
+            result.set(j, acc);
+        }
+
+        return result;
+    }
+
+    @Override
+    public ByteMatrix copy() {
+
+        final long[][] bitsCopy = new long[rows()][];
+        final byte[][] denseCopy = new byte[rows()][];
+        for (int i = 0; i < rows(); i++) {
+            if (bitRows[i] != null) {
+                bitsCopy[i] = bitRows[i].clone();
+            }
+            else {
+                denseCopy[i] = denseRows[i].clone();
+            }
+        }
+
+        return new HybridByteMatrix(rows(), columns(), bitsCopy, denseCopy);
+    }
+
+    @Override
+    public ByteBuffer serializeToBuffer() {
+
+        final ByteBuffer buffer = ByteBuffer.allocate(getSerializedDataSize());
+        Serialization.writeType(buffer, Serialization.Type.SPARSE_ROW_MATRIX);
+        Serialization.writeMatrixRows(buffer, rows());
+        Serialization.writeMatrixColumns(buffer, columns());
+
+        for (int i = 0; i < rows(); i++) {
+            Serialization.writeMatrixRowCardinality(buffer, nonZerosInRow(i));
+            ByteVectorIterator it = nonZeroRowIterator(i);
+            while (it.hasNext()) {
+                it.next();
+                Serialization.writeMatrixColumnIndex(buffer, it.index());
+                Serialization.writeMatrixValue(buffer, it.get());
+            }
+        }
+
+        buffer.rewind();
+        return buffer;
+    }
+
+    @Override
+    public void serializeToChannel(WritableByteChannel ch) throws IOException {
+
+        Serialization.writeType(ch, Serialization.Type.SPARSE_ROW_MATRIX);
+        Serialization.writeMatrixRows(ch, rows());
+        Serialization.writeMatrixColumns(ch, columns());
+
+        for (int i = 0; i < rows(); i++) {
+            Serialization.writeMatrixRowCardinality(ch, nonZerosInRow(i));
+            ByteVectorIterator it = nonZeroRowIterator(i);
+            while (it.hasNext()) {
+                it.next();
+                Serialization.writeMatrixColumnIndex(ch, it.index());
+                Serialization.writeMatrixValue(ch, it.get());
+            }
+        }
+    }
+
+    private int getSerializedDataSize() {
+
+        final long nonZeros = nonZeros();
+        final long dataSize = Serialization.SERIALIZATION_TYPE_NUMBYTES +
+                              Serialization.MATRIX_ROWS_NUMBYTES +
+                              Serialization.MATRIX_COLUMNS_NUMBYTES +
+                              Serialization.MATRIX_ROW_CARDINALITY_NUMBYTES * (long)rows() +
+                              Serialization.MATRIX_COLUMN_INDEX_NUMBYTES * nonZeros +
+                              nonZeros;
+
+        if (dataSize > Integer.MAX_VALUE) {
+            throw new UnsupportedOperationException("matrix is too large to be serialized");
+        }
+
+        return (int)dataSize;
+    }
+}
@@ -24,12 +24,17 @@ import java.io.InputStreamReader;
 import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import net.fec.openrq.util.io.Resources;
 import net.fec.openrq.util.io.UncheckedIOException;
 import net.fec.openrq.util.rq.IntermediateSymbolsDecoder;
+import net.fec.openrq.util.rq.SymbolMatrix;
 import net.fec.openrq.util.rq.SystematicIndices;
 
 
@@ -42,6 +47,9 @@ final class ISDManager {
     private static final String K_PRIME_FORMAT = "[0-9]+";
     private static final String ISD_PREFIX = "ISD_";
 
+    // maximum number of operations kept in all recorded decoders
+    private static final long MAX_RECORDED_OPS = 1L << 22;
+
     private static final ISDManager INSTANCE;
     static {
         final List<IntermediateSymbolsDecoder> isdsList = new ArrayList<>();
@@ -108,9 +116,43 @@ final class ISDManager {
         return INSTANCE.getDecoder(Kprime);
     }
 
+    /**
+     * Returns {@code true} if the operations of the decoding process for the given value of K' should be recorded and
+     * then passed to method {@link #register(int, List)}.
+     * 
+     * @param Kprime
+     *            The number of source (and padding) symbols in an extended source block
+     * @return {@code true} if the decoding operations for the given value of K' should be recorded
+     */
+    static boolean shouldRecord(int Kprime) {
+
+        return INSTANCE.isRecordable(Kprime);
+    }
+
+    /**
+     * Registers a decoder that replays the given operations, which were recorded while decoding the constraint matrix
+     * for the given value of K'. The least recently used recorded decoders are discarded when the total number of
+     * recorded operations exceeds a fixed bound.
+     * 
+     * @param Kprime
+     *            The number of source (and padding) symbols in an extended source block
+     * @param ops
+     *            The recorded operations (the list must not be modified afterwards)
+     */
+    static void register(int Kprime, List<ISDOperation> ops) {
+
+        INSTANCE.putRecorded(Kprime, ops);
+    }
+
 
     private final Map<Integer, IntermediateSymbolsDecoder> map;
 
+    // access-ordered, guarded by itself
+    private final Map<Integer, ISD> recorded;
+    // values of K' whose recorded decoders never fit, guarded by recorded
+    private final Set<Integer> unrecordable;
+    private long recordedOps;
+
 
     private ISDManager(Iterable<IntermediateSymbolsDecoder> decoders) {
 
@@ -118,27 +160,78 @@ final class ISDManager {
         for (IntermediateSymbolsDecoder dec : decoders) {
             map.put(dec.supportedKPrime(), dec);
         }
+
+        this.recorded = new LinkedHashMap<>(16, 0.75f, true);
+        this.unrecordable = new HashSet<>();
+        this.recordedOps = 0L;
     }
 
     private IntermediateSymbolsDecoder getDecoder(int Kprime) {
 
-        return map.get(Kprime);
+        final IntermediateSymbolsDecoder dec = map.get(Kprime);
+        if (dec != null) {
+            return dec;
+        }
+
+        synchronized (recorded) {
+            return recorded.get(Kprime);
+        }
+    }
+
+    private boolean isRecordable(int Kprime) {
+
+        synchronized (recorded) {
+            return !unrecordable.contains(Kprime);
+        }
+    }
+
+    private void putRecorded(int Kprime, List<ISDOperation> ops) {
+
+        synchronized (recorded) {
+            if (ops.size() > MAX_RECORDED_OPS) {
+                unrecordable.add(Kprime);
+                return;
+            }
+
+            final ISD previous = recorded.put(Kprime, new ISD(Kprime, ops));
+            if (previous != null) {
+                recordedOps -= previous.numOperations();
+            }
+            recordedOps += ops.size();
+
+            // evict the least recently used decoders
+            final Iterator<ISD> it = recorded.values().iterator();
+            while (recordedOps > MAX_RECORDED_OPS && it.hasNext()) {
+                recordedOps -= it.next().numOperations();
+                it.remove();
+            }
+        }
     }
 
 
     private static final class ISD implements IntermediateSymbolsDecoder {
 
         private final int Kprime;
-        private final List<ISDOperation> ops;
+        private final ISDProgram program;
 
 
         ISD(int Kprime) throws IOException {
 
+            this(Kprime, readOperations(Kprime));
+        }
+
+        ISD(int Kprime, List<ISDOperation> ops) {
+
             this.Kprime = Kprime;
-            this.ops = new ArrayList<>();
+            this.program = ISDProgram.compile(ops);
+        }
+
+        private static List<ISDOperation> readOperations(int Kprime) throws IOException {
+
+            final List<ISDOperation> ops = new ArrayList<>();
 
             // try-with-resources (channel is automatically closed at the end)
-            try (ReadableByteChannel ch = Resources.openResourceChannel(getClass(), resourceName(Kprime))) {
+            try (ReadableByteChannel ch = Resources.openResourceChannel(ISD.class, resourceName(Kprime))) {
                 while (true) {
                     ops.add(ISDOps.readOperation(ch));
                 }
@@ -146,6 +239,13 @@ final class ISDManager {
             catch (EOFException e) {
                 // do nothing, we expect this exception to occur
             }
+
+            return ops;
+        }
+
+        int numOperations() {
+
+            return program.numOperations();
         }
 
         private static String resourceName(int Kprime) {
@@ -160,13 +260,9 @@ final class ISDManager {
         }
 
         @Override
-        public final byte[][] decode(byte[][] D) {
+        public final SymbolMatrix decode(SymbolMatrix D) {
 
-            byte[][] symbols = D;
-            for (ISDOperation op : ops) {
-                symbols = op.apply(symbols);
-            }
-            return symbols;
+            return program.execute(D, ISDProgram.numStripes(D.symbolSize()));
         }
     }
 }
@@ -19,13 +19,17 @@ package net.fec.openrq;
 import java.io.IOException;
 import java.nio.channels.WritableByteChannel;
 
+import net.fec.openrq.util.rq.SymbolMatrix;
+
 
 /**
  * 
  */
 interface ISDOperation {
 
-    byte[][] apply(byte[][] D);
+    SymbolMatrix apply(SymbolMatrix D);
+
+    void appendTo(ISDProgram.Builder program);
 
     void serializeToChannel(WritableByteChannel ch) throws IOException;
 }
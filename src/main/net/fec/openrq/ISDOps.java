@@ -25,15 +25,13 @@ import java.util.Objects;
 
 import net.fec.openrq.util.array.ArrayIO;
 import net.fec.openrq.util.datatype.UnsignedTypes;
+import net.fec.openrq.util.io.ByteBuffers.BufferType;
 import net.fec.openrq.util.io.ExtraChannels;
-import net.fec.openrq.util.linearalgebra.LinearAlgebra;
+import net.fec.openrq.util.linearalgebra.io.ByteVectorIterator;
 import net.fec.openrq.util.linearalgebra.matrix.ByteMatrices;
 import net.fec.openrq.util.linearalgebra.matrix.ByteMatrix;
-import net.fec.openrq.util.linearalgebra.matrix.dense.RowIndirected2DByteMatrix;
 import net.fec.openrq.util.linearalgebra.serialize.DeserializationException;
-import net.fec.openrq.util.linearalgebra.vector.ByteVector;
-import net.fec.openrq.util.linearalgebra.vector.dense.BasicByteVector;
-import net.fec.openrq.util.math.OctetOps;
+import net.fec.openrq.util.rq.SymbolMatrix;
 
 
 /**
@@ -51,11 +49,31 @@ final class ISDOps {
         return new ReduceMatrixToRowEchelon(A, fromRow, toRow, fromCol, toCol, d);
     }
 
+    static ISDOperation newPhase2_1Operation(byte beta, int row) {
+
+        return new SymbolBetaDivision(beta, row);
+    }
+
+    static ISDOperation newPhase2_2Operation(byte srcMult, int srcRow, int dstRow) {
+
+        return new SymbolAddition(srcMult, srcRow, dstRow);
+    }
+
     static ISDOperation newPhase3Operation(ByteMatrix X, int Xrows, int Xcols, int[] d) {
 
         return new MatrixVectorMultiplication(X, Xrows, Xcols, d);
     }
 
+    static ISDOperation newPhase3_1Operation(byte beta, int row) {
+
+        return new SymbolBetaDivision(beta, row);
+    }
+
+    static ISDOperation newPhase3_2Operation(byte srcMult, int srcRow, int dstRow) {
+
+        return new SymbolAddition(srcMult, srcRow, dstRow);
+    }
+
     static ISDOperation newPhase4Operation(byte srcMult, int srcRow, int dstRow) {
 
         return new SymbolAddition(srcMult, srcRow, dstRow);
@@ -153,12 +171,18 @@ final class ISDOps {
         }
 
         @Override
-        public byte[][] apply(byte[][] D) {
+        public SymbolMatrix apply(SymbolMatrix D) {
 
-            OctetOps.vectorVectorAddition(srcMult, D[srcRow], D[dstRow], D[dstRow]);
+            D.addRow(srcMult, srcRow, dstRow);
             return D;
         }
 
+        @Override
+        public void appendTo(ISDProgram.Builder program) {
+
+            program.addSymbolAddition(srcMult, srcRow, dstRow);
+        }
+
         @Override
         public void serializeToChannel(WritableByteChannel ch) throws IOException {
 
@@ -209,12 +233,18 @@ final class ISDOps {
         }
 
         @Override
-        public byte[][] apply(byte[][] D) {
+        public SymbolMatrix apply(SymbolMatrix D) {
 
-            OctetOps.valueVectorDivision(beta, D[row], D[row]); // in place division
+            D.divideRow(row, beta); // in place division
             return D;
         }
 
+        @Override
+        public void appendTo(ISDProgram.Builder program) {
+
+            program.addSymbolDivision(beta, row);
+        }
+
         @Override
         public void serializeToChannel(WritableByteChannel ch) throws IOException {
 
@@ -285,12 +315,18 @@ final class ISDOps {
         }
 
         @Override
-        public byte[][] apply(byte[][] D) {
+        public SymbolMatrix apply(SymbolMatrix D) {
 
-            MatrixUtilities.reduceToRowEchelonForm(AMatrix(), fromRow, toRow, fromCol, toCol, dArray(), D);
+            MatrixUtilities.reduceToRowEchelonForm(AMatrix(), fromRow, toRow, fromCol, toCol, dArray(), D, null);
             return D;
         }
 
+        @Override
+        public void appendTo(ISDProgram.Builder program) {
+
+            program.addOperation(this);
+        }
+
         @Override
         public void serializeToChannel(WritableByteChannel ch) throws IOException {
 
@@ -353,29 +389,37 @@ final class ISDOps {
         }
 
         @Override
-        public byte[][] apply(byte[][] D) {
+        public SymbolMatrix apply(SymbolMatrix D) {
 
-            ByteMatrix DM = new RowIndirected2DByteMatrix(Xrows, Dcols(D), DShallowCopy(D), d);
+            // every product depends on the original symbols, so the products are written back at the end
+            final SymbolMatrix products = SymbolMatrix.allocate(Xrows, D.symbolSize(),
+                D.isDirect() ? BufferType.DIRECT : BufferType.ARRAY_BACKED);
+            final byte[] multipliers = new byte[Xcols];
+            final int[] srcRows = new int[Xcols];
             for (int row = 0; row < Xrows; row++) {
-                D[d[row]] = getInnerArray(X.multiplyRow(row, DM, 0, Xcols, LinearAlgebra.BASIC1D_FACTORY));
+                int n = 0;
+                final ByteVectorIterator it = X.nonZeroRowIterator(row, 0, Xcols);
+                while (it.hasNext()) {
+                    it.next();
+                    multipliers[n] = it.get();
+                    srcRows[n] = d[it.index()];
+                    n++;
+                }
+
+                products.addRows(multipliers, 0, D, srcRows, 0, n, row, 0, D.symbolSize());
             }
 
-            return D;
-        }
-
-        private int Dcols(byte[][] D) {
-
-            return (D.length == 0) ? 0 : D[0].length;
-        }
-
-        private byte[][] DShallowCopy(byte[][] D) {
+            for (int row = 0; row < Xrows; row++) {
+                D.copyRow(products, row, d[row]);
+            }
 
-            return Arrays.copyOf(D, D.length);
+            return D;
         }
 
-        private byte[] getInnerArray(ByteVector v) {
+        @Override
+        public void appendTo(ISDProgram.Builder program) {
 
-            return ((BasicByteVector)v).getInternalArray();
+            program.addOperation(this);
         }
 
         @Override
@@ -433,14 +477,20 @@ final class ISDOps {
         }
 
         @Override
-        public byte[][] apply(byte[][] D) {
+        public SymbolMatrix apply(SymbolMatrix D) {
 
-            final byte[][] C = new byte[L][];
+            final int[] rows = new int[L];
             for (int i = 0; i < L; i++) {
-                C[c[i]] = D[d[i]];
+                rows[c[i]] = d[i];
             }
 
-            return C;
+            return D.rowView(rows);
+        }
+
+        @Override
+        public void appendTo(ISDProgram.Builder program) {
+
+            program.addOperation(this);
         }
 
         @Override
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import net.fec.openrq.util.rq.SymbolMatrix;
+
+
+/**
+ * A compiled sequence of intermediate symbols decoding operations.
+ * <p>
+ * Symbol additions and divisions are stored as primitive operands. Consecutive divisions are fused into a single
+ * instruction, and so are consecutive additions to the same symbol, which are then accumulated all at once. Any other
+ * operation is kept as an object in a constants pool and is applied as is.
+ * <p>
+ * Additions and divisions operate on each byte position of the symbols independently, so a program can also be
+ * executed on column stripes of the symbols in parallel, with one stripe per core. Operations in the constants pool are
+ * applied to whole symbols, after every stripe reaches them.
+ */
+final class ISDProgram {
+
+    // instruction opcodes
+    private static final byte OP_ADD = 0;     // operands: dstRow, count, then count srcRows
+    private static final byte OP_DIV = 1;     // operands: count, then count rows
+    private static final byte OP_APPLY = 2;   // operands: index in the constants pool
+
+    // minimum number of bytes of a symbol stripe that is executed in parallel
+    private static final int MIN_STRIPE_LENGTH = 8 * 1024;
+
+    // maximum number of bytes of all symbols in a stripe that is executed at a time by a single thread
+    // (wide symbols are executed in narrower stripes that fit in the L2 cache)
+    private static final int CACHE_BLOCK_SIZE = 256 * 1024;
+
+    // minimum number of bytes of a symbol in a stripe that is executed at a time by a single thread
+    private static final int MIN_CACHE_BLOCK_LENGTH = 512;
+
+
+    /**
+     * Compiles the given operations into a program.
+     *
+     * @param ops
+     *            A sequence of operations
+     * @return a program that applies the given operations
+     */
+    static ISDProgram compile(Iterable<ISDOperation> ops) {
+
+        final Builder builder = new Builder();
+        for (ISDOperation op : ops) {
+            op.appendTo(builder);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Returns the number of stripes of symbols of the given size that are worth executing in parallel.
+     *
+     * @param T
+     *            The size of the symbols
+     * @return a number of stripes not greater than the number of available processors, or 1 if the symbols are too
+     *         small to be split
+     */
+    static int numStripes(int T) {
+
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), T / MIN_STRIPE_LENGTH));
+    }
+
+    // lazily started, its worker threads are daemon threads
+    private static final class StripesPool {
+
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+
+    private final byte[] code;
+    private final int[] operands;
+    private final byte[] multipliers;
+    private final ISDOperation[] constants;
+    private final int numOperations;
+
+
+    private ISDProgram(byte[] code, int[] operands, byte[] multipliers, ISDOperation[] constants, int numOperations) {
+
+        this.code = code;
+        this.operands = operands;
+        this.multipliers = multipliers;
+        this.constants = constants;
+        this.numOperations = numOperations;
+    }
+
+    /**
+     * Returns the number of operations that were compiled into this program.
+     *
+     * @return the number of operations that were compiled into this program
+     */
+    int numOperations() {
+
+        return numOperations;
+    }
+
+    /**
+     * Applies this program to the given symbols.
+     *
+     * @param D
+     *            The vector with available symbols
+     * @return the resulting symbols (may be a different view of the symbols in D)
+     */
+    SymbolMatrix execute(SymbolMatrix D) {
+
+        return execute(D, 1);
+    }
+
+    /**
+     * Applies this program to the given symbols, split into column stripes that are executed in parallel.
+     *
+     * @param D
+     *            The vector with available symbols
+     * @param numStripes
+     *            The number of stripes, see {@link #numStripes(int)}
+     * @return the resulting symbols (may be a different view of the symbols in D)
+     */
+    SymbolMatrix execute(SymbolMatrix D, int numStripes) {
+
+        final int T = D.symbolSize();
+        final int stripes = Math.max(1, Math.min(numStripes, T));
+
+        SymbolMatrix symbols = D;
+        final Cursor cursor = new Cursor();
+        while (cursor.pc < code.length) {
+            if (code[cursor.pc] == OP_APPLY) {
+                symbols = constants[operands[cursor.opnd]].apply(symbols);
+                cursor.pc++;
+                cursor.opnd++;
+            }
+            else if (stripes == 1) {
+                executeCacheBlocks(symbols, cursor, 0, T);
+            }
+            else {
+                final SymbolMatrix stripeSymbols = symbols;
+                final Cursor start = cursor.copy();
+                StripesPool.POOL.invoke(new RecursiveAction() {
+
+                    private static final long serialVersionUID = 1L;
+
+
+                    @Override
+                    protected void compute() {
+
+                        final List<RecursiveAction> tasks = new ArrayList<>(stripes);
+                        for (int n = 0; n < stripes; n++) {
+                            final int from = (int)((long)T * n / stripes);
+                            final int to = (int)((long)T * (n + 1) / stripes);
+                            final Cursor stripeCursor = (n == 0) ? cursor : start.copy();
+                            tasks.add(new RecursiveAction() {
+
+                                private static final long serialVersionUID = 1L;
+
+
+                                @Override
+                                protected void compute() {
+
+                                    executeCacheBlocks(stripeSymbols, stripeCursor, from, to);
+                                }
+                            });
+                        }
+
+                        invokeAll(tasks);
+                    }
+                });
+            }
+        }
+
+        return symbols;
+    }
+
+    // executes instructions on the bytes [from, to) of the symbols, until the next operation to apply as is, one
+    // narrower stripe at a time
+    private void executeCacheBlocks(SymbolMatrix symbols, Cursor cursor, int from, int to) {
+
+        if (from == to) { // the cursor must still advance to the next operation to apply as is
+            executeStripe(symbols, cursor, from, to);
+            return;
+        }
+
+        final int blockLength = Math.max(MIN_CACHE_BLOCK_LENGTH, CACHE_BLOCK_SIZE / Math.max(1, symbols.rows()));
+        final Cursor start = cursor.copy();
+        for (int blockFrom = from; blockFrom < to; blockFrom += blockLength) {
+            final int blockTo = (int)Math.min(to, (long)blockFrom + blockLength);
+            final Cursor blockCursor = (blockTo == to) ? cursor : start.copy();
+            executeStripe(symbols, blockCursor, blockFrom, blockTo);
+        }
+    }
+
+    // executes instructions on the bytes [from, to) of the symbols, until the next operation to apply as is
+    private void executeStripe(SymbolMatrix symbols, Cursor cursor, int from, int to) {
+
+        final byte[] code = this.code;
+        final int[] operands = this.operands;
+        final byte[] multipliers = this.multipliers;
+        final int length = to - from;
+
+        int pc = cursor.pc;
+        int opnd = cursor.opnd;
+        int mult = cursor.mult;
+        for (; pc < code.length && code[pc] != OP_APPLY; pc++) {
+            switch (code[pc]) {
+                case OP_ADD: {
+                    final int dst = operands[opnd++];
+                    final int count = operands[opnd++];
+                    symbols.addRows(multipliers, mult, operands, opnd, count, dst, from, length);
+                    opnd += count;
+                    mult += count;
+                    break;
+                }
+
+                case OP_DIV: {
+                    final int count = operands[opnd++];
+                    for (int n = 0; n < count; n++) {
+                        // in place division
+                        symbols.divideRow(operands[opnd++], multipliers[mult++], from, length);
+                    }
+                    break;
+                }
+
+                default:
+                    // should never happen
+                    throw new AssertionError("unknown opcode");
+            }
+        }
+
+        cursor.pc = pc;
+        cursor.opnd = opnd;
+        cursor.mult = mult;
+    }
+
+
+    // the position of the next instruction and of its operands
+    private static final class Cursor {
+
+        int pc = 0;
+        int opnd = 0;
+        int mult = 0;
+
+
+        Cursor copy() {
+
+            final Cursor copy = new Cursor();
+            copy.pc = pc;
+            copy.opnd = opnd;
+            copy.mult = mult;
+            return copy;
+        }
+    }
+
+
+    /**
+     * Appends operations to a program under construction.
+     */
+    static final class Builder {
+
+        private byte[] code = new byte[16];
+        private int codeLen = 0;
+
+        private int[] operands = new int[64];
+        private int operandsLen = 0;
+
+        private byte[] multipliers = new byte[32];
+        private int multipliersLen = 0;
+
+        private final List<ISDOperation> constants = new ArrayList<>();
+        private int numOperations = 0;
+
+        // position of the count operand of the last instruction, if it can still be extended
+        private int countPos = -1;
+        // destination row of the last instruction, if it is an addition
+        private int lastDstRow = -1;
+
+
+        private Builder() {
+
+            // only instantiable from the outer class
+        }
+
+        void addSymbolAddition(byte srcMult, int srcRow, int dstRow) {
+
+            // the source symbols of an accumulation must not be modified by it
+            if (countPos != -1 && code[codeLen - 1] == OP_ADD && dstRow == lastDstRow && srcRow != dstRow) {
+                operands[countPos]++;
+            }
+            else {
+                pushCode(OP_ADD);
+                pushOperand(dstRow);
+                countPos = operandsLen;
+                pushOperand(1);
+                lastDstRow = dstRow;
+            }
+
+            pushOperand(srcRow);
+            pushMultiplier(srcMult);
+            numOperations++;
+        }
+
+        void addSymbolDivision(byte beta, int row) {
+
+            if (countPos != -1 && code[codeLen - 1] == OP_DIV) {
+                operands[countPos]++;
+            }
+            else {
+                pushCode(OP_DIV);
+                countPos = operandsLen;
+                pushOperand(1);
+            }
+
+            pushOperand(row);
+            pushMultiplier(beta);
+            numOperations++;
+        }
+
+        void addOperation(ISDOperation op) {
+
+            pushCode(OP_APPLY);
+            pushOperand(constants.size());
+            constants.add(op);
+            countPos = -1;
+            numOperations++;
+        }
+
+        private void pushCode(byte opcode) {
+
+            if (codeLen == code.length) {
+                code = Arrays.copyOf(code, 2 * codeLen);
+            }
+            code[codeLen++] = opcode;
+        }
+
+        private void pushOperand(int operand) {
+
+            if (operandsLen == operands.length) {
+                operands = Arrays.copyOf(operands, 2 * operandsLen);
+            }
+            operands[operandsLen++] = operand;
+        }
+
+        private void pushMultiplier(byte multiplier) {
+
+            if (multipliersLen == multipliers.length) {
+                multipliers = Arrays.copyOf(multipliers, 2 * multipliersLen);
+            }
+            multipliers[multipliersLen++] = multiplier;
+        }
+
+        private ISDProgram build() {
+
+            return new ISDProgram(
+                Arrays.copyOf(code, codeLen),
+                Arrays.copyOf(operands, operandsLen),
+                Arrays.copyOf(multipliers, multipliersLen),
+                constants.toArray(new ISDOperation[constants.size()]),
+                numOperations);
+        }
+    }
+}
@@ -17,25 +17,21 @@ package net.fec.openrq;
 
 
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import net.fec.openrq.util.array.ArrayUtils;
+import net.fec.openrq.util.io.ByteBuffers;
+import net.fec.openrq.util.io.ByteBuffers.BufferType;
 import net.fec.openrq.util.linearalgebra.LinearAlgebra;
 import net.fec.openrq.util.linearalgebra.factory.Factory;
 import net.fec.openrq.util.linearalgebra.io.ByteVectorIterator;
 import net.fec.openrq.util.linearalgebra.matrix.ByteMatrix;
-import net.fec.openrq.util.linearalgebra.matrix.dense.RowIndirected2DByteMatrix;
-import net.fec.openrq.util.linearalgebra.vector.dense.BasicByteVector;
 import net.fec.openrq.util.math.OctetOps;
 import net.fec.openrq.util.rq.Rand;
+import net.fec.openrq.util.rq.SymbolMatrix;
 import net.fec.openrq.util.rq.SystematicIndices;
 import net.fec.openrq.util.time.TimeUnits;
 import net.fec.openrq.util.time.TimerUtils;
@@ -50,7 +46,9 @@ final class LinearSystem {
 
     // there is no benefit for a dense matrix in all values of K
     private static final long A_SPARSE_THRESHOLD = 0L;
-    private static final long MT_SPARSE_THRESHOLD = 0L;
+
+    // maximum number of entries in A for storing its binary rows as bitsets during decoding (32 MiB of bits)
+    static final long A_HYBRID_THRESHOLD = 256L * 1024 * 1024;
 
     private static final boolean PRINTING_CODE_ENABLED = false; // DEBUG
     private static final PrintStream TIMER_PRINTABLE = System.out; // DEBUG
@@ -87,16 +85,6 @@ final class LinearSystem {
         }
     }
 
-    private static Factory getMatrixMTfactory(int H, int Kprime, int S) {
-
-        if ((long)H * (Kprime + S) < MT_SPARSE_THRESHOLD) {
-            return DENSE_FACTORY;
-        }
-        else {
-            return SPARSE_FACTORY;
-        }
-    }
-
     /**
      * Initializes the G_LDPC1 submatrix.
      * 
@@ -192,61 +180,77 @@ final class LinearSystem {
     }
 
     /**
-     * Generates the MT matrix that is used to generate G_HDPC submatrix.
+     * Initializes the G_HDPC submatrix, which is equal to MT * GAMMA.
+     * <p>
+     * Neither MT nor GAMMA are materialized. Every column of MT has only two ones (except the last one), and GAMMA has
+     * the same value in each of its diagonals, with a period of 256 (note that alpha^256 is not 1, so the value
+     * "resets" at every multiple of 256). Therefore, each row of G_HDPC can be computed from its last column to the
+     * first, from the previously computed value and the sum of the values of MT at distances that are multiples of 256.
      * 
+     * @param A
+     * @param S
      * @param H
      * @param Kprime
-     * @param S
-     * @return MT
      */
-    private static ByteMatrix generateMT(int H, int Kprime, int S)
+    private static void initializeG_HDPC(ByteMatrix A, int S, int H, int Kprime)
     {
 
-        ByteMatrix MT = getMatrixMTfactory(H, Kprime, S).createMatrix(H, Kprime + S);
+        final int N = Kprime + S;
+
+        final byte alpha = OctetOps.alphaPower(1);
+        final byte alphaPlusOne = OctetOps.aPlusB(alpha, (byte)1);
+
+        // the values of G_HDPC, computed from the last column to the first
+        final byte[][] G = new byte[H][N];
 
-        for (int row = 0; row < H; row++)
+        // Q[h][col % 256] is the sum of MT[h][col], MT[h][col + 256], MT[h][col + 512], ...
+        final byte[][] Q = new byte[H][256];
+
+        for (int col = N - 1; col >= 0; col--)
         {
-            for (int col = 0; col < Kprime + S - 1; col++)
+            final int q = col & 255;
+
+            for (int h = 0; h < H; h++)
             {
-                if (row == (int)Rand.rand(col + 1, 6, H) ||
-                    row == (((int)Rand.rand(col + 1, 6, H) + (int)Rand.rand(col + 1, 7, H - 1) + 1) % H))
+                // Q[h][q] currently holds the sum for column (col + 256)
+                final byte next = (col + 1 < N) ? G[h][col + 1] : 0;
+                G[h][col] = OctetOps.aPlusB(
+                    OctetOps.aTimesB(alpha, next),
+                    OctetOps.aTimesB(alphaPlusOne, Q[h][q]));
+            }
+
+            // add the values of column col of MT
+            if (col == N - 1)
+            {
+                for (int h = 0; h < H; h++)
                 {
-                    MT.set(row, col, (byte)1);
+                    final byte mt = OctetOps.alphaPower(h);
+                    G[h][col] ^= mt;
+                    Q[h][q] ^= mt;
                 }
             }
-        }
+            else
+            {
+                final int h1 = (int)Rand.rand(col + 1, 6, H);
+                final int h2 = (h1 + (int)Rand.rand(col + 1, 7, H - 1) + 1) % H;
 
-        for (int row = 0; row < H; row++) {
-            MT.set(row, Kprime + S - 1, OctetOps.alphaPower(row));
+                G[h1][col] ^= 1;
+                Q[h1][q] ^= 1;
+                G[h2][col] ^= 1;
+                Q[h2][q] ^= 1;
+            }
         }
 
-        return MT;
-    }
-
-    /**
-     * Generates the GAMMA matrix that is used to generate G_HDPC submatrix.
-     * 
-     * @param Kprime
-     * @param S
-     * @return GAMMA
-     */
-    private static ByteMatrix generateGAMMA(int Kprime, int S)
-    {
-
-        // FIXME this needs a more efficient representation since it is a lower triangular matrix
-        ByteMatrix GAMMA = DENSE_FACTORY.createMatrix(Kprime + S, Kprime + S);
-
-        for (int row = 0; row < Kprime + S; row++)
+        for (int h = 0; h < H; h++)
         {
-            for (int col = 0; col < Kprime + S; col++)
+            final byte[] row = G[h];
+            for (int col = 0; col < N; col++)
             {
-                if (row >= col) {
-                    GAMMA.set(row, col, OctetOps.alphaPower((row - col) % 256));
+                if (row[col] != 0) {
+                    A.set(S + h, col, row[col]);
                 }
             }
         }
-
-        return GAMMA;
     }
 
     /**
@@ -261,13 +265,13 @@ final class LinearSystem {
     private static void initializeG_ENC(ByteMatrix A, int S, int H, int L, int Kprime)
     {
 
+        final EncodingIndexes encIndexes = EncodingIndexes.forKPrime(Kprime);
+
         for (int row = S + H; row < L; row++)
         {
-            Tuple tuple = new Tuple(Kprime, row - S - H);
+            final int[] indexes = encIndexes.get(row - S - H);
 
-            Set<Integer> indexes = encIndexes(Kprime, tuple);
-
-            for (Integer j : indexes)
+            for (int j : indexes)
             {
                 A.set(row, j, (byte)1);
             }
@@ -294,6 +298,17 @@ final class LinearSystem {
      */
     static ByteMatrix generateConstraintMatrix(int Kprime, int overheadRows) {
 
+        return ConstraintMatrixCache.newConstraintMatrix(Kprime, overheadRows);
+    }
+
+    /**
+     * Builds the constraint matrix from scratch, without overhead rows.
+     * 
+     * @param Kprime
+     * @return a new constraint matrix
+     */
+    static ByteMatrix buildConstraintMatrix(int Kprime) {
+
         // calculate necessary parameters
         final int Ki = SystematicIndices.getKIndex(Kprime);
         final int S = SystematicIndices.S(Ki);
@@ -307,7 +322,7 @@ final class LinearSystem {
         TimerUtils.beginTimer(); // DEBUG
 
         // allocate memory for the constraint matrix
-        ByteMatrix A = getMatrixAfactory(L, overheadRows).createMatrix(L + overheadRows, L);
+        ByteMatrix A = getMatrixAfactory(L, 0).createMatrix(L, L);
 
         /*
          * upper half
@@ -330,22 +345,7 @@ final class LinearSystem {
         initializeIh(A, W, U, H, S);
 
         // initialize G_HDPC
-
-        // MT
-        ByteMatrix MT = generateMT(H, Kprime, S);
-
-        // GAMMA
-        ByteMatrix GAMMA = generateGAMMA(Kprime, S);
-
-        // G_HDPC = MT * GAMMA
-        ByteMatrix G_HDPC = MT.multiply(GAMMA);
-
-        // initialize G_HDPC
-        for (int row = S; row < S + H; row++) {
-            for (int col = 0; col < W + U; col++) {
-                A.set(row, col, G_HDPC.get(row - S, col));
-            }
-        }
+        initializeG_HDPC(A, S, H, Kprime);
 
         // initialize G_ENC
         initializeG_ENC(A, S, H, L, Kprime);
@@ -360,131 +360,96 @@ final class LinearSystem {
     }
 
     /**
-     * Returns the indexes of the intermediate symbols that should be XORed to encode
-     * the symbol for the given tuple.
+     * Encodes a source symbol.
      * 
-     * @param Kprime
-     * @param tuple
-     * @return Set of indexes.
+     * @param C
+     * @param indexes
+     *            The indexes of the intermediate symbols to be added (see {@link EncodingIndexes#get(int)})
+     * @param T
+     * @return an encoding symbol
      */
-    static Set<Integer> encIndexes(int Kprime, Tuple tuple)
-    {
-
-        // allocate memory for the indexes
-        final Set<Integer> indexes = new HashSet<>(Kprime);
-
-        // parameters
-        final int Ki = SystematicIndices.getKIndex(Kprime);
-        final int S = SystematicIndices.S(Ki);
-        final int H = SystematicIndices.H(Ki);
-        final int W = SystematicIndices.W(Ki);
-        final long L = Kprime + S + H;
-        final long P = L - W;
-        final long P1 = MatrixUtilities.ceilPrime(P);
+    static byte[] enc(SymbolMatrix C, int[] indexes, int T) {
 
-        // tuple parameters
-        final long d = tuple.getD();
-        final long a = tuple.getA();
-
-        long b = tuple.getB();
-
-        final long d1 = tuple.getD1();
-        final long a1 = tuple.getA1();
-
-        long b1 = tuple.getB1();
+        // allocate memory for the encoding symbol
+        final byte[] result = new byte[T];
 
         /*
-         * simulated encoding -- refer to section 5.3.3.3 of RFC 6330
+         * encoding -- refer to section 5.3.5.3 of RFC 6330
          */
 
-        indexes.add((int)b);
-
-        for (long j = 1; j < d; j++)
-        {
-            b = (b + a) % W;
-            indexes.add((int)b);
-        }
-
-        while (b1 >= P)
-        {
-            b1 = (b1 + a1) % P1;
-        }
-
-        indexes.add((int)(W + b1));
-
-        for (long j = 1; j < d1; j++)
-        {
-            do
-                b1 = (b1 + a1) % P1;
-            while (b1 >= P);
+        C.sumOfRows(indexes, result);
 
-            indexes.add((int)(W + b1));
-        }
-
-        return indexes;
+        return result;
     }
 
     /**
-     * Encodes a source symbol.
+     * Encodes a source symbol into a new buffer of the given type.
      * 
-     * @param Kprime
      * @param C
-     * @param tuple
+     * @param indexes
+     *            The indexes of the intermediate symbols to be added (see {@link EncodingIndexes#get(int)})
      * @param T
-     * @return an encoding symbol
+     * @param type
+     *            The type of the returned buffer
+     * @return a buffer with an encoding symbol, with a position of zero and a limit equal to {@code T}
      */
-    static byte[] enc(int Kprime, byte[][] C, Tuple tuple, int T) {
-
-        // necessary parameters
-        final int Ki = SystematicIndices.getKIndex(Kprime);
-        final int S = SystematicIndices.S(Ki);
-        final int H = SystematicIndices.H(Ki);
-        final int W = SystematicIndices.W(Ki);
-        final long L = Kprime + S + H;
-        final long P = L - W;
-        final int P1 = (int)MatrixUtilities.ceilPrime(P);
-        final long d = tuple.getD();
-        final int a = (int)tuple.getA();
-
-        int b = (int)tuple.getB();
-
-        final long d1 = tuple.getD1();
-        final int a1 = (int)tuple.getA1();
+    static ByteBuffer enc(SymbolMatrix C, int[] indexes, int T, BufferType type) {
 
-        int b1 = (int)tuple.getB1();
+        final ByteBuffer result = ByteBuffers.allocate(T, type);
+        C.sumOfRows(indexes, result);
 
-        // allocate memory and initialize the encoding symbol
-        final byte[] result = Arrays.copyOf(C[b], T);
-
-        /*
-         * encoding -- refer to section 5.3.5.3 of RFC 6330
-         */
-
-        for (long j = 1; j < d; j++)
-        {
-            b = (b + a) % W;
-            OctetOps.vectorVectorAddition(C[b], result, result);
-        }
-
-        while (b1 >= P)
-            b1 = (b1 + a1) % P1;
+        return result;
+    }
 
-        OctetOps.vectorVectorAddition(C[W + b1], result, result);
+    /**
+     * Solves the decoding system of linear equations using the permanent inactivation technique.
+     * 
+     * @param A
+     *            The constraint matrix
+     * @param D
+     *            The vector with available symbols (each row of the matrix contains one symbol)
+     * @param Kprime
+     *            The total number of source symbols for decoding
+     * @return the intermediate symbols
+     * @throws SingularMatrixException
+     *             If the decoding fails
+     */
+    static SymbolMatrix PInactivationDecoding(ByteMatrix A, SymbolMatrix D, int Kprime)
+        throws SingularMatrixException
+    {
 
-        for (long j = 1; j < d1; j++)
-        {
-            do
-                b1 = (b1 + a1) % P1;
-            while (b1 >= P);
+        return PInactivationDecoding(A, D, Kprime, null, new DecodingWorkspace(Kprime, D.symbolSize()));
+    }
 
-            OctetOps.vectorVectorAddition(C[W + b1], result, result);
-        }
+    /**
+     * Solves the decoding system of linear equations using the permanent inactivation technique, while recording the
+     * operations applied to the symbols.
+     * <p>
+     * The recorded operations depend only on the matrix A, so they can be replayed on any other vector D that is
+     * decoded with the same matrix.
+     * 
+     * @param A
+     *            The constraint matrix
+     * @param D
+     *            The vector with available symbols (each row of the matrix contains one symbol)
+     * @param Kprime
+     *            The total number of source symbols for decoding
+     * @param ops
+     *            A list where the operations applied to D are appended, or {@code null} if no recording is needed
+     * @return the intermediate symbols
+     * @throws SingularMatrixException
+     *             If the decoding fails
+     */
+    static SymbolMatrix PInactivationDecoding(ByteMatrix A, SymbolMatrix D, int Kprime, List<ISDOperation> ops)
+        throws SingularMatrixException
+    {
 
-        return result;
+        return PInactivationDecoding(A, D, Kprime, ops, new DecodingWorkspace(Kprime, D.symbolSize()));
     }
 
     /**
-     * Solves the decoding system of linear equations using the permanent inactivation technique.
+     * Solves the decoding system of linear equations using the permanent inactivation technique, with the memory of a
+     * workspace, and optionally records the operations applied to the symbols.
      * 
      * @param A
      *            The constraint matrix
@@ -492,14 +457,33 @@ final class LinearSystem {
      *            The vector with available symbols (each row of the matrix contains one symbol)
      * @param Kprime
      *            The total number of source symbols for decoding
+     * @param ops
+     *            A list where the operations applied to D are appended, or {@code null} if no recording is needed
+     * @param ws
+     *            A workspace for the given K' and symbol size, which the returned symbols may be a view of
      * @return the intermediate symbols
      * @throws SingularMatrixException
      *             If the decoding fails
      */
-    static byte[][] PInactivationDecoding(ByteMatrix A, byte[][] D, int Kprime)
+    static SymbolMatrix PInactivationDecoding(
+        ByteMatrix A,
+        SymbolMatrix D,
+        int Kprime,
+        List<ISDOperation> ops,
+        DecodingWorkspace ws)
         throws SingularMatrixException
     {
 
+        final int numStripes = ISDProgram.numStripes(D.symbolSize());
+        if (ops != null && numStripes > 1) {
+            // the operations are recorded to be reused, so the matrix pass runs once over empty symbols, and its
+            // recorded operations are then replayed on the symbols in parallel stripes (when no recording is needed,
+            // the operations are applied directly, instead of building a program that is only executed once)
+            final int recordedFrom = ops.size();
+            PInactivationDecoding(A, SymbolMatrix.allocate(D.rows(), 0), Kprime, ops, ws);
+            return ISDProgram.compile(ops.subList(recordedFrom, ops.size())).execute(D, numStripes);
+        }
+
         // decoding parameters
         int Ki = SystematicIndices.getKIndex(Kprime);
         int S = SystematicIndices.S(Ki);
@@ -509,21 +493,25 @@ final class LinearSystem {
         int P = L - W;
         int M = A.rows();
 
-        // ISDCodeWriter.instance().prepare(); // DEBUG
-        // ISDCodeWriter.instance().writeKprimeCode(Kprime); // DEBUG
+        // the binary rows of A (all but the HDPC rows) are cheaper to operate on as bitsets
+        if (!(A instanceof HybridByteMatrix) && (long)M * L <= A_HYBRID_THRESHOLD) {
+            A = HybridByteMatrix.copyOf(A);
+        }
 
-        return pidPhase1(A, D, Kprime, S, H, L, P, M);
+        return pidPhase1(A, D, Kprime, S, H, L, P, M, ops, ws);
     }
 
-    private static byte[][] pidPhase1(
+    private static SymbolMatrix pidPhase1(
         final ByteMatrix A,
-        final byte[][] D,
+        final SymbolMatrix D,
         final int Kprime,
         final int S,
         final int H,
         final int L,
         final int P,
-        final int M)
+        final int M,
+        final List<ISDOperation> ops,
+        final DecodingWorkspace ws)
         throws SingularMatrixException
     {
 
@@ -540,19 +528,10 @@ final class LinearSystem {
         /*
          * initialize c and d vectors
          */
-        final int[] c = new int[L];
-        final int[] d = new int[M];
-
-        for (int i = 0; i < L; i++) {
-            c[i] = i;
-            d[i] = i;
-        }
+        final int[] c = ws.c();
+        final int[] d = ws.d(M);
 
-        for (int i = L; i < M; i++) {
-            d[i] = i;
-        }
-
-        final ByteMatrix X = A.copy();
+        final ByteMatrix X = ws.copyOf(A);
 
         // initialize i and u parameters, for the submatrices sizes
         int i = 0, u = P;
@@ -564,94 +543,103 @@ final class LinearSystem {
         // (these should be chosen first)
         int nonHDPCRows = S + Kprime;
 
-        // maps the index of a row to an object Row (which stores that row's characteristics)
-        final Map<Integer, Row> rows = new HashMap<>(M + 1, 1.0f);
+        // the rows of A indexed by their original position, which vector d maps from their current position
+        final Row[] rows = new Row[M];
+
+        // the rows with non-zeros in V, ordered by their number of non-zeros
+        // (HDPC rows are kept apart since these should be chosen last)
+        final RowDegreeQueue rowQueue = new RowDegreeQueue(L - u);
+        final RowDegreeQueue hdpcRowQueue = new RowDegreeQueue(L - u);
+
+        // the column indexes of the non-zeros in V of each row
+        final int[][] rowNonZeroCols = new int[M][];
+        final int[] colNonZeros = new int[L - u];
+        final int[] buffer = new int[L - u];
+
         for (int row = 0; row < M; row++) {
-            // retrieve the number of non-zeros in the row
-            final int nonZeros = A.nonZerosInRow(row, 0, L - u); // exclude last u columns
             // is this a HDPC row?
             final boolean isHDPC = (row >= S && row < S + H);
 
-            // this is an optimization
-            if (nonZeros == 2 && !isHDPC) {
-                int originalDegree = 0;
-                final Set<Integer> nodes = new HashSet<>(2 + 1, 1.0f); // we already know there are only 2 non zeros
+            int nonZeros = 0;
+            int originalDegree = 0;
 
-                ByteVectorIterator it = A.nonZeroRowIterator(row, 0, L - u);
-                while (it.hasNext()) {
-                    it.next();
-                    originalDegree += OctetOps.UNSIGN(it.get()); // add to the degree of this row
-                    nodes.add(it.index()); // add the column index to the nodes
-                }
-
-                rows.put(row, new Row(row, nonZeros, originalDegree, isHDPC, nodes));
+            ByteVectorIterator it = A.nonZeroRowIterator(row, 0, L - u); // exclude last u columns
+            while (it.hasNext()) {
+                it.next();
+                originalDegree += OctetOps.UNSIGN(it.get()); // add to the degree of this row
+                buffer[nonZeros++] = it.index();
+                colNonZeros[it.index()]++;
             }
-            else {
-                int originalDegree = 0;
 
-                ByteVectorIterator it = A.nonZeroRowIterator(row, 0, L - u);
-                while (it.hasNext()) {
-                    it.next();
-                    originalDegree += OctetOps.UNSIGN(it.get()); // add to the degree of this row
-                }
+            rowNonZeroCols[row] = Arrays.copyOf(buffer, nonZeros);
+            rows[row] = new Row(row, nonZeros, originalDegree, isHDPC);
+            (isHDPC ? hdpcRowQueue : rowQueue).add(rows[row]);
+        }
 
-                rows.put(row, new Row(row, nonZeros, originalDegree, isHDPC));
+        /*
+         * For each (original) column in V, the (original) rows with a non-zero in that column. The entries in V are
+         * only modified after their columns leave V, so these never have to be updated.
+         */
+        final int[] colRowsStart = new int[L - u + 1];
+        for (int col = 0; col < L - u; col++) {
+            colRowsStart[col + 1] = colRowsStart[col] + colNonZeros[col];
+        }
+
+        final int[] colRows = new int[colRowsStart[L - u]];
+        for (int row = 0; row < M; row++) {
+            for (int col : rowNonZeroCols[row]) {
+                colRows[colRowsStart[col + 1] - colNonZeros[col]--] = row;
             }
         }
 
+        // whether each (original) column is still in V
+        final boolean[] colInV = new boolean[L - u];
+        Arrays.fill(colInV, true);
+
+        // used for finding the connected components of the graph of rows with two non-zeros in V
+        final DisjointSets components = new DisjointSets(L - u);
+        final int[] edgeNodes = new int[2 * M];
+
+        // the HDPC rows are only updated when chosen, or at the end of this phase
+        final PendingHDPCAdditions hdpcAdditions = ws.hdpcAdditions();
+
         TimerUtils.markTimestamp(); // DEBUG
         initNanos += TimerUtils.getEllapsedTimeLong(TimeUnit.NANOSECONDS);
 
         // at most L steps
         while (i + u != L)
         {
-            // the degree of the 'currently chosen' row
-            int minDegree = 256 * L;
-
-            // number of non-zeros in the 'currently chosen' row
-            int r = L + 1;
-
-            // currently chosen row
-            Row chosenRow = null;
-
-            // decoding failure?
-            boolean allZeros = true;
-
-            // there is a row with exactly two ones
-            boolean two1s = false;
-
             /*
              * find r
              */
 
             TimerUtils.beginTimer(); // DEBUG
 
-            for (Row row : rows.values()) {
-                if (row.nonZeros != 0) allZeros = false;
-                if (row.isHDPC && chosenRowsCounter < nonHDPCRows) continue;
-
-                // if it's an edge, then it must have exactly two 1's
-                if (row.nodes != null) two1s = true;
+            if (rowQueue.isEmpty() && hdpcRowQueue.isEmpty()) {// DECODING FAILURE
+                throw new SingularMatrixException(
+                    "Decoding Failure - PI Decoding @ Phase 1: All entries in V are zero.");
+            }
 
-                if (row.nonZeros < r && row.nonZeros > 0) {
-                    chosenRow = row;
-                    r = chosenRow.nonZeros;
-                    minDegree = chosenRow.originalDegree;
-                }
-                else if (row.nonZeros == r && row.originalDegree < minDegree) {
-                    chosenRow = row;
-                    minDegree = chosenRow.originalDegree;
-                }
+            // currently chosen row
+            // (HDPC rows are only chosen after the other rows, or if none of these has non-zeros in V)
+            Row chosenRow = rowQueue.first();
+            final Row firstHDPCRow = hdpcRowQueue.first();
+            if (chosenRow == null ||
+                (chosenRowsCounter >= nonHDPCRows && firstHDPCRow != null &&
+                RowDegreeQueue.precedes(firstHDPCRow, chosenRow)))
+            {
+                chosenRow = firstHDPCRow;
             }
 
+            // number of non-zeros in the 'currently chosen' row
+            final int r = chosenRow.nonZeros;
+
+            // there is a row with exactly two ones
+            final boolean two1s = rowQueue.rowsWithNonZeros(2).iterator().hasNext();
+
             TimerUtils.markTimestamp(); // DEBUG
             findRNanos += TimerUtils.getEllapsedTimeLong(TimeUnit.NANOSECONDS);
 
-            if (allZeros) {// DECODING FAILURE
-                throw new SingularMatrixException(
-                    "Decoding Failure - PI Decoding @ Phase 1: All entries in V are zero.");
-            }
-
             /*
              * choose the row
              */
@@ -661,176 +649,43 @@ final class LinearSystem {
             if (r == 2 && two1s) {
 
                 /*
-                 * create graph
-                 */
-
-                // allocate memory
-                Map<Integer, Set<Integer>> graph = new HashMap<>(L - u - i + 1, 1.0f);
-
-                // lets go through all the rows... (yet again!)
-                for (Row row : rows.values())
-                {
-                    // is this row an edge?
-                    if (row.nodes != null)
-                    {
-                        // get the nodes connected through this edge
-                        Integer[] edge = row.nodes.toArray(new Integer[2]);
-                        int node1 = edge[0];
-                        int node2 = edge[1];
-
-                        // node1 already in graph?
-                        if (graph.keySet().contains(node1))
-                        { // it is
-
-                            // then lets add node 2 to its neighbours
-                            graph.get(node1).add(node2);
-                        }
-                        else
-                        { // it isn't
-
-                            // allocate memory for its neighbours
-                            Set<Integer> edges = new HashSet<>(L - u - i + 1, 1.0f);
-
-                            // add node 2 to its neighbours
-                            edges.add(node2);
-
-                            // finally, add node 1 to the graph along with its neighbours
-                            graph.put(node1, edges);
-                        }
-
-                        // node2 already in graph?
-                        if (graph.keySet().contains(node2))
-                        { // it is
-
-                            // then lets add node 1 to its neighbours
-                            graph.get(node2).add(node1);
-                        }
-                        else
-                        { // it isn't
-
-                            // allocate memory for its neighbours
-                            Set<Integer> edges = new HashSet<>(L - u - i + 1, 1.0f);
-
-                            // add node 1 to its neighbours
-                            edges.add(node1);
-
-                            // finally, add node 2 to the graph along with its neighbours
-                            graph.put(node2, edges);
-                        }
-                    }
-                    else continue;
-                }
-
-                /*
-                 * the graph is complete, now we must
-                 * find the maximum size component
+                 * The graph has the columns of V as nodes and the (non HDPC) rows with exactly two non-zeros in V as
+                 * edges. Its edges disappear as columns leave V, which a union-find structure cannot undo, so the
+                 * components are rebuilt in each step (this only takes a pass over the rows with two non-zeros).
                  */
 
-                // set of visited nodes
-                Set<Integer> visited = null;
-
-                /*
-                 * TODO Optimization: I already searched, and there are optimized algorithms to find connected
-                 * components. Then we just find and use the best one available...
-                 */
-
-                // what is the size of the largest component we've already found
-                int maximumSize = 0;
+                components.clear();
 
                 // the maximum size component
-                Set<Integer> greatestComponent = null;
-
-                // which nodes have already been used (either in visited or in toVisit)
-                Set<Integer> used = new HashSet<>(L - u - i + 1, 1.0f);
-
-                // iterates the nodes in the graph
-                Iterator<Map.Entry<Integer, Set<Integer>>> it = graph.entrySet().iterator();
-
-                // let's iterate through the nodes in the graph, looking for the maximum
-                // size component. we will be doing a breadth first search // TODO optimize this with a better
-                // algorithm?
-                while (it.hasNext())
-                {
-                    // get our initial node
-                    Map.Entry<Integer, Set<Integer>> node = it.next();
-                    int initialNode = node.getKey();
-
-                    // we can't have used it before!
-                    if (used.contains(initialNode)) continue;
-
-                    // what are the edges of our initial node?
-                    Integer[] edges = node.getValue().toArray(new Integer[node.getValue().size()]);
-
-                    // allocate memory for the set of visited nodes
-                    visited = new HashSet<>(L - u - i + 1, 1.0f);
-
-                    // the set of nodes we must still visit
-                    List<Integer> toVisit = new LinkedList<>();
-
-                    // add the initial node to the set of used and visited nodes
-                    visited.add(initialNode);
-                    used.add(initialNode);
-
-                    // add my edges to the set of nodes we must visit
-                    // and also put them in the used set
-                    for (Integer edge : edges)
-                    {
-                        toVisit.add(edge);
-                        used.add(edge);
-                    }
-
-                    // start the search!
-                    while (toVisit.size() != 0)
-                    {
-                        // the node we are visiting
-                        int no = toVisit.remove(0);
+                int greatestComponent = -1;
+                int maximumSize = 0;
 
-                        // add node to visited set
-                        visited.add(no);
+                int numEdges = 0;
+                for (Row row : rowQueue.rowsWithNonZeros(2)) {
+                    // get the nodes connected through this edge (original column indexes)
+                    edgeNodes(rowNonZeroCols[row.id], colInV, edgeNodes, 2 * numEdges);
 
-                        // queue edges to be visited (if they haven't been already
-                        for (Integer edge : graph.get(no))
-                            if (!visited.contains(edge)) toVisit.add(edge);
+                    final int component = components.union(edgeNodes[2 * numEdges], edgeNodes[2 * numEdges + 1]);
+                    if (components.size(component) > maximumSize) {
+                        maximumSize = components.size(component);
+                        greatestComponent = component;
                     }
 
-                    // is the number of visited nodes, greater than the 'currently' largest component?
-                    if (visited.size() > maximumSize)
-                    { // it is! we've found a greater component then...
-
-                        // update the maximum size
-                        maximumSize = visited.size();
-
-                        // update our greatest component
-                        greatestComponent = visited;
-                    }
-                    else continue;
+                    numEdges++;
                 }
 
                 /*
                  * we've found the maximum size connected component -- 'greatestComponent'
                  */
 
-                // let's choose the row
-                for (Row row : rows.values())
-                {
-                    // is it a node in the graph?
-                    if (row.nodes != null)
-                    { // it is
-
-                        // get the nodes connected through this edge
-                        Integer[] edge = row.nodes.toArray(new Integer[2]);
-                        int node1 = edge[0];
-                        int node2 = edge[1];
-
-                        // is this row an edge in the maximum size component?
-                        if (greatestComponent.contains(node1) && greatestComponent.contains(node2))
-                        {
-                            chosenRow = row;
-                            break;
-                        }
-                        else continue;
+                // let's choose the row (the first edge in the maximum size component)
+                int e = 0;
+                for (Row row : rowQueue.rowsWithNonZeros(2)) {
+                    if (components.find(edgeNodes[2 * e]) == greatestComponent) {
+                        chosenRow = row;
+                        break;
                     }
-                    else continue;
+                    e++;
                 }
 
                 chosenRowsCounter++;
@@ -855,10 +710,25 @@ final class LinearSystem {
 
             final int chosenRowPos = chosenRow.position;
 
+            // the chosen row leaves V
+            (chosenRow.isHDPC ? hdpcRowQueue : rowQueue).remove(chosenRow);
+
+            if (chosenRow.isHDPC) {
+                TimerUtils.beginTimer(); // DEBUG
+
+                hdpcAdditions.apply(chosenRow.id - S, chosenRowPos, A, D, d, ops);
+
+                TimerUtils.markTimestamp(); // DEBUG
+                addMultiplyNanos += TimerUtils.getEllapsedTimeLong(TimeUnit.NANOSECONDS);
+            }
+
             // if the chosen row is not 'i' already
             if (chosenRowPos != i) {
                 TimerUtils.beginTimer(); // DEBUG
 
+                // the row that is currently at position 'i'
+                final Row other = rows[d[i]];
+
                 // swap in A
                 A.swapRows(i, chosenRowPos);
 
@@ -868,9 +738,7 @@ final class LinearSystem {
                 // decoding process - swap in d
                 ArrayUtils.swapInts(d, i, chosenRowPos);
 
-                // update values in 'rows' map
-                Row other = rows.remove(i);
-                rows.put(chosenRowPos, other);
+                // update the positions of the swapped rows
                 other.position = chosenRowPos;
                 chosenRow.position = i;
 
@@ -957,13 +825,22 @@ final class LinearSystem {
                     // division
                     byte betaOverAlpha = OctetOps.aDividedByB(beta, alpha);
 
+                    final Row belowRow = rows[d[row]];
+                    if (belowRow.isHDPC) {
+                        hdpcAdditions.add(belowRow.id - S, betaOverAlpha, i);
+                        continue;
+                    }
+
                     // multiplication and addition
-                    A.addRowsInPlace(betaOverAlpha, i, row);
+                    // (the chosen row only has zeros before the first column of V)
+                    A.addRowsInPlace(betaOverAlpha, i, row, i, L);
 
                     // decoding process - D[d[row]] + (betaOverAlpha * D[d[i]])
-                    OctetOps.vectorVectorAddition(betaOverAlpha, D[d[i]], D[d[row]], D[d[row]]);
+                    D.addRow(betaOverAlpha, d[i], d[row]);
 
-                    // ISDCodeWriter.instance().writePhase1Code(betaOverAlpha, d[i], d[row]); // DEBUG
+                    if (ops != null) {
+                        ops.add(ISDOps.newPhase1Operation(betaOverAlpha, d[i], d[row]));
+                    }
                 }
             }
 
@@ -978,30 +855,27 @@ final class LinearSystem {
 
             TimerUtils.beginTimer(); // DEBUG
 
-            // update nonZeros
-            for (Row row : rows.values()) {
-                // update the non zero count
-                row.nonZeros = A.nonZerosInRow(row.position, i, L - u);
-
-                if (row.nonZeros != 2 || row.isHDPC) {
-                    row.nodes = null;
-                }
-                else {
-                    final Set<Integer> nodes = new HashSet<>(2 + 1, 1.0f); // we know there will only be two non zeros
-                    ByteVectorIterator it = A.nonZeroRowIterator(row.position, i, L - u);
-                    while (it.hasNext()) {
-                        it.next();
-                        nodes.add(it.index()); // add node to this edge (column index)
-                    }
-
-                    row.nodes = nodes;
-                }
+            // update nonZeros, by decrementing the count of every row with a non-zero in a column that left V
+            // (the first column of V and the r-1 columns that were moved to U)
+            removeColumnFromV(c[i - 1], rows, colRowsStart, colRows, colInV, i, rowQueue, hdpcRowQueue);
+            for (int col = L - u; col < L - u + r - 1; col++) {
+                removeColumnFromV(c[col], rows, colRowsStart, colRows, colInV, i, rowQueue, hdpcRowQueue);
             }
 
             TimerUtils.markTimestamp(); // DEBUG
             countNonZerosNanos += TimerUtils.getEllapsedTimeLong(TimeUnit.NANOSECONDS);
         }
 
+        TimerUtils.beginTimer(); // DEBUG
+
+        // the HDPC rows that were not chosen
+        for (int h = 0; h < H; h++) {
+            hdpcAdditions.apply(h, rows[S + h].position, A, D, d, ops);
+        }
+
+        TimerUtils.markTimestamp(); // DEBUG
+        addMultiplyNanos += TimerUtils.getEllapsedTimeLong(TimeUnit.NANOSECONDS);
+
         // DEBUG
         debugPrintln();
         debugPrintln("1st:");
@@ -1013,19 +887,52 @@ final class LinearSystem {
         debugPrintlnMillis("  add/mult row", addMultiplyNanos);
         debugPrintlnMillis("  count nonzeros", countNonZerosNanos);
 
-        return pidPhase2(A, X, D, d, c, L, M, i, u);
+        return pidPhase2(A, X, D, d, c, L, M, i, u, ops);
     }
 
-    private static byte[][] pidPhase2(
+    // decrements the number of non-zeros of the rows (not yet chosen) with a non-zero in the given original column
+    private static void removeColumnFromV(
+        int originalCol,
+        Row[] rows,
+        int[] colRowsStart,
+        int[] colRows,
+        boolean[] colInV,
+        int i,
+        RowDegreeQueue rowQueue,
+        RowDegreeQueue hdpcRowQueue)
+    {
+
+        colInV[originalCol] = false;
+        for (int n = colRowsStart[originalCol]; n < colRowsStart[originalCol + 1]; n++) {
+            final Row row = rows[colRows[n]];
+            if (row.position >= i) { // chosen rows are above position i
+                (row.isHDPC ? hdpcRowQueue : rowQueue).decrementNonZeros(row);
+            }
+        }
+    }
+
+    // stores the two (original) columns still in V among the given non-zero columns of a row
+    private static void edgeNodes(int[] nonZeroCols, boolean[] colInV, int[] nodes, int nodesPos) {
+
+        int n = nodesPos;
+        for (int col : nonZeroCols) {
+            if (colInV[col]) {
+                nodes[n++] = col;
+            }
+        }
+    }
+
+    private static SymbolMatrix pidPhase2(
         final ByteMatrix A,
         final ByteMatrix X,
-        final byte[][] D,
+        final SymbolMatrix D,
         final int[] d,
         final int[] c,
         final int L,
         final int M,
         final int i,
-        final int u)
+        final int u,
+        final List<ISDOperation> ops)
         throws SingularMatrixException
     {
 
@@ -1037,8 +944,6 @@ final class LinearSystem {
          * rows and i columns."
          */
 
-        // ISDCodeWriter.instance().writePhase2Code(A, i, M, L - u, L, d); // DEBUG MUST be called before decoding code!
-
         /*
          * "Gaussian elimination is performed in the second phase on U_lower either to determine that its rank is
          * less than u (decoding failure) or to convert it into a matrix where the first u rows is the identity
@@ -1046,10 +951,10 @@ final class LinearSystem {
          */
 
         // reduce U_lower to row echelon form
-        MatrixUtilities.reduceToRowEchelonForm(A, i, M, L - u, L, d, D);
+        final int rank = MatrixUtilities.reduceToRowEchelonFormBlocked(A, i, M, L - u, L, d, D, ops);
 
         // check U_lower's rank, if it's less than 'u' we've got a decoding failure
-        if (MatrixUtilities.nonZeroRows(A, i, M, i, L) < u) {
+        if (rank < u) {
             throw new SingularMatrixException(
                 "Decoding Failure - PI Decoding @ Phase 2: U_lower's rank is less than u.");
         }
@@ -1062,17 +967,18 @@ final class LinearSystem {
         TimerUtils.markTimestamp();
         debugPrintlnMillis("2nd", TimerUtils.getEllapsedTimeLong(TimeUnit.NANOSECONDS));
 
-        return pidPhase3(A, X, D, d, c, L, i);
+        return pidPhase3(A, X, D, d, c, L, i, ops);
     }
 
-    private static byte[][] pidPhase3(
-        ByteMatrix A,
+    private static SymbolMatrix pidPhase3(
+        final ByteMatrix A,
         final ByteMatrix X,
-        final byte[][] D,
+        final SymbolMatrix D,
         final int[] d,
         final int[] c,
         final int L,
-        final int i)
+        final int i,
+        final List<ISDOperation> ops)
     {
 
         TimerUtils.beginTimer(); // DEBUG
@@ -1081,42 +987,70 @@ final class LinearSystem {
          * "... the matrix X is multiplied with the submatrix of A consisting of the first i rows of A."
          */
 
-        final int Arows = i;
-        final int Acols = L;
-        final int Xrows = Arows;
-        final int Xcols = Arows;
+        /*
+         * X is lower triangular, so each of the first i rows of the product only depends on the rows of A (and D) at
+         * the same or at a higher position. The product is computed in place, from the last row to the first one,
+         * by adding rows instead of multiplying entries.
+         */
 
-        // A can be safely re-assigned because the product matrix has the same dimensions of A
-        A = X.multiply(A, 0, Xrows, 0, Xcols, 0, Arows, 0, Acols);
+        // the symbols to be added to each row, which are then added all at once
+        final byte[] multipliers = new byte[i];
+        final int[] srcRows = new int[i];
 
-        // decoding process
-        final int Drows = Xrows;
-        final int Dcols = (D.length == 0) ? 0 : D[0].length;
-        final byte[][] DShallowCopy = Arrays.copyOf(D, D.length);
-        final ByteMatrix DM = new RowIndirected2DByteMatrix(Drows, Dcols, DShallowCopy, d);
+        for (int row = i - 1; row >= 0; row--) {
+            int numAdditions = 0;
 
-        for (int row = 0; row < Xrows; row++) {
-            // multiply X[row] by D
-            BasicByteVector prod = (BasicByteVector)X.multiplyRow(row, DM, 0, Xcols, LinearAlgebra.BASIC2D_FACTORY);
-            D[d[row]] = prod.getInternalArray();
-        }
+            ByteVectorIterator it = X.nonZeroRowIterator(row, 0, row);
+            while (it.hasNext()) {
+                it.next();
+
+                // row 'it.index()' has not been replaced by its product row yet
+                multipliers[numAdditions] = it.get();
+                srcRows[numAdditions] = it.index();
+                numAdditions++;
+            }
+
+            // multiply the row by the diagonal entry of X (as a division by its inverse)
+            final byte alpha = X.get(row, row);
+            if (alpha != 1) {
+                final byte alphaInverse = OctetOps.aDividedByB((byte)1, alpha);
+                A.divideRowInPlace(row, alphaInverse);
+                D.divideRow(d[row], alphaInverse); // in place division
+
+                if (ops != null) {
+                    ops.add(ISDOps.newPhase3_1Operation(alphaInverse, d[row]));
+                }
+            }
+
+            for (int n = 0; n < numAdditions; n++) {
+                A.addRowsInPlace(multipliers[n], srcRows[n], row);
 
-        // ISDCodeWriter.instance().writePhase3Code(X, Xrows, Xcols, d); // DEBUG
+                if (ops != null) {
+                    ops.add(ISDOps.newPhase3_2Operation(multipliers[n], d[srcRows[n]], d[row]));
+                }
+
+                // decoding process - (beta * D[d[col]]) + D[d[row]], added below
+                srcRows[n] = d[srcRows[n]];
+            }
+
+            D.addRows(multipliers, 0, srcRows, 0, numAdditions, d[row]);
+        }
 
         // DEBUG
         TimerUtils.markTimestamp();
         debugPrintlnMillis("3rd", TimerUtils.getEllapsedTimeLong(TimeUnit.NANOSECONDS));
 
-        return pidPhase4(A, D, d, c, L, i);
+        return pidPhase4(A, D, d, c, L, i, ops);
     }
 
-    private static byte[][] pidPhase4(
+    private static SymbolMatrix pidPhase4(
         final ByteMatrix A,
-        final byte[][] D,
+        final SymbolMatrix D,
         final int[] d,
         final int[] c,
         final int L,
-        final int i)
+        final int i,
+        final List<ISDOperation> ops)
     {
 
         TimerUtils.beginTimer(); // DEBUG
@@ -1126,8 +1060,14 @@ final class LinearSystem {
          * and if the value of that nonzero entry is b, then add to this row b times row j of I_u."
          */
 
+        // the symbols to be added to each row, which are then added all at once
+        final byte[] multipliers = new byte[L - i];
+        final int[] srcRows = new int[L - i];
+
         // "For each of the first i rows of U_upper"
         for (int row = 0; row < i; row++) {
+            int numAdditions = 0;
+
             ByteVectorIterator it = A.nonZeroRowIterator(row, i, L);
             while (it.hasNext()) {
                 it.next();
@@ -1142,31 +1082,42 @@ final class LinearSystem {
                 // (no need to actually "zerofy" it, since this part of the matrix will not be used again)
                 // it.set((byte)0);
 
-                // ISDCodeWriter.instance().writePhase4Code(b, d[j], d[row]); // DEBUG
+                if (ops != null) {
+                    ops.add(ISDOps.newPhase4Operation(b, d[j], d[row]));
+                }
 
                 // decoding process - (beta * D[d[j]]) + D[d[row]]
-                OctetOps.vectorVectorAddition(b, D[d[j]], D[d[row]], D[d[row]]);
+                multipliers[numAdditions] = b;
+                srcRows[numAdditions] = d[j];
+                numAdditions++;
             }
+
+            D.addRows(multipliers, 0, srcRows, 0, numAdditions, d[row]);
         }
 
         // DEBUG
         TimerUtils.markTimestamp();
         debugPrintlnMillis("4th", TimerUtils.getEllapsedTimeLong(TimeUnit.NANOSECONDS));
 
-        return pidPhase5(A, D, d, c, L, i);
+        return pidPhase5(A, D, d, c, L, i, ops);
     }
 
-    private static byte[][] pidPhase5(
+    private static SymbolMatrix pidPhase5(
         final ByteMatrix A,
-        final byte[][] D,
+        final SymbolMatrix D,
         final int[] d,
         final int[] c,
         final int L,
-        final int i)
+        final int i,
+        final List<ISDOperation> ops)
     {
 
         TimerUtils.beginTimer(); // DEBUG
 
+        // the symbols to be added to each row, which are then added all at once
+        final byte[] multipliers = new byte[i];
+        final int[] srcRows = new int[i];
+
         // "For j from 1 to i, perform the following operations:"
         for (int j = 0; j < i; j++) {
             // "If A[j,j] is not one"
@@ -1175,13 +1126,16 @@ final class LinearSystem {
                 // "then divide row j of A by A[j,j]."
                 A.divideRowInPlace(j, beta);
 
-                // ISDCodeWriter.instance().writePhase5Code_1(beta, d[j]); // DEBUG
+                if (ops != null) {
+                    ops.add(ISDOps.newPhase5_1Operation(beta, d[j]));
+                }
 
                 // decoding process - D[d[j]] / beta
-                OctetOps.valueVectorDivision(beta, D[d[j]], D[d[j]]); // in place division
+                D.divideRow(d[j], beta); // in place division
             }
 
             // "For eL from 1 to j-1"
+            int numAdditions = 0;
             ByteVectorIterator it = A.nonZeroRowIterator(j, 0, j);
             while (it.hasNext()) {
                 it.next();
@@ -1194,26 +1148,33 @@ final class LinearSystem {
                 // because it will not be used again.
                 // A.addRowsInPlace(beta, eL, j);
 
-                // ISDCodeWriter.instance().writePhase5Code_2(beta, d[eL], d[j]); // DEBUG
+                if (ops != null) {
+                    ops.add(ISDOps.newPhase5_2Operation(beta, d[eL], d[j]));
+                }
 
                 // decoding process - (beta * D[d[eL]]) + D[d[j]]
-                OctetOps.vectorVectorAddition(beta, D[d[eL]], D[d[j]], D[d[j]]);
+                multipliers[numAdditions] = beta;
+                srcRows[numAdditions] = d[eL];
+                numAdditions++;
             }
+
+            D.addRows(multipliers, 0, srcRows, 0, numAdditions, d[j]);
         }
 
         // DEBUG
         TimerUtils.markTimestamp();
         debugPrintlnMillis("5th", TimerUtils.getEllapsedTimeLong(TimeUnit.NANOSECONDS));
 
-        final byte[][] C = new byte[L][];
-
-        // reorder C
+        // reorder C (a view of the symbols in D)
+        final int[] rows = new int[L];
         for (int index = 0; index < L; index++) {
-            C[c[index]] = D[d[index]];
+            rows[c[index]] = d[index];
         }
+        final SymbolMatrix C = D.rowView(rows);
 
-        // ISDCodeWriter.instance().writeReorderCode(L, c, d); // DEBUG
-        // ISDCodeWriter.instance().generateCode(); // DEBUG
+        if (ops != null) {
+            ops.add(ISDOps.newReorderOperation(L, Arrays.copyOf(c, c.length), Arrays.copyOf(d, d.length)));
+        }
 
         return C;
     }
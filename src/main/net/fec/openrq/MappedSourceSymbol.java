@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import net.fec.openrq.util.io.BufferOperation;
+import net.fec.openrq.util.io.ByteBuffers;
+
+
+/**
+ * Container of source symbol data stored in a source block mapping.
+ */
+final class MappedSourceSymbol implements SourceSymbol {
+
+    private final SourceBlockMapping block;
+    private final int esi;
+
+    private final int codeSize;
+    private final int transportSize;
+
+
+    /*
+     * Requires valid parameters.
+     */
+    MappedSourceSymbol(SourceBlockMapping block, int esi, int codeSize, int transportSize) {
+
+        this.block = Objects.requireNonNull(block);
+        this.esi = esi;
+
+        this.codeSize = codeSize;
+        this.transportSize = transportSize;
+    }
+
+    @Override
+    public int codeSize() {
+
+        return codeSize;
+    }
+
+    @Override
+    public void getCodeData(ByteBuffer dst) {
+
+        getCodeData(dst, BufferOperation.ADVANCE_POSITION);
+    }
+
+    @Override
+    public void getCodeData(ByteBuffer dst, BufferOperation op) {
+
+        final int pos = dst.position();
+        if (dst.remaining() < codeSize()) throw new BufferOverflowException();
+
+        block.read(esi, dst, transportSize());
+        ByteBuffers.putZeros(dst, codeSize() - transportSize());
+
+        op.apply(dst, pos, dst.position());
+    }
+
+    @Override
+    public void putCodeData(ByteBuffer src) {
+
+        putCodeData(src, BufferOperation.ADVANCE_POSITION);
+    }
+
+    @Override
+    public void putCodeData(ByteBuffer src, BufferOperation op) {
+
+        final int pos = src.position();
+        if (src.remaining() < codeSize()) throw new BufferUnderflowException();
+
+        block.write(esi, src, transportSize());
+        src.position(pos + codeSize()); // always advance by codeSize() bytes
+        op.apply(src, pos, src.position());
+    }
+
+    @Override
+    public int transportSize() {
+
+        return transportSize;
+    }
+
+    @Override
+    public ByteBuffer transportData() {
+
+        final ByteBuffer buf = ByteBuffer.allocate(transportSize());
+        block.read(esi, buf, transportSize());
+        buf.flip();
+        return buf.asReadOnlyBuffer();
+    }
+
+    @Override
+    public void putTransportData(ByteBuffer src) {
+
+        putTransportData(src, BufferOperation.ADVANCE_POSITION);
+    }
+
+    @Override
+    public void putTransportData(ByteBuffer src, BufferOperation op) {
+
+        final int pos = src.position();
+        if (src.remaining() < transportSize()) throw new BufferUnderflowException();
+
+        block.write(esi, src, transportSize());
+        op.apply(src, pos, src.position());
+    }
+}
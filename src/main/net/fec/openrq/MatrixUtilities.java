@@ -17,15 +17,23 @@
 package net.fec.openrq;
 
 
+import java.util.List;
+
 import net.fec.openrq.util.array.ArrayUtils;
+import net.fec.openrq.util.linearalgebra.io.ByteVectorIterator;
 import net.fec.openrq.util.linearalgebra.matrix.ByteMatrix;
 import net.fec.openrq.util.math.OctetOps;
+import net.fec.openrq.util.rq.SymbolMatrix;
 
 
 /**
  */
 final class MatrixUtilities {
 
+    // the number of pivot columns processed at once in the blocked elimination
+    private static final int ELIMINATION_BLOCK_SIZE = 16;
+
+
     static final void printMatrix(byte[][] matrix) {
 
         int M = matrix.length;
@@ -201,6 +209,9 @@ final class MatrixUtilities {
     /**
      * Performs Gaussian elimination on a region of a matrix A and reduces the matrix region to a reduced row echelon
      * form. The operations are also performed in matrix D, with indices in d.
+     * <p>
+     * Row operations are restricted to the columns of the region, so the rows of the region are expected to have only
+     * zeros outside of it.
      * 
      * @param A
      * @param fromRow
@@ -209,6 +220,8 @@ final class MatrixUtilities {
      * @param toCol
      * @param d
      * @param D
+     * @param ops
+     *            A list where the operations applied to D are appended, or {@code null} if no recording is needed
      */
     static void reduceToRowEchelonForm(
         ByteMatrix A,
@@ -217,7 +230,8 @@ final class MatrixUtilities {
         final int fromCol,
         final int toCol,
         int[] d,
-        byte[][] D) {
+        SymbolMatrix D,
+        List<ISDOperation> ops) {
 
         int lead = fromCol;
         for (int r = fromRow; r < toRow; r++) {
@@ -245,22 +259,33 @@ final class MatrixUtilities {
 
             byte beta = A.get(r, lead);
             if (beta != 0) {
-                A.divideRowInPlace(r, beta);
+                A.divideRowInPlace(r, beta, fromCol, toCol);
                 // decoding process - divide D[d[r]] by U_lower[r][lead]
                 // byte[] / beta
                 final int dIndex = d[r];
-                OctetOps.valueVectorDivision(beta, D[dIndex], D[dIndex]); // in place division
+                D.divideRow(dIndex, beta);
+
+                if (ops != null) {
+                    ops.add(ISDOps.newPhase2_1Operation(beta, dIndex));
+                }
             }
 
             for (i = fromRow; i < toRow; i++) {
                 if (i != r) {
                     beta = A.get(i, lead);
 
-                    // U_lower[i] - (U_lower[i][lead] * U_lower[r])
-                    // NOTE: here, subtraction is the same as addition
-                    A.addRowsInPlace(beta, r, i);
-                    // decoding process - D[d[i]] - (U_lower[i][lead] * D[d[r]])
-                    OctetOps.vectorVectorAddition(beta, D[d[r]], D[d[i]], D[d[i]]);
+                    // nothing to add if the entry is already zero
+                    if (beta != 0) {
+                        // U_lower[i] - (U_lower[i][lead] * U_lower[r])
+                        // NOTE: here, subtraction is the same as addition
+                        A.addRowsInPlace(beta, r, i, fromCol, toCol);
+                        // decoding process - D[d[i]] - (U_lower[i][lead] * D[d[r]])
+                        D.addRow(beta, d[r], d[i]);
+
+                        if (ops != null) {
+                            ops.add(ISDOps.newPhase2_2Operation(beta, d[r], d[i]));
+                        }
+                    }
                 }
             }
 
@@ -268,6 +293,127 @@ final class MatrixUtilities {
         }
     }
 
+    /**
+     * Performs Gauss-Jordan elimination on a region of a matrix A, whose rows must have only zeros outside of the
+     * region, until the region is in reduced row echelon form or is found to be rank deficient. The operations are also
+     * performed in matrix D, with indices in d.
+     * <p>
+     * The elimination runs on a dense copy of the region, which is written back to A at the end. Pivot columns are
+     * processed in blocks: the pivot rows of a block are reduced among themselves first, and then every other row
+     * receives all the additions of the block at once, which are also applied to D at once.
+     * 
+     * @param A
+     * @param fromRow
+     * @param toRow
+     * @param fromCol
+     * @param toCol
+     * @param d
+     * @param D
+     * @param ops
+     *            A list where the operations applied to D are appended, or {@code null} if no recording is needed
+     * @return the number of pivots found, which is less than the number of columns of the region if it is rank
+     *         deficient
+     */
+    static int reduceToRowEchelonFormBlocked(
+        ByteMatrix A,
+        final int fromRow,
+        final int toRow,
+        final int fromCol,
+        final int toCol,
+        int[] d,
+        SymbolMatrix D,
+        List<ISDOperation> ops)
+    {
+
+        final int numRows = toRow - fromRow;
+        final int numCols = toCol - fromCol;
+
+        // dense copy of the region
+        final byte[][] U = new byte[numRows][numCols];
+        for (int r = 0; r < numRows; r++) {
+            ByteVectorIterator it = A.nonZeroRowIterator(fromRow + r, fromCol, toCol);
+            while (it.hasNext()) {
+                it.next();
+                U[r][it.index() - fromCol] = it.get();
+            }
+        }
+
+        final BlockAdditions adds = new BlockAdditions(U, fromRow, d, D, ops);
+
+        int rank = 0;
+        blocks: for (int c0 = 0; c0 < numCols; c0 += ELIMINATION_BLOCK_SIZE) {
+            final int c1 = Math.min(c0 + ELIMINATION_BLOCK_SIZE, numCols);
+            final int firstPivot = rank; // the pivot of column c0 + k is at row firstPivot + k
+
+            for (int c = c0; c < c1; c++) {
+                // find a row whose entry at column c is not zero after being reduced by the pivots in this block
+                int pivot = -1;
+                byte value = 0;
+                for (int r = rank; r < numRows && pivot == -1; r++) {
+                    value = U[r][c];
+                    for (int k = 0; k < c - c0; k++) {
+                        value = OctetOps.aPlusB(value, OctetOps.aTimesB(U[r][c0 + k], U[firstPivot + k][c]));
+                    }
+                    if (value != 0) {
+                        pivot = r;
+                    }
+                }
+
+                if (pivot == -1) { // rank deficient, there is no point in going further
+                    break blocks;
+                }
+
+                if (pivot != rank) {
+                    ArrayUtils.swapObjects(U, pivot, rank);
+                    // decoding process - swap d[pivot] with d[rank] in d
+                    ArrayUtils.swapInts(d, fromRow + pivot, fromRow + rank);
+                }
+
+                // reduce the new pivot row by the previous pivots in this block
+                adds.reduceRow(rank, firstPivot, c0, c - c0);
+
+                // divide the new pivot row by its pivot
+                if (value != 1) {
+                    OctetOps.valueVectorDivision(value, U[rank], c0, U[rank], c0, numCols - c0);
+                    // decoding process - divide D[d[rank]] by the pivot
+                    final int dIndex = d[fromRow + rank];
+                    D.divideRow(dIndex, value);
+
+                    if (ops != null) {
+                        ops.add(ISDOps.newPhase2_1Operation(value, dIndex));
+                    }
+                }
+
+                // reduce the previous pivots in this block by the new pivot row
+                for (int r = firstPivot; r < rank; r++) {
+                    adds.reduceRow(r, rank, c, 1);
+                }
+
+                rank++;
+            }
+
+            // reduce every other row by all the pivots in this block
+            for (int r = 0; r < numRows; r++) {
+                if (r < firstPivot || r >= rank) {
+                    adds.reduceRow(r, firstPivot, c0, rank - firstPivot);
+                }
+            }
+        }
+
+        // write back the region
+        for (int r = 0; r < numRows; r++) {
+            A.clearRow(fromRow + r);
+            for (int c = 0; c < numCols; c++) {
+                if (U[r][c] != 0) {
+                    A.set(fromRow + r, fromCol + c, U[r][c]);
+                }
+            }
+        }
+
+        return rank;
+    }
+
+
     static void swapColumns(byte[][] matrix, int a, int b) {
 
         // check sizes and limits and whatnot bla bla bla
@@ -440,4 +586,63 @@ final class MatrixUtilities {
 
         return x;
     }
+
+
+    // adds pivot rows of a dense region, and their symbols, to other rows
+    private static final class BlockAdditions {
+
+        private final byte[][] U;
+        private final int fromRow;
+        private final int[] d;
+        private final SymbolMatrix D;
+        private final List<ISDOperation> ops;
+
+        private final byte[] multipliers = new byte[ELIMINATION_BLOCK_SIZE];
+        private final int[] srcRows = new int[ELIMINATION_BLOCK_SIZE];
+        private final int[] srcSymbols = new int[ELIMINATION_BLOCK_SIZE];
+
+
+        BlockAdditions(byte[][] U, int fromRow, int[] d, SymbolMatrix D, List<ISDOperation> ops) {
+
+            this.U = U;
+            this.fromRow = fromRow;
+            this.d = d;
+            this.D = D;
+            this.ops = ops;
+        }
+
+        /*
+         * Zeroes the entries of a row at columns [fromCol, fromCol + count), where the pivot rows [fromPivot,
+         * fromPivot + count) have their respective pivots equal to one. The pivot rows must only have zeros before
+         * fromCol, and zeros at the pivot columns of each other.
+         */
+        void reduceRow(int row, int fromPivot, int fromCol, int count) {
+
+            final byte[] dst = U[row];
+            final int dstSymbol = d[fromRow + row];
+
+            int n = 0;
+            for (int k = 0; k < count; k++) {
+                final byte beta = dst[fromCol + k];
+                if (beta != 0) {
+                    multipliers[n] = beta;
+                    srcRows[n] = fromPivot + k;
+                    srcSymbols[n] = d[fromRow + fromPivot + k];
+                    n++;
+
+                    if (ops != null) {
+                        ops.add(ISDOps.newPhase2_2Operation(beta, d[fromRow + fromPivot + k], dstSymbol));
+                    }
+                }
+            }
+
+            if (n > 0) {
+                // U[row] - (U[row][col] * U[pivot]) for all pivots
+                // NOTE: here, subtraction is the same as addition
+                OctetOps.vectorVectorAdditions(multipliers, 0, U, srcRows, 0, n, dst, fromCol, dst.length - fromCol);
+                // decoding process - D[d[row]] - (U[row][col] * D[d[pivot]]) for all pivots
+                D.addRows(multipliers, 0, srcSymbols, 0, n, dstSymbol);
+            }
+        }
+    }
 }
@@ -17,6 +17,14 @@
 package net.fec.openrq;
 
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Executor;
+
 import net.fec.openrq.decoder.DataDecoder;
 import net.fec.openrq.decoder.SourceBlockDecoder;
 import net.fec.openrq.encoder.DataEncoder;
@@ -83,6 +91,120 @@ public final class OpenRQ {
         return ArrayDataEncoder.newEncoder(data, offset, fecParams);
     }
 
+    /**
+     * Returns a {@link DataEncoder} object with a file as the source data, configured according to the provided FEC
+     * parameters. The source data begins at the start of the file.
+     * <p>
+     * The source data is not copied into memory, so its length is only limited by the FEC parameters. The file must not
+     * be modified, nor the file channel closed, while the encoder is in use.
+     * 
+     * @param file
+     *            A readable file channel with the source data to be encoded
+     * @param fecParams
+     *            FEC parameters that configure the returned data encoder object
+     * @return a data encoder object backed by a file
+     * @exception NullPointerException
+     *                If {@code file} or {@code fecParams} are {@code null}
+     * @exception IndexOutOfBoundsException
+     *                If {@code fecParams.dataLength() > file.size()}
+     * @exception IOException
+     *                If an I/O error occurs while checking the size of the file
+     */
+    public static FileDataEncoder newEncoder(FileChannel file, FECParameters fecParams) throws IOException {
+
+        return newEncoder(file, 0L, fecParams);
+    }
+
+    /**
+     * Returns a {@link DataEncoder} object with a file as the source data, configured according to the provided FEC
+     * parameters.
+     * <p>
+     * The source data is not copied into memory, so its length is only limited by the FEC parameters. The file must not
+     * be modified, nor the file channel closed, while the encoder is in use.
+     * 
+     * @param file
+     *            A readable file channel with the source data to be encoded
+     * @param position
+     *            The position in the file where the source data begins
+     * @param fecParams
+     *            FEC parameters that configure the returned data encoder object
+     * @return a data encoder object backed by a file
+     * @exception NullPointerException
+     *                If {@code file} or {@code fecParams} are {@code null}
+     * @exception IllegalArgumentException
+     *                If {@code position < 0}
+     * @exception IndexOutOfBoundsException
+     *                If {@code fecParams.dataLength() > (file.size() - position)}
+     * @exception IOException
+     *                If an I/O error occurs while checking the size of the file
+     */
+    public static FileDataEncoder newEncoder(FileChannel file, long position, FECParameters fecParams)
+        throws IOException
+    {
+
+        // exceptions are checked inside the invoked method
+        return FileDataEncoder.newEncoder(file, position, fecParams);
+    }
+
+    /**
+     * Returns a {@link DataEncoder} object with a buffer as the source data, configured according to the provided FEC
+     * parameters. The source data begins at the current position of the buffer.
+     * <p>
+     * If the buffer is direct, then the intermediate symbols and the repair symbols are also stored in direct buffers,
+     * and the source data is never copied into the heap. The source data must not be modified while the encoder is in
+     * use.
+     * <p>
+     * Note that the maximum supported data length is {@link Integer#MAX_VALUE}.
+     * 
+     * @param data
+     *            A buffer containing the source data to be encoded
+     * @param fecParams
+     *            FEC parameters that configure the returned data encoder object
+     * @return a data encoder object backed by a buffer
+     * @exception NullPointerException
+     *                If {@code data} or {@code fecParams} are {@code null}
+     * @exception IllegalArgumentException
+     *                If {@code fecParams.dataLength() > Integer.MAX_VALUE}
+     * @exception IndexOutOfBoundsException
+     *                If {@code fecParams.dataLength() > data.remaining()}
+     */
+    public static BufferDataEncoder newEncoder(ByteBuffer data, FECParameters fecParams) {
+
+        // exceptions are checked inside the invoked method
+        return BufferDataEncoder.newEncoder(data, fecParams);
+    }
+
+    /**
+     * Returns a {@link DataEncoder} object that reads the source data from a channel, configured according to the
+     * provided FEC parameters.
+     * <p>
+     * The source data is read one source block at a time, and the source blocks must be accessed in order. Each source
+     * block is read from the channel, and its intermediate symbols are generated, by the provided executor while the
+     * encoding packets of the previous source block are produced. The memory in use depends on the size of a source
+     * block, and not on the length of the source data.
+     * <p>
+     * The channel must be in blocking mode, and must not be read by others while the encoder is in use.
+     * 
+     * @param channel
+     *            A readable channel with the source data to be encoded
+     * @param fecParams
+     *            FEC parameters that configure the returned data encoder object
+     * @param executor
+     *            An executor that reads source blocks and generates their intermediate symbols
+     * @return a data encoder object that reads the source data from a channel
+     * @exception NullPointerException
+     *                If {@code channel}, {@code fecParams} or {@code executor} are {@code null}
+     * @exception IllegalArgumentException
+     *                If a source block has more than {@code Integer.MAX_VALUE} bytes
+     */
+    public static ChannelDataEncoder newEncoder(ReadableByteChannel channel, FECParameters fecParams,
+        Executor executor)
+    {
+
+        // exceptions are checked inside the invoked method
+        return ChannelDataEncoder.newEncoder(channel, fecParams, executor);
+    }
+
     /**
      * Returns a {@link DataDecoder} object that decodes source data into an array of bytes, configured according to the
      * provided FEC parameters and symbol overhead. All source block decoders will initially be configured with the
@@ -183,6 +305,150 @@ public final class OpenRQ {
         return newDecoder(fecParams, 2);
     }
 
+    /**
+     * Returns a {@link DataDecoder} object that decodes source data into a file, configured according to the provided
+     * FEC parameters and symbol overhead. The source data is decoded to the start of the file. All source block
+     * decoders will initially be configured with the provided symbol overhead value.
+     * <p>
+     * For information on the symbol overhead value, refer to the section on
+     * <a href="decoder/SourceBlockDecoder.html#symbol-overhead"><em>Symbol overhead</em></a> in the
+     * {@link SourceBlockDecoder} class header.
+     * <p>
+     * The source data is not held as a whole in memory, so its length is only limited by the FEC parameters. The file
+     * is extended if it is shorter than the source data. The file must not be modified, nor the file channel closed,
+     * while the decoder is in use.
+     * 
+     * @param file
+     *            A readable and writable file channel to where the source data is decoded
+     * @param fecParams
+     *            FEC parameters that configure the returned data decoder object
+     * @param symbolOverhead
+     *            Symbol overhead (must be non-negative)
+     * @return a data decoder object that decodes source data into a file
+     * @exception NullPointerException
+     *                If {@code file} or {@code fecParams} are {@code null}
+     * @exception IllegalArgumentException
+     *                If {@code symbolOverhead < 0}
+     * @exception IOException
+     *                If an I/O error occurs while extending the file
+     */
+    public static FileDataDecoder newDecoder(FileChannel file, FECParameters fecParams, int symbolOverhead)
+        throws IOException
+    {
+
+        return newDecoder(file, 0L, fecParams, symbolOverhead);
+    }
+
+    /**
+     * Returns a {@link DataDecoder} object that decodes source data into a file, configured according to the provided
+     * FEC parameters and symbol overhead. All source block decoders will initially be configured with the provided
+     * symbol overhead value.
+     * <p>
+     * For information on the symbol overhead value, refer to the section on
+     * <a href="decoder/SourceBlockDecoder.html#symbol-overhead"><em>Symbol overhead</em></a> in the
+     * {@link SourceBlockDecoder} class header.
+     * <p>
+     * The source data is not held as a whole in memory, so its length is only limited by the FEC parameters. The file
+     * is extended if it is shorter than the source data. The file must not be modified, nor the file channel closed,
+     * while the decoder is in use.
+     * 
+     * @param file
+     *            A readable and writable file channel to where the source data is decoded
+     * @param position
+     *            The position in the file where the source data begins
+     * @param fecParams
+     *            FEC parameters that configure the returned data decoder object
+     * @param symbolOverhead
+     *            Symbol overhead (must be non-negative)
+     * @return a data decoder object that decodes source data into a file
+     * @exception NullPointerException
+     *                If {@code file} or {@code fecParams} are {@code null}
+     * @exception IllegalArgumentException
+     *                If {@code position < 0 || symbolOverhead < 0}
+     * @exception IOException
+     *                If an I/O error occurs while extending the file
+     */
+    public static FileDataDecoder newDecoder(FileChannel file, long position, FECParameters fecParams,
+        int symbolOverhead) throws IOException
+    {
+
+        // exceptions are checked inside the invoked method
+        return FileDataDecoder.newDecoder(file, position, fecParams, symbolOverhead);
+    }
+
+    /**
+     * Returns a {@link DataDecoder} object that decodes source data into a buffer, configured according to the provided
+     * FEC parameters and symbol overhead. The source data is decoded to the current position of the buffer. All source
+     * block decoders will initially be configured with the provided symbol overhead value.
+     * <p>
+     * For information on the symbol overhead value, refer to the section on
+     * <a href="decoder/SourceBlockDecoder.html#symbol-overhead"><em>Symbol overhead</em></a> in the
+     * {@link SourceBlockDecoder} class header.
+     * <p>
+     * If the buffer is direct, then the received repair symbols and the symbols used in decoding are also stored in
+     * direct buffers, and the source data is never copied into the heap.
+     * <p>
+     * Note that the maximum supported data length is {@link Integer#MAX_VALUE}.
+     * 
+     * @param data
+     *            A buffer to where the source data is decoded
+     * @param fecParams
+     *            FEC parameters that configure the returned data decoder object
+     * @param symbolOverhead
+     *            Symbol overhead (must be non-negative)
+     * @return a data decoder object that decodes source data into a buffer
+     * @exception NullPointerException
+     *                If {@code data} or {@code fecParams} are {@code null}
+     * @exception IllegalArgumentException
+     *                If {@code fecParams.dataLength() > Integer.MAX_VALUE || symbolOverhead < 0}
+     * @exception IndexOutOfBoundsException
+     *                If {@code fecParams.dataLength() > data.remaining()}
+     * @exception ReadOnlyBufferException
+     *                If {@code data} is read-only
+     */
+    public static BufferDataDecoder newDecoder(ByteBuffer data, FECParameters fecParams, int symbolOverhead) {
+
+        // exceptions are checked inside the invoked method
+        return BufferDataDecoder.newDecoder(data, fecParams, symbolOverhead);
+    }
+
+    /**
+     * Returns a {@link DataDecoder} object that writes the decoded source data to a channel, configured according to
+     * the provided FEC parameters and symbol overhead. All source block decoders will initially be configured with the
+     * provided symbol overhead value.
+     * <p>
+     * For information on the symbol overhead value, refer to the section on
+     * <a href="decoder/SourceBlockDecoder.html#symbol-overhead"><em>Symbol overhead</em></a> in the
+     * {@link SourceBlockDecoder} class header.
+     * <p>
+     * The source data of each source block is written to the channel as soon as that source block and all previous
+     * source blocks are decoded, so the source data is written in order. The memory of a source block is allocated
+     * when its decoder is first accessed, and is released once its source data is written. The channel must be in
+     * blocking mode.
+     * <p>
+     * Unlike the {@linkplain #newDecoder(FileChannel, FECParameters, int) decoder into a file}, this decoder never
+     * writes to a previous position of the channel, so it can be used with streams, sockets and pipes.
+     * 
+     * @param channel
+     *            A writable channel to where the source data is written
+     * @param fecParams
+     *            FEC parameters that configure the returned data decoder object
+     * @param symbolOverhead
+     *            Symbol overhead (must be non-negative)
+     * @return a data decoder object that writes the source data to a channel
+     * @exception NullPointerException
+     *                If {@code channel} or {@code fecParams} are {@code null}
+     * @exception IllegalArgumentException
+     *                If a source block has more than {@code Integer.MAX_VALUE} bytes, or if {@code symbolOverhead < 0}
+     */
+    public static ChannelDataDecoder newStreamingDecoder(WritableByteChannel channel, FECParameters fecParams,
+        int symbolOverhead)
+    {
+
+        // exceptions are checked inside the invoked method
+        return ChannelDataDecoder.newDecoder(channel, fecParams, symbolOverhead);
+    }
+
     /**
      * Calculates the minimum number of repair symbols from a source block to be transmitted for a given network loss
      * rate.
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.fec.openrq.util.linearalgebra.io.ByteVectorIterator;
+import net.fec.openrq.util.linearalgebra.matrix.ByteMatrix;
+import net.fec.openrq.util.math.OctetOps;
+import net.fec.openrq.util.rq.SymbolMatrix;
+
+
+/**
+ * The row additions into the HDPC rows that are deferred in the first phase of PI decoding.
+ * <p>
+ * The HDPC rows are dense, and would otherwise be updated with every chosen row. Since the chosen rows are not
+ * modified after being chosen, and the HDPC rows are chosen last, the additions into an HDPC row can be deferred until
+ * the row is chosen, or until the end of the first phase. The deferred additions are then applied in a single pass over
+ * a dense copy of the HDPC row, and the respective symbols are added all at once.
+ */
+final class PendingHDPCAdditions {
+
+    private final byte[][] multipliers;
+    private final int[][] srcRows; // positions of the chosen rows, then the indexes of their symbols
+    private final int[] numAdditions;
+
+    private final byte[] denseRow;
+
+
+    /**
+     * Creates an empty set of pending additions.
+     *
+     * @param H
+     *            The number of HDPC rows
+     * @param L
+     *            The number of columns of the matrix (and maximum number of chosen rows)
+     */
+    PendingHDPCAdditions(int H, int L) {
+
+        this.multipliers = new byte[H][L];
+        this.srcRows = new int[H][L];
+        this.numAdditions = new int[H];
+        this.denseRow = new byte[L];
+    }
+
+    /**
+     * Discards all pending additions.
+     */
+    void clear() {
+
+        Arrays.fill(numAdditions, 0);
+    }
+
+    /**
+     * Defers the addition of a chosen row, multiplied by a value, to an HDPC row.
+     *
+     * @param h
+     *            The index of the HDPC row, from 0 to H-1
+     * @param multiplier
+     *            The value that multiplies the chosen row
+     * @param srcRow
+     *            The position of the chosen row, which must only have zeros before that column
+     */
+    void add(int h, byte multiplier, int srcRow) {
+
+        multipliers[h][numAdditions[h]] = multiplier;
+        srcRows[h][numAdditions[h]] = srcRow;
+        numAdditions[h]++;
+    }
+
+    /**
+     * Applies the pending additions to an HDPC row, in the matrix and in the symbols.
+     *
+     * @param h
+     *            The index of the HDPC row, from 0 to H-1
+     * @param dstRow
+     *            The current position of the HDPC row
+     * @param A
+     *            The decoding matrix
+     * @param D
+     *            The symbols
+     * @param d
+     *            The symbol indexes of the rows
+     * @param ops
+     *            A list where the operations applied to D are appended, or {@code null} if no recording is needed
+     */
+    void apply(int h, int dstRow, ByteMatrix A, SymbolMatrix D, int[] d, List<ISDOperation> ops) {
+
+        final int count = numAdditions[h];
+        if (count == 0) {
+            return;
+        }
+
+        final byte[] hMultipliers = multipliers[h];
+        final int[] hSrcRows = srcRows[h];
+
+        Arrays.fill(denseRow, (byte)0);
+        ByteVectorIterator it = A.nonZeroRowIterator(dstRow);
+        while (it.hasNext()) {
+            it.next();
+            denseRow[it.index()] = it.get();
+        }
+
+        for (int n = 0; n < count; n++) {
+            final byte multiplier = hMultipliers[n];
+            final int srcRow = hSrcRows[n];
+
+            it = A.nonZeroRowIterator(srcRow, srcRow, A.columns());
+            while (it.hasNext()) {
+                it.next();
+                final int j = it.index();
+                denseRow[j] = OctetOps.aPlusB(denseRow[j], OctetOps.aTimesB(multiplier, it.get()));
+            }
+
+            if (ops != null) {
+                ops.add(ISDOps.newPhase1Operation(multiplier, d[srcRow], d[dstRow]));
+            }
+
+            // decoding process - the symbols are added below
+            hSrcRows[n] = d[srcRow];
+        }
+
+        A.clearRow(dstRow);
+        for (int j = 0; j < denseRow.length; j++) {
+            if (denseRow[j] != 0) {
+                A.set(dstRow, j, denseRow[j]);
+            }
+        }
+
+        // decoding process - D[d[dstRow]] + (multiplier * D[d[srcRow]]) for all chosen rows
+        D.addRows(hMultipliers, 0, hSrcRows, 0, count, d[dstRow]);
+
+        numAdditions[h] = 0;
+    }
+}
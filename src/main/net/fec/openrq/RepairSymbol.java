@@ -42,15 +42,25 @@ final class RepairSymbol {
     }
 
     /**
-     * Returns a new repair symbol containing a copy of the provided data.
+     * Returns a new repair symbol containing a copy of the provided data, stored in a buffer of the given type. The
+     * position of the provided buffer is advanced by the symbol size.
      * 
      * @param dataBuf
      *            A buffer containing symbol data
+     * @param symbolSize
+     *            The number of bytes of symbol data
+     * @param type
+     *            The type of buffer that stores the copy
      * @return a new repair symbol containing a copy of the provided data
      */
-    static RepairSymbol copyData(ByteBuffer dataBuf) {
+    static RepairSymbol copyData(ByteBuffer dataBuf, int symbolSize, BufferType type) {
 
-        return new RepairSymbol(ByteBuffers.getCopy(dataBuf));
+        final ByteBuffer copy = ByteBuffers.allocate(symbolSize, type);
+        ByteBuffers.copy(
+            dataBuf, BufferOperation.ADVANCE_POSITION,
+            copy, BufferOperation.FLIP_ABSOLUTELY,
+            symbolSize);
+        return new RepairSymbol(copy);
     }
 
 
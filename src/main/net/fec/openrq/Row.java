@@ -17,34 +17,23 @@
 package net.fec.openrq;
 
 
-import java.util.Set;
-
-
 /**
  */
 final class Row {
 
+    final int id; // the original position of the row
     int position;
     int nonZeros;
     final int originalDegree;
-    Set<Integer> nodes = null;
     final boolean isHDPC;
 
 
     Row(int i, int r, int d, boolean hdpc) {
 
+        id = i;
         position = i;
         nonZeros = r;
         originalDegree = d;
         isHDPC = hdpc;
     }
-
-    Row(int i, int r, int d, boolean hdpc, Set<Integer> e) {
-
-        position = i;
-        nonZeros = r;
-        originalDegree = d;
-        nodes = e;
-        isHDPC = hdpc;
-    }
 }
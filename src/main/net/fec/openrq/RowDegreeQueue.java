@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+
+/**
+ * A bucket priority queue of rows, keyed by their number of non-zeros, used in the first phase of PI decoding.
+ * <p>
+ * Rows are kept in one bucket per number of non-zeros, and are ordered by original degree inside each bucket. Rows
+ * without non-zeros are not kept in the queue.
+ */
+final class RowDegreeQueue {
+
+    // orders rows with the same number of non-zeros
+    private static final Comparator<Row> BY_ORIGINAL_DEGREE = new Comparator<Row>() {
+
+        @Override
+        public int compare(Row row1, Row row2) {
+
+            if (row1.originalDegree != row2.originalDegree) {
+                return Integer.compare(row1.originalDegree, row2.originalDegree);
+            }
+            else {
+                return Integer.compare(row1.id, row2.id);
+            }
+        }
+    };
+
+
+    /**
+     * Returns {@code true} if, and only if, the first row should be chosen before the second row.
+     *
+     * @param row1
+     *            A row
+     * @param row2
+     *            Another row
+     * @return {@code true} if the first row has less non-zeros, or the same number of non-zeros and a lower original
+     *         degree, than the second row
+     */
+    static boolean precedes(Row row1, Row row2) {
+
+        if (row1.nonZeros != row2.nonZeros) {
+            return row1.nonZeros < row2.nonZeros;
+        }
+        else {
+            return row1.originalDegree < row2.originalDegree;
+        }
+    }
+
+
+    private final List<TreeSet<Row>> buckets; // buckets are allocated on demand
+    private int minNonZeros; // no bucket below this one has any rows
+    private int size;
+
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param maxNonZeros
+     *            The maximum number of non-zeros of a row in this queue
+     */
+    RowDegreeQueue(int maxNonZeros) {
+
+        this.buckets = new ArrayList<>(Collections.<TreeSet<Row>>nCopies(maxNonZeros + 1, null));
+        this.minNonZeros = maxNonZeros + 1;
+        this.size = 0;
+    }
+
+    boolean isEmpty() {
+
+        return size == 0;
+    }
+
+    /**
+     * Adds a row to this queue, if it has any non-zeros.
+     *
+     * @param row
+     *            A row that is not in this queue
+     */
+    void add(Row row) {
+
+        if (row.nonZeros > 0) {
+            TreeSet<Row> bucket = buckets.get(row.nonZeros);
+            if (bucket == null) {
+                bucket = new TreeSet<>(BY_ORIGINAL_DEGREE);
+                buckets.set(row.nonZeros, bucket);
+            }
+
+            bucket.add(row);
+            minNonZeros = Math.min(minNonZeros, row.nonZeros);
+            size++;
+        }
+    }
+
+    /**
+     * Removes a row from this queue, if it has any non-zeros.
+     *
+     * @param row
+     *            A row in this queue, or a row without non-zeros
+     */
+    void remove(Row row) {
+
+        if (row.nonZeros > 0) {
+            buckets.get(row.nonZeros).remove(row);
+            size--;
+        }
+    }
+
+    /**
+     * Decrements the number of non-zeros of a row, moving it to a lower bucket (or removing it from this queue if it
+     * has no more non-zeros).
+     *
+     * @param row
+     *            A row in this queue
+     */
+    void decrementNonZeros(Row row) {
+
+        remove(row);
+        row.nonZeros--;
+        add(row);
+    }
+
+    /**
+     * Returns the row with the least number of non-zeros, and the lowest original degree among these.
+     *
+     * @return the first row in this queue, or {@code null} if the queue is empty
+     */
+    Row first() {
+
+        if (size == 0) {
+            return null;
+        }
+
+        while (bucketIsEmpty(minNonZeros)) {
+            minNonZeros++;
+        }
+
+        return buckets.get(minNonZeros).first();
+    }
+
+    /**
+     * Returns the rows in this queue with a specific number of non-zeros, ordered by original degree. The returned
+     * collection must not be modified, and is only valid until this queue is modified.
+     *
+     * @param nonZeros
+     *            A positive number of non-zeros
+     * @return the rows in this queue with the specified number of non-zeros
+     */
+    Iterable<Row> rowsWithNonZeros(int nonZeros) {
+
+        if (bucketIsEmpty(nonZeros)) {
+            return Collections.emptySet();
+        }
+        else {
+            return buckets.get(nonZeros);
+        }
+    }
+
+    private boolean bucketIsEmpty(int nonZeros) {
+
+        final TreeSet<Row> bucket = buckets.get(nonZeros);
+        return bucket == null || bucket.isEmpty();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import java.nio.ByteBuffer;
+
+import net.fec.openrq.util.collection.ImmutableList;
+
+
+/**
+ * The source data of a source block that is stored outside of the heap, and which is only mapped into memory while all
+ * of its symbols are needed at once.
+ * <p>
+ * Calls to {@link #map()} and {@link #unmap()} may be nested, and the source data remains mapped until the outermost
+ * call to {@code unmap()}. The source symbols of the source block are accessible in any case, but are much faster to
+ * access while the source data is mapped.
+ * <p>
+ * The source data may also be kept in memory only until it is flushed to its destination, in which case mapping has no
+ * effect.
+ */
+interface SourceBlockMapping {
+
+    /**
+     * Returns the source symbols of the source block, which access the source data through this mapping.
+     *
+     * @param K
+     *            The number of source symbols
+     * @return the source symbols of the source block
+     */
+    ImmutableList<SourceSymbol> sourceSymbols(int K);
+
+    /**
+     * Copies the first bytes of a source symbol to a buffer.
+     *
+     * @param esi
+     *            The ESI of the source symbol
+     * @param dst
+     *            The destination buffer
+     * @param len
+     *            The number of copied bytes, at most the transport size of the source symbol
+     * @exception net.fec.openrq.util.io.UncheckedIOException
+     *                If an I/O error occurs
+     */
+    void read(int esi, ByteBuffer dst, int len);
+
+    /**
+     * Copies bytes from a buffer to the first bytes of a source symbol.
+     *
+     * @param esi
+     *            The ESI of the source symbol
+     * @param src
+     *            The source buffer
+     * @param len
+     *            The number of copied bytes, at most the transport size of the source symbol
+     * @exception net.fec.openrq.util.io.UncheckedIOException
+     *                If an I/O error occurs
+     */
+    void write(int esi, ByteBuffer src, int len);
+
+    /**
+     * Maps the source data of the source block into memory.
+     *
+     * @exception net.fec.openrq.util.io.UncheckedIOException
+     *                If an I/O error occurs
+     */
+    void map();
+
+    /**
+     * Releases a mapping of the source data of the source block.
+     */
+    void unmap();
+
+    /**
+     * Writes any changes to the source data of the source block to the storage device that contains it.
+     *
+     * @exception net.fec.openrq.util.io.UncheckedIOException
+     *                If an I/O error occurs
+     */
+    void flush();
+}
@@ -31,14 +31,23 @@ final class Tuple {
 
     Tuple(int Kprime, long X) {
 
-        int Ki = SystematicIndices.getKIndex(Kprime);
-        int S = SystematicIndices.S(Ki);
-        int H = SystematicIndices.H(Ki);
-        int W = SystematicIndices.W(Ki);
-        int L = Kprime + S + H;
-        int J = SystematicIndices.J(Ki);
-        int P = L - W;
-        long P1 = MatrixUtilities.ceilPrime(P);
+        this(Kprime, SystematicIndices.getKIndex(Kprime), X);
+    }
+
+    private Tuple(int Kprime, int Ki, long X) {
+
+        this(
+            SystematicIndices.J(Ki),
+            SystematicIndices.W(Ki),
+            MatrixUtilities.ceilPrime(Kprime + SystematicIndices.S(Ki) + SystematicIndices.H(Ki) - SystematicIndices.W(Ki)),
+            X);
+    }
+
+    /*
+     * Requires precomputed parameters for the value of K' of this tuple (P1 is the smallest prime greater than or equal
+     * to P).
+     */
+    Tuple(int J, int W, long P1, long X) {
 
         long A = 53591 + J * 997;
         if (A % 2 == 0) A++;
@@ -18,6 +18,8 @@ package net.fec.openrq.decoder;
 
 
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 import net.fec.openrq.EncodingPacket;
 import net.fec.openrq.SBDInfo;
@@ -43,6 +45,9 @@ import net.fec.openrq.parameters.ParameterChecker;
  * the source block (see "symbol overhead" below), then a decoding operation takes place which either succeeds or not (a
  * decoding failure).
  * <p>
+ * Alternatively, the method {@link #putEncodingPacket(EncodingPacket, Executor)} only stores the encoding symbols, and
+ * runs the decoding operation asynchronously on a given executor, so that the calling thread never waits for it.
+ * <p>
  * Handling decoding failures is a task for the user. Typically, the user requests the sender for any missing source
  * symbols or simply waits for more encoding symbols (source or repair) to be available. The method
  * {@link #missingSourceSymbols()} returns a set with the identifiers of all missing source symbols, and the method
@@ -217,7 +222,10 @@ public interface SourceBlockDecoder {
 
     /**
      * Receives an encoded packet containing encoding symbols for the source block being decoded. If enough symbols
-     * (source and repair) are available, then a decoding operation takes place.
+     * (source and repair) are available, then a decoding operation takes place, unless another decoding operation is
+     * already in progress (in which case the latter takes the new symbols into account if it fails).
+     * <p>
+     * This method may be called concurrently by multiple threads.
      * <p>
      * The result of this method invocation is a {@link SourceBlockState} value:
      * <dl>
@@ -238,6 +246,38 @@ public interface SourceBlockDecoder {
      */
     public SourceBlockState putEncodingPacket(EncodingPacket packet);
 
+    /**
+     * Receives an encoded packet containing encoding symbols for the source block being decoded. If enough symbols
+     * (source and repair) are available, then a decoding operation is submitted to the provided executor, instead of
+     * taking place in the calling thread.
+     * <p>
+     * The decoding operation uses the symbols available at the time it is submitted. While it runs, this method only
+     * stores new symbols and returns the future of the pending decoding operation; if that operation fails, it is
+     * retried with any symbols that were received in the meantime (only when enough symbols are available).
+     * <p>
+     * The result of this method invocation is a future {@link SourceBlockState} value:
+     * <ul>
+     * <li>if a decoding operation was submitted or is pending, the future completes with the state of this decoder when
+     * that operation finishes (either {@link SourceBlockState#DECODED DECODED} or
+     * {@link SourceBlockState#DECODING_FAILURE DECODING_FAILURE});
+     * <li>otherwise, the future is already completed with the {@linkplain #latestState() latest state} of this decoder.
+     * </ul>
+     * 
+     * @param packet
+     *            An encoding packet containing encoding symbols associated to the source block being decoded
+     * @param executor
+     *            An executor that runs decoding operations
+     * @return a future {@code SourceBlockState} value indicating the result of the method invocation (see method
+     *         description)
+     * @exception IllegalArgumentException
+     *                If {@code packet.sourceBlockNumber() != this.sourceBlockNumber()}
+     * @exception NullPointerException
+     *                If {@code executor} is {@code null}
+     * @exception java.util.concurrent.RejectedExecutionException
+     *                If a decoding operation could not be submitted to the executor
+     */
+    public Future<SourceBlockState> putEncodingPacket(EncodingPacket packet, Executor executor);
+
     /**
      * Returns the current repair symbol overhead. For information on this value, refer to the section on
      * <a href="#symbol-overhead"><em>Symbol overhead</em></a> in the class header.
@@ -479,6 +479,14 @@ public class CRSByteMatrix extends AbstractCompressedByteMatrix implements Spars
         return new CRSByteMatrix(rows(), columns(), sparseRows.copy());
     }
 
+    @Override
+    public ByteMatrix resizeRows(int rows) {
+
+        ensureDimensionsAreCorrect(rows, columns());
+
+        return new CRSByteMatrix(rows, columns(), sparseRows.copy(rows));
+    }
+
     @Override
     public boolean nonZeroAt(int i, int j) {
 
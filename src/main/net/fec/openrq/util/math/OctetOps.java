@@ -18,12 +18,10 @@ package net.fec.openrq.util.math;
 
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.Arrays;
 
 import net.fec.openrq.util.datatype.SizeOf;
 import net.fec.openrq.util.datatype.UnsignedTypes;
-import net.fec.openrq.util.io.BufferOperation;
 import net.fec.openrq.util.io.ByteBuffers;
 
 
@@ -31,6 +29,10 @@ import net.fec.openrq.util.io.ByteBuffers;
  */
 public final class OctetOps {
 
+    // number of octets of the result vector that are updated at a time by the multi-vector additions
+    // (small enough so that a block of the result and a block of each added vector fit in the L1 cache)
+    private static final int ACCUMULATION_BLOCK_SIZE = 4 * 1024;
+
     public static int UNSIGN(int b) {
 
         return UnsignedTypes.getUnsignedByte(b);
@@ -134,9 +136,14 @@ public final class OctetOps {
             if (value == 0) { // if multiplied by zero, simply fill the result with zeros and return
                 Arrays.fill(result, resPos, resEnd, (byte)0); // uses from and to indexes
             }
+            else if (SIMD != null && length >= SIMD_MIN_LENGTH) {
+                SIMD.multiply(value, vector, vecPos, result, resPos, length);
+            }
             else {
-                for (int rr = resPos, vv = vecPos; rr < resEnd; rr++, vv++) {
-                    result[rr] = aTimesB(value, vector[vv]);
+                final byte[] multRow = multiplicationRow(value);
+                final int vecOff = vecPos - resPos;
+                for (int rr = resPos; rr < resEnd; rr++) {
+                    result[rr] = multRow[vector[rr + vecOff] & 0xFF];
                 }
             }
         }
@@ -149,21 +156,59 @@ public final class OctetOps {
 
     public static void valueVectorProduct(byte value, ByteBuffer vector, ByteBuffer result, int length) {
 
-        if (value == 1) { // if multiplied by one, simply copy the source vector data and return
-            if (vector != result) { // avoid unnecessary copy if in-place product
-                BufferOperation op = BufferOperation.RESTORE_POSITION;
-                ByteBuffers.copy(vector, op, result, op, length);
+        valueVectorProduct(value, vector, vector.position(), result, result.position(), length);
+    }
+
+    /**
+     * Multiplies a range of a vector by a value: {@code result[resPos..resPos+length] = value *
+     * vector[vecPos..vecPos+length]}. The positions are absolute, and the positions and limits of the buffers are not
+     * modified.
+     * 
+     * @param value
+     * @param vector
+     * @param vecPos
+     * @param result
+     * @param resPos
+     * @param length
+     */
+    public static void valueVectorProduct(
+        byte value,
+        ByteBuffer vector,
+        int vecPos,
+        ByteBuffer result,
+        int resPos,
+        int length)
+    {
+
+        if (vector.hasArray() && result.hasArray()) {
+            valueVectorProduct(value,
+                vector.array(), vector.arrayOffset() + vecPos,
+                result.array(), result.arrayOffset() + resPos,
+                length);
+        }
+        else if (value == 1) { // if multiplied by one, simply copy the source vector data and return
+            if (vector != result || vecPos != resPos) { // avoid unnecessary copy if in-place product
+                copy(vector, vecPos, result, resPos, length);
             }
         }
         else if (value == 0) { // if multiplied by zero, simply fill the result with zeros and return
-            ByteBuffers.putZeros(result, length, BufferOperation.RESTORE_POSITION);
+            final ByteBuffer dst = result.duplicate();
+            dst.position(resPos);
+            ByteBuffers.putZeros(dst, length);
+        }
+        else if (SIMD != null && length >= SIMD_MIN_LENGTH) {
+            SIMD.multiply(value, vector, vecPos, result, resPos, length);
         }
         else {
-            final int vPos = vector.position();
-            final int rPos = result.position();
-            final int rEnd = rPos + length;
-            for (int vv = vPos, rr = rPos; rr < rEnd; vv++, rr++) {
-                result.put(rr, aTimesB(value, vector.get(vv))); // absolute access to buffer
+            final byte[] multRow = multiplicationRow(value);
+            int n = 0;
+            if (vector.order() == result.order()) {
+                for (; n + SizeOf.LONG <= length; n += SizeOf.LONG) {
+                    result.putLong(resPos + n, valueLongProduct(multRow, vector.getLong(vecPos + n)));
+                }
+            }
+            for (; n < length; n++) {
+                result.put(resPos + n, multRow[vector.get(vecPos + n) & 0xFF]);
             }
         }
     }
@@ -190,10 +235,17 @@ public final class OctetOps {
                 System.arraycopy(vector, vecPos, result, resPos, length); // uses offset and length
             }
         }
+        else if (SIMD != null && length >= SIMD_MIN_LENGTH) {
+            // dividing by a value is the same as multiplying by its inverse
+            SIMD.multiply(inverse(value), vector, vecPos, result, resPos, length);
+        }
         else {
+            // dividing by a value is the same as multiplying by its inverse
+            final byte[] multRow = multiplicationRow(inverse(value));
             final int resEnd = resPos + length;
-            for (int rr = resPos, vv = vecPos; rr < resEnd; rr++, vv++) {
-                result[rr] = aDividedByB(vector[vv], value);
+            final int vecOff = vecPos - resPos;
+            for (int rr = resPos; rr < resEnd; rr++) {
+                result[rr] = multRow[vector[rr + vecOff] & 0xFF];
             }
         }
     }
@@ -205,32 +257,31 @@ public final class OctetOps {
 
     public static void valueVectorDivision(byte value, ByteBuffer vector, ByteBuffer result, int length) {
 
-        if (value == 1) { // if divided by one, simply copy the source vector data and return
-            if (vector != result) { // avoid unnecessary copy if in-place division
-                BufferOperation op = BufferOperation.RESTORE_POSITION;
-                ByteBuffers.copy(vector, op, result, op, length);
-            }
-        }
-        else {
-            final int sol = SizeOf.LONG;
-            final int vPos = vector.position();
-            final int rPos = result.position();
-
-            final int rEnd = rPos + length;
-            final int rLongEnd = rPos + ((length / sol) * sol);
-
-            int vv = vPos;
-            int rr = rPos;
-            for (; rr < rLongEnd; vv += sol, rr += sol) {
-                final long quot = divisionAsLong(value, vector, vv);
-                result.putLong(rr, quot);
-            }
+        valueVectorDivision(value, vector, vector.position(), result, result.position(), length);
+    }
 
-            for (; rr < rEnd; vv++, rr++) {
-                final byte quot = aDividedByB(vector.get(vv), value);
-                result.put(rr, quot);
-            }
-        }
+    /**
+     * Divides a range of a vector by a value: {@code result[resPos..resPos+length] = vector[vecPos..vecPos+length] /
+     * value}. The positions are absolute, and the positions and limits of the buffers are not modified.
+     * 
+     * @param value
+     * @param vector
+     * @param vecPos
+     * @param result
+     * @param resPos
+     * @param length
+     */
+    public static void valueVectorDivision(
+        byte value,
+        ByteBuffer vector,
+        int vecPos,
+        ByteBuffer result,
+        int resPos,
+        int length)
+    {
+
+        // dividing by a value is the same as multiplying by its inverse
+        valueVectorProduct(inverse(value), vector, vecPos, result, resPos, length);
     }
 
     public static void vectorVectorAddition(byte[] vector1, byte[] vector2, byte[] result) {
@@ -248,9 +299,9 @@ public final class OctetOps {
         int length)
     {
 
-        final int resEnd = resPos + length;
-        for (int v1 = vecPos1, v2 = vecPos2, r = resPos; r < resEnd; v1++, v2++, r++) {
-            result[r] = aPlusB(vector1[v1], vector2[v2]);
+        // a single induction variable allows the JIT compiler to vectorize this loop
+        for (int n = 0; n < length; n++) {
+            result[resPos + n] = (byte)(vector1[vecPos1 + n] ^ vector2[vecPos2 + n]);
         }
     }
 
@@ -261,25 +312,57 @@ public final class OctetOps {
 
     public static void vectorVectorAddition(ByteBuffer vector1, ByteBuffer vector2, ByteBuffer result, int length) {
 
-        final int sol = SizeOf.LONG;
-        final int v1Pos = vector1.position();
-        final int v2Pos = vector2.position();
-        final int rPos = result.position();
-
-        final int rEnd = rPos + length;
-        final int rLongEnd = rPos + ((length / sol) * sol);
+        vectorVectorAddition(
+            vector1, vector1.position(),
+            vector2, vector2.position(),
+            result, result.position(),
+            length);
+    }
+
+    /**
+     * Adds a range of two vectors: {@code result[resPos..resPos+length] = vector1[vecPos1..vecPos1+length] +
+     * vector2[vecPos2..vecPos2+length]}. The positions are absolute, and the positions and limits of the buffers are
+     * not modified.
+     * 
+     * @param vector1
+     * @param vecPos1
+     * @param vector2
+     * @param vecPos2
+     * @param result
+     * @param resPos
+     * @param length
+     */
+    public static void vectorVectorAddition(
+        ByteBuffer vector1,
+        int vecPos1,
+        ByteBuffer vector2,
+        int vecPos2,
+        ByteBuffer result,
+        int resPos,
+        int length)
+    {
 
-        int v1 = v1Pos;
-        int v2 = v2Pos;
-        int rr = rPos;
-        for (; rr < rLongEnd; v1 += sol, v2 += sol, rr += sol) {
-            final long sum = aLongPlusBLong(vector1.getLong(v1), vector2.getLong(v2));
-            result.putLong(rr, sum);
+        if (vector1.hasArray() && vector2.hasArray() && result.hasArray()) {
+            vectorVectorAddition(
+                vector1.array(), vector1.arrayOffset() + vecPos1,
+                vector2.array(), vector2.arrayOffset() + vecPos2,
+                result.array(), result.arrayOffset() + resPos,
+                length);
         }
-
-        for (; rr < rEnd; v1++, v2++, rr++) {
-            final byte sum = aPlusB(vector1.get(v1), vector2.get(v2));
-            result.put(rr, sum);
+        else if (SIMD != null && length >= SIMD_MIN_LENGTH) {
+            SIMD.add(vector1, vecPos1, vector2, vecPos2, result, resPos, length);
+        }
+        else {
+            int n = 0;
+            if (vector1.order() == result.order() && vector2.order() == result.order()) {
+                for (; n + SizeOf.LONG <= length; n += SizeOf.LONG) {
+                    final long sum = aLongPlusBLong(vector1.getLong(vecPos1 + n), vector2.getLong(vecPos2 + n));
+                    result.putLong(resPos + n, sum);
+                }
+            }
+            for (; n < length; n++) {
+                result.put(resPos + n, aPlusB(vector1.get(vecPos1 + n), vector2.get(vecPos2 + n)));
+            }
         }
     }
 
@@ -302,10 +385,111 @@ public final class OctetOps {
         if (vec1Multiplier == 1) {
             vectorVectorAddition(vector1, vecPos1, vector2, vecPos2, result, resPos, length);
         }
+        else if (vec1Multiplier == 0) { // nothing to add
+            if (vector2 != result || vecPos2 != resPos) {
+                System.arraycopy(vector2, vecPos2, result, resPos, length);
+            }
+        }
+        else if (SIMD != null && length >= SIMD_MIN_LENGTH) {
+            SIMD.multiplyAdd(vec1Multiplier, vector1, vecPos1, vector2, vecPos2, result, resPos, length);
+        }
         else {
+            final byte[] multRow = multiplicationRow(vec1Multiplier);
             final int resEnd = resPos + length;
             for (int v1 = vecPos1, v2 = vecPos2, r = resPos; r < resEnd; v1++, v2++, r++) {
-                result[r] = aPlusB(aTimesB(vec1Multiplier, vector1[v1]), vector2[v2]);
+                result[r] = (byte)(multRow[vector1[v1] & 0xFF] ^ vector2[v2]);
+            }
+        }
+    }
+
+    /**
+     * Adds a number of vectors to the result vector: {@code result += vectors[indexes[idxPos]] + ... +
+     * vectors[indexes[idxPos + count - 1]]}.
+     * <p>
+     * The result is updated in blocks that fit in the L1 cache, so it is only read and written once from memory,
+     * regardless of the number of added vectors. All vectors must have at least the length of the result.
+     * 
+     * @param vectors
+     * @param indexes
+     * @param idxPos
+     * @param count
+     * @param result
+     */
+    public static void vectorVectorAdditions(byte[][] vectors, int[] indexes, int idxPos, int count, byte[] result) {
+
+        final int length = result.length;
+        for (int from = 0; from < length; from += ACCUMULATION_BLOCK_SIZE) {
+            final int blockLen = Math.min(ACCUMULATION_BLOCK_SIZE, length - from);
+            for (int k = idxPos; k < idxPos + count; k++) {
+                vectorVectorAddition(vectors[indexes[k]], from, result, from, result, from, blockLen);
+            }
+        }
+    }
+
+    /**
+     * Adds a number of vectors, multiplied by their respective multipliers, to the result vector: {@code result +=
+     * multipliers[multPos] * vectors[indexes[idxPos]] + ... + multipliers[multPos + count - 1] *
+     * vectors[indexes[idxPos + count - 1]]}.
+     * <p>
+     * The result is updated in blocks that fit in the L1 cache, so it is only read and written once from memory,
+     * regardless of the number of added vectors. All vectors must have at least the length of the result.
+     * 
+     * @param multipliers
+     * @param multPos
+     * @param vectors
+     * @param indexes
+     * @param idxPos
+     * @param count
+     * @param result
+     */
+    public static void vectorVectorAdditions(
+        byte[] multipliers,
+        int multPos,
+        byte[][] vectors,
+        int[] indexes,
+        int idxPos,
+        int count,
+        byte[] result)
+    {
+
+        vectorVectorAdditions(multipliers, multPos, vectors, indexes, idxPos, count, result, 0, result.length);
+    }
+
+    /**
+     * Adds a number of vectors, multiplied by their respective multipliers, to a range of the result vector: {@code
+     * result[resPos..resPos+length] += multipliers[multPos] * vectors[indexes[idxPos]][resPos..resPos+length] + ...}.
+     * <p>
+     * The result is updated in blocks that fit in the L1 cache, so it is only read and written once from memory,
+     * regardless of the number of added vectors. The same range is read from all vectors.
+     * 
+     * @param multipliers
+     * @param multPos
+     * @param vectors
+     * @param indexes
+     * @param idxPos
+     * @param count
+     * @param result
+     * @param resPos
+     * @param length
+     */
+    public static void vectorVectorAdditions(
+        byte[] multipliers,
+        int multPos,
+        byte[][] vectors,
+        int[] indexes,
+        int idxPos,
+        int count,
+        byte[] result,
+        int resPos,
+        int length)
+    {
+
+        final int resEnd = resPos + length;
+        for (int from = resPos; from < resEnd; from += ACCUMULATION_BLOCK_SIZE) {
+            final int blockLen = Math.min(ACCUMULATION_BLOCK_SIZE, resEnd - from);
+            for (int k = 0; k < count; k++) {
+                final byte[] vector = vectors[indexes[idxPos + k]];
+                vectorVectorAddition(multipliers[multPos + k], vector, from, result, from, result, from, blockLen);
             }
         }
     }
@@ -328,75 +512,109 @@ public final class OctetOps {
         int length)
     {
 
-        if (vec1Multiplier == 1) { // no need to multiply, just add
-            vectorVectorAddition(vector1, vector2, result, length);
+        vectorVectorAddition(vec1Multiplier,
+            vector1, vector1.position(),
+            vector2, vector2.position(),
+            result, result.position(),
+            length);
+    }
+
+    /**
+     * Adds a range of a vector, multiplied by a value, to a range of another vector: {@code
+     * result[resPos..resPos+length] = vec1Multiplier * vector1[vecPos1..vecPos1+length] +
+     * vector2[vecPos2..vecPos2+length]}. The positions are absolute, and the positions and limits of the buffers are
+     * not modified.
+     * 
+     * @param vec1Multiplier
+     * @param vector1
+     * @param vecPos1
+     * @param vector2
+     * @param vecPos2
+     * @param result
+     * @param resPos
+     * @param length
+     */
+    public static void vectorVectorAddition(
+        byte vec1Multiplier,
+        ByteBuffer vector1,
+        int vecPos1,
+        ByteBuffer vector2,
+        int vecPos2,
+        ByteBuffer result,
+        int resPos,
+        int length)
+    {
+
+        if (vector1.hasArray() && vector2.hasArray() && result.hasArray()) {
+            vectorVectorAddition(vec1Multiplier,
+                vector1.array(), vector1.arrayOffset() + vecPos1,
+                vector2.array(), vector2.arrayOffset() + vecPos2,
+                result.array(), result.arrayOffset() + resPos,
+                length);
+        }
+        else if (vec1Multiplier == 1) { // no need to multiply, just add
+            vectorVectorAddition(vector1, vecPos1, vector2, vecPos2, result, resPos, length);
+        }
+        else if (vec1Multiplier == 0) { // nothing to add
+            if (vector2 != result || vecPos2 != resPos) {
+                copy(vector2, vecPos2, result, resPos, length);
+            }
+        }
+        else if (SIMD != null && length >= SIMD_MIN_LENGTH) {
+            SIMD.multiplyAdd(vec1Multiplier, vector1, vecPos1, vector2, vecPos2, result, resPos, length);
         }
         else {
-            final int sol = SizeOf.LONG;
-            final int v1Pos = vector1.position();
-            final int v2Pos = vector2.position();
-            final int rPos = result.position();
-
-            final int rEnd = rPos + length;
-            final int rLongEnd = rPos + ((length / sol) * sol);
-
-            int v1 = v1Pos;
-            int v2 = v2Pos;
-            int rr = rPos;
-            for (; rr < rLongEnd; v1 += sol, v2 += sol, rr += sol) {
-                final long prod = productAsLong(vec1Multiplier, vector1, v1);
-                final long sum = aLongPlusBLong(prod, vector2.getLong(v2));
-                result.putLong(rr, sum);
+            final byte[] multRow = multiplicationRow(vec1Multiplier);
+            int n = 0;
+            if (vector1.order() == result.order() && vector2.order() == result.order()) {
+                for (; n + SizeOf.LONG <= length; n += SizeOf.LONG) {
+                    final long product = valueLongProduct(multRow, vector1.getLong(vecPos1 + n));
+                    result.putLong(resPos + n, aLongPlusBLong(product, vector2.getLong(vecPos2 + n)));
+                }
             }
-
-            for (; rr < rEnd; v1++, v2++, rr++) {
-                final byte prod = aTimesB(vec1Multiplier, vector1.get(v1));
-                final byte sum = aPlusB(prod, vector2.get(v2));
-                result.put(rr, sum);
+            for (; n < length; n++) {
+                result.put(resPos + n, (byte)(multRow[vector1.get(vecPos1 + n) & 0xFF] ^ vector2.get(vecPos2 + n)));
             }
         }
     }
 
+    // dst[dstPos..dstPos+length] = src[srcPos..srcPos+length], with absolute positions
+    private static void copy(ByteBuffer src, int srcPos, ByteBuffer dst, int dstPos, int length) {
+
+        final ByteBuffer from = src.duplicate();
+        from.limit(srcPos + length).position(srcPos);
+        final ByteBuffer to = dst.duplicate();
+        to.position(dstPos);
+        to.put(from);
+    }
+
     /*
-     * Reads 8 bytes, multiplying each one by the multiplier,
-     * and stores the products inside one long value.
+     * Multiplies each of the 8 octets packed in a long by the value of the given multiplication row. The octets are
+     * multiplied independently, so the byte order of the long does not matter, as long as it is stored back in the
+     * same order it was loaded.
      */
-    private static long productAsLong(byte multiplier, ByteBuffer vector, int vecPos) {
+    private static long valueLongProduct(byte[] multRow, long octets) {
 
-        long ret = 0L;
-        if (vector.order() == ByteOrder.BIG_ENDIAN) {
-            for (int n = SizeOf.LONG - 1, vv = vecPos; n >= 0; n--, vv++) {
-                ret |= (aTimesB(multiplier, vector.get(vv)) & 0xFFL) << (n * Byte.SIZE);
-            }
-        }
-        else {
-            for (int n = 0, vv = vecPos; n < SizeOf.LONG; n++, vv++) {
-                ret |= (aTimesB(multiplier, vector.get(vv)) & 0xFFL) << (n * Byte.SIZE);
-            }
+        long product = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += Byte.SIZE) {
+            product |= (multRow[(int)(octets >>> shift) & 0xFF] & 0xFFL) << shift;
         }
-
-        return ret;
+        return product;
     }
 
     /*
-     * Reads 8 bytes, dividing each one by the divisor,
-     * and stores the quotients inside one long value.
+     * Returns the products of every octet by the given value (indexed by the unsigned octet).
+     * The returned array must not be modified.
      */
-    private static long divisionAsLong(byte divisor, ByteBuffer vector, int vecPos) {
+    static byte[] multiplicationRow(byte value) {
 
-        long ret = 0L;
-        if (vector.order() == ByteOrder.BIG_ENDIAN) {
-            for (int n = SizeOf.LONG - 1, vv = vecPos; n >= 0; n--, vv++) {
-                ret |= (aDividedByB(vector.get(vv), divisor) & 0xFFL) << (n * Byte.SIZE);
-            }
-        }
-        else {
-            for (int n = 0, vv = vecPos; n < SizeOf.LONG; n++, vv++) {
-                ret |= (aDividedByB(vector.get(vv), divisor) & 0xFFL) << (n * Byte.SIZE);
-            }
-        }
+        return MULT_TABLE[UNSIGN(value)];
+    }
+
+    private static byte inverse(byte value) {
 
-        return ret;
+        if (value == 0) throw new ArithmeticException("cannot divide by zero");
+        return DIV_TABLE[1][UNSIGN(value)];
     }
 
     private static int getExp(int i) {
@@ -491,6 +709,105 @@ public final class OctetOps {
     }
 
 
+    /*
+     * Optional implementation of the vector products over byte arrays, which is used if it is found in the classpath
+     * and is supported by the JVM (for example, an implementation based on the incubating Vector API requires the
+     * option "--add-modules jdk.incubator.vector"). It can be disabled with the system property
+     * "openrq.disableVectorKernels".
+     * 
+     * NOTE: this must be initialized after the tables above
+     */
+    private static final String SIMD_CLASS_NAME = "net.fec.openrq.util.math.SIMDVectorKernels";
+    private static final int SIMD_MIN_LENGTH = 64;
+    private static final VectorKernels SIMD = loadVectorKernels();
+
+
+    private static VectorKernels loadVectorKernels() {
+
+        if (Boolean.getBoolean("openrq.disableVectorKernels")) {
+            return null;
+        }
+
+        try {
+            final VectorKernels kernels = (VectorKernels)Class.forName(SIMD_CLASS_NAME).getConstructor().newInstance();
+            return producesSameResults(kernels) ? kernels : null;
+        }
+        catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            // the implementation is not available, or is not supported by this JVM
+            return null;
+        }
+    }
+
+    /*
+     * Compares the given kernels against the scalar code (SIMD is still null when this method is called),
+     * for every multiplier, every octet value and a few unaligned positions and lengths.
+     */
+    private static boolean producesSameResults(VectorKernels kernels) {
+
+        final int size = 1 << Byte.SIZE;
+        final int len = 3 * size + 7;
+
+        final byte[] vector1 = new byte[len];
+        final byte[] vector2 = new byte[len];
+        for (int n = 0; n < len; n++) {
+            vector1[n] = (byte)n;
+            vector2[n] = (byte)(n * 31 + 7);
+        }
+
+        // the buffer kernels are compared over direct buffers, since heap buffers use the array kernels
+        final ByteBuffer buffer1 = ByteBuffer.allocateDirect(len).put(vector1);
+        final ByteBuffer buffer2 = ByteBuffer.allocateDirect(len).put(vector2);
+        final ByteBuffer resultBuf = ByteBuffer.allocateDirect(len);
+
+        final byte[] expected = new byte[len];
+        final byte[] actual = new byte[len];
+        for (int m = 0; m < size; m++) {
+            final byte mult = (byte)m;
+            final int pos = m % 5;
+            final int length = len - 2 * pos;
+
+            Arrays.fill(expected, (byte)0);
+            Arrays.fill(actual, (byte)0);
+            vectorVectorAddition(mult, vector1, pos, vector2, pos + 1, expected, pos, length - 1);
+            kernels.multiplyAdd(mult, vector1, pos, vector2, pos + 1, actual, pos, length - 1);
+            if (!Arrays.equals(expected, actual)) return false;
+            kernels.multiplyAdd(mult, buffer1, pos, buffer2, pos + 1, zeroed(resultBuf), pos, length - 1);
+            if (!Arrays.equals(expected, contents(resultBuf))) return false;
+
+            Arrays.fill(expected, (byte)0);
+            Arrays.fill(actual, (byte)0);
+            valueVectorProduct(mult, vector1, pos + 1, expected, pos, length - 1);
+            kernels.multiply(mult, vector1, pos + 1, actual, pos, length - 1);
+            if (!Arrays.equals(expected, actual)) return false;
+            kernels.multiply(mult, buffer1, pos + 1, zeroed(resultBuf), pos, length - 1);
+            if (!Arrays.equals(expected, contents(resultBuf))) return false;
+
+            Arrays.fill(expected, (byte)0);
+            vectorVectorAddition(vector1, pos, vector2, pos + 1, expected, pos, length - 1);
+            kernels.add(buffer1, pos, buffer2, pos + 1, zeroed(resultBuf), pos, length - 1);
+            if (!Arrays.equals(expected, contents(resultBuf))) return false;
+        }
+
+        return true;
+    }
+
+    private static ByteBuffer zeroed(ByteBuffer buf) {
+
+        buf.clear();
+        ByteBuffers.putZeros(buf);
+        buf.clear();
+        return buf;
+    }
+
+    private static byte[] contents(ByteBuffer buf) {
+
+        final byte[] array = new byte[buf.capacity()];
+        buf.clear();
+        buf.get(array);
+        buf.clear();
+        return array;
+    }
+
     private static byte expLogATimesB(byte u, byte v) {
 
         if (u == 0 || v == 0) return 0;
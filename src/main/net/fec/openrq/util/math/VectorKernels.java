@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq.util.math;
+
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * An alternative implementation of the vector products in {@link OctetOps}, which must produce the exact same results.
+ * Implementations are loaded at run time, if available (see {@link OctetOps}).
+ * <p>
+ * Plain vector additions over arrays are not included, since the JIT compiler already vectorizes them (but not over
+ * buffers). Buffer positions are absolute, and the positions and limits of the buffers are not modified.
+ */
+interface VectorKernels {
+
+    /*
+     * result[resPos + n] = multiplier * vector1[vecPos1 + n] + vector2[vecPos2 + n], for 0 <= n < length
+     */
+    void multiplyAdd(
+        byte multiplier,
+        byte[] vector1,
+        int vecPos1,
+        byte[] vector2,
+        int vecPos2,
+        byte[] result,
+        int resPos,
+        int length);
+
+    /*
+     * result[resPos + n] = multiplier * vector[vecPos + n], for 0 <= n < length
+     */
+    void multiply(byte multiplier, byte[] vector, int vecPos, byte[] result, int resPos, int length);
+
+    /*
+     * result[resPos + n] = vector1[vecPos1 + n] + vector2[vecPos2 + n], for 0 <= n < length
+     */
+    void add(
+        ByteBuffer vector1,
+        int vecPos1,
+        ByteBuffer vector2,
+        int vecPos2,
+        ByteBuffer result,
+        int resPos,
+        int length);
+
+    /*
+     * result[resPos + n] = multiplier * vector1[vecPos1 + n] + vector2[vecPos2 + n], for 0 <= n < length
+     */
+    void multiplyAdd(
+        byte multiplier,
+        ByteBuffer vector1,
+        int vecPos1,
+        ByteBuffer vector2,
+        int vecPos2,
+        ByteBuffer result,
+        int resPos,
+        int length);
+
+    /*
+     * result[resPos + n] = multiplier * vector[vecPos + n], for 0 <= n < length
+     */
+    void multiply(byte multiplier, ByteBuffer vector, int vecPos, ByteBuffer result, int resPos, int length);
+}
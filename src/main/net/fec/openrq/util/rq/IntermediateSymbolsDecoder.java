@@ -33,5 +33,5 @@ public interface IntermediateSymbolsDecoder {
      * @param D
      * @return the intermediate symbols
      */
-    public byte[][] decode(byte[][] D);
+    public SymbolMatrix decode(SymbolMatrix D);
 }
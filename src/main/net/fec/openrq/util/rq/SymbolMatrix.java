@@ -0,0 +1,510 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fec.openrq.util.rq;
+
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.fec.openrq.util.checking.Indexables;
+import net.fec.openrq.util.io.ByteBuffers;
+import net.fec.openrq.util.io.ByteBuffers.BufferType;
+import net.fec.openrq.util.math.OctetOps;
+
+
+/**
+ * A vector of symbols of equal size, stored in a contiguous buffer (heap or direct).
+ * <p>
+ * The rows of the matrix are indirected, so rows are swapped or reordered without moving any symbol data. Very large
+ * matrices are split into a few buffers of at most 1 GiB, with each symbol in a single buffer.
+ */
+public final class SymbolMatrix {
+
+    // maximum number of bytes in a single buffer
+    private static final int MAX_CHUNK_SIZE = 1 << 30;
+
+    // number of octets of a symbol that are updated at a time by the multi-symbol additions
+    // (small enough so that a block of the updated symbol and a block of each added symbol fit in the L1 cache)
+    private static final int ACCUMULATION_BLOCK_SIZE = 4 * 1024;
+
+
+    /**
+     * Returns a new matrix of zeroed symbols stored in the heap.
+     *
+     * @param rows
+     *            The number of symbols
+     * @param T
+     *            The size of each symbol
+     * @return a new matrix of zeroed symbols
+     */
+    public static SymbolMatrix allocate(int rows, int T) {
+
+        return allocate(rows, T, BufferType.ARRAY_BACKED);
+    }
+
+    /**
+     * Returns a new matrix of zeroed symbols stored in buffers of the given type.
+     *
+     * @param rows
+     *            The number of symbols
+     * @param T
+     *            The size of each symbol
+     * @param type
+     *            The type of buffers that store the symbols
+     * @return a new matrix of zeroed symbols
+     */
+    public static SymbolMatrix allocate(int rows, int T, BufferType type) {
+
+        if (rows < 0) throw new IllegalArgumentException("negative number of rows");
+        if (T < 0) throw new IllegalArgumentException("negative symbol size");
+
+        final int rowsPerChunk = (T == 0) ? Math.max(1, rows) : Math.max(1, MAX_CHUNK_SIZE / T);
+        final int numChunks = (rows + rowsPerChunk - 1) / rowsPerChunk;
+
+        final ByteBuffer[] chunks = new ByteBuffer[numChunks];
+        for (int ch = 0; ch < numChunks; ch++) {
+            final int chunkRows = Math.min(rowsPerChunk, rows - ch * rowsPerChunk);
+            chunks[ch] = ByteBuffers.allocate(chunkRows * T, type);
+        }
+
+        final int[] rowChunk = new int[rows];
+        final int[] rowOffset = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            rowChunk[i] = i / rowsPerChunk;
+            rowOffset[i] = (i % rowsPerChunk) * T;
+        }
+
+        return new SymbolMatrix(T, chunks, rowChunk, rowOffset);
+    }
+
+
+    private final int T;
+
+    // shared by all views of the same symbols
+    private final ByteBuffer[] chunks;
+    private final byte[][] arrays; // backing arrays of the chunks, or null if these are direct buffers
+
+    // location of each row
+    private final int[] rowChunk;
+    private final int[] rowOffset;
+
+
+    private SymbolMatrix(int T, ByteBuffer[] chunks, int[] rowChunk, int[] rowOffset) {
+
+        this.T = T;
+        this.chunks = chunks;
+        this.arrays = backingArrays(chunks);
+        this.rowChunk = rowChunk;
+        this.rowOffset = rowOffset;
+    }
+
+    private static byte[][] backingArrays(ByteBuffer[] chunks) {
+
+        final byte[][] arrays = new byte[chunks.length][];
+        for (int ch = 0; ch < chunks.length; ch++) {
+            if (!chunks[ch].hasArray() || chunks[ch].arrayOffset() != 0) {
+                return null;
+            }
+            arrays[ch] = chunks[ch].array();
+        }
+
+        return arrays;
+    }
+
+    /**
+     * Returns the number of symbols (rows) in this matrix.
+     *
+     * @return the number of symbols in this matrix
+     */
+    public int rows() {
+
+        return rowChunk.length;
+    }
+
+    /**
+     * Returns the size of each symbol (the number of columns of this matrix).
+     *
+     * @return the size of each symbol
+     */
+    public int symbolSize() {
+
+        return T;
+    }
+
+    /**
+     * Returns {@code true} if the symbols are stored in direct buffers.
+     *
+     * @return {@code true} if the symbols are stored in direct buffers
+     */
+    public boolean isDirect() {
+
+        return arrays == null;
+    }
+
+    /**
+     * Returns a new buffer over the data of a symbol (no data copies are performed). The returned buffer has a position
+     * of zero and a limit equal to the symbol size.
+     *
+     * @param row
+     *            The index of the symbol
+     * @return a new buffer over the data of a symbol
+     */
+    public ByteBuffer row(int row) {
+
+        final ByteBuffer buf = chunks[rowChunk[row]].duplicate();
+        buf.limit(rowOffset[row] + T).position(rowOffset[row]);
+        return buf.slice();
+    }
+
+    /**
+     * Swaps two symbols (no data copies are performed).
+     *
+     * @param i
+     *            The index of a symbol
+     * @param j
+     *            The index of another symbol
+     */
+    public void swapRows(int i, int j) {
+
+        final int ch = rowChunk[i];
+        rowChunk[i] = rowChunk[j];
+        rowChunk[j] = ch;
+
+        final int off = rowOffset[i];
+        rowOffset[i] = rowOffset[j];
+        rowOffset[j] = off;
+    }
+
+    /**
+     * Returns a view of some symbols of this matrix, in a given order (no data copies are performed). Row {@code k} of
+     * the returned matrix is the symbol {@code rows[k]} of this matrix.
+     *
+     * @param rows
+     *            The indexes of the symbols in the view
+     * @return a view of some symbols of this matrix
+     */
+    public SymbolMatrix rowView(int[] rows) {
+
+        final int[] viewChunk = new int[rows.length];
+        final int[] viewOffset = new int[rows.length];
+        for (int k = 0; k < rows.length; k++) {
+            viewChunk[k] = rowChunk[rows[k]];
+            viewOffset[k] = rowOffset[rows[k]];
+        }
+
+        return new SymbolMatrix(T, chunks, viewChunk, viewOffset);
+    }
+
+    /**
+     * Returns a view of a range of bytes of every symbol of this matrix (no data copies are performed). Row {@code k}
+     * of the returned matrix is the range {@code [from, from + length)} of the symbol {@code k} of this matrix.
+     *
+     * @param from
+     *            The index of the first byte of the range
+     * @param length
+     *            The number of bytes in the range, which is the symbol size of the view
+     * @return a view of a range of bytes of every symbol of this matrix
+     * @exception IndexOutOfBoundsException
+     *                If the range is not within the symbol size
+     */
+    public SymbolMatrix columnView(int from, int length) {
+
+        Indexables.checkOffsetLengthBounds(from, length, T);
+
+        final int[] viewOffset = new int[rowOffset.length];
+        for (int k = 0; k < rowOffset.length; k++) {
+            viewOffset[k] = rowOffset[k] + from;
+        }
+
+        return new SymbolMatrix(length, chunks, rowChunk.clone(), viewOffset);
+    }
+
+    /**
+     * Sets every byte of a symbol to zero.
+     *
+     * @param row
+     *            The index of the symbol
+     */
+    public void clearRow(int row) {
+
+        if (arrays != null) {
+            final int off = rowOffset[row];
+            Arrays.fill(arrays[rowChunk[row]], off, off + T, (byte)0);
+        }
+        else {
+            ByteBuffers.putZeros(row(row));
+        }
+    }
+
+    /**
+     * Copies a symbol from a matrix into a symbol of this matrix.
+     *
+     * @param src
+     *            The matrix with the copied symbol (may be this matrix)
+     * @param srcRow
+     *            The index of the copied symbol
+     * @param dstRow
+     *            The index of the overwritten symbol of this matrix
+     */
+    public void copyRow(SymbolMatrix src, int srcRow, int dstRow) {
+
+        if (src.arrays != null && arrays != null) {
+            System.arraycopy(
+                src.arrays[src.rowChunk[srcRow]], src.rowOffset[srcRow],
+                arrays[rowChunk[dstRow]], rowOffset[dstRow],
+                T);
+        }
+        else {
+            row(dstRow).put(src.row(srcRow));
+        }
+    }
+
+    /**
+     * Adds a symbol, multiplied by a value, to another symbol: {@code D[dstRow] += multiplier * D[srcRow]}.
+     *
+     * @param multiplier
+     *            The value that multiplies the added symbol
+     * @param srcRow
+     *            The index of the added symbol
+     * @param dstRow
+     *            The index of the updated symbol
+     */
+    public void addRow(byte multiplier, int srcRow, int dstRow) {
+
+        if (arrays != null) {
+            OctetOps.vectorVectorAddition(
+                multiplier,
+                arrays[rowChunk[srcRow]], rowOffset[srcRow],
+                arrays[rowChunk[dstRow]], rowOffset[dstRow],
+                arrays[rowChunk[dstRow]], rowOffset[dstRow],
+                T);
+        }
+        else {
+            addDirect(multiplier, chunks[rowChunk[srcRow]], rowOffset[srcRow],
+                chunks[rowChunk[dstRow]], rowOffset[dstRow], T);
+        }
+    }
+
+    /**
+     * Adds a number of symbols, multiplied by their respective multipliers, to another symbol: {@code D[dstRow] +=
+     * multipliers[multPos] * D[srcRows[idxPos]] + ... + multipliers[multPos + count - 1] * D[srcRows[idxPos + count -
+     * 1]]}.
+     *
+     * @param multipliers
+     * @param multPos
+     * @param srcRows
+     * @param idxPos
+     * @param count
+     * @param dstRow
+     */
+    public void addRows(byte[] multipliers, int multPos, int[] srcRows, int idxPos, int count, int dstRow) {
+
+        addRows(multipliers, multPos, this, srcRows, idxPos, count, dstRow, 0, T);
+    }
+
+    /**
+     * Adds a range of a number of symbols, multiplied by their respective multipliers, to the same range of another
+     * symbol.
+     *
+     * @param multipliers
+     * @param multPos
+     * @param srcRows
+     * @param idxPos
+     * @param count
+     * @param dstRow
+     * @param from
+     *            The first position of the range of the symbols
+     * @param length
+     *            The length of the range of the symbols
+     */
+    public void addRows(
+        byte[] multipliers,
+        int multPos,
+        int[] srcRows,
+        int idxPos,
+        int count,
+        int dstRow,
+        int from,
+        int length)
+    {
+
+        addRows(multipliers, multPos, this, srcRows, idxPos, count, dstRow, from, length);
+    }
+
+    /**
+     * Adds a range of a number of symbols from a matrix, multiplied by their respective multipliers, to the same range
+     * of a symbol of this matrix.
+     * <p>
+     * The updated symbol is read and written in blocks that fit in the L1 cache, so it is only read and written once
+     * from memory, regardless of the number of added symbols.
+     *
+     * @param multipliers
+     * @param multPos
+     * @param src
+     *            The matrix with the added symbols (may be this matrix)
+     * @param srcRows
+     * @param idxPos
+     * @param count
+     * @param dstRow
+     * @param from
+     *            The first position of the range of the symbols
+     * @param length
+     *            The length of the range of the symbols
+     */
+    public void addRows(
+        byte[] multipliers,
+        int multPos,
+        SymbolMatrix src,
+        int[] srcRows,
+        int idxPos,
+        int count,
+        int dstRow,
+        int from,
+        int length)
+    {
+
+        final int end = from + length;
+        if (src.arrays != null && arrays != null) {
+            final byte[] dst = arrays[rowChunk[dstRow]];
+            final int dstOff = rowOffset[dstRow];
+            for (int pos = from; pos < end; pos += ACCUMULATION_BLOCK_SIZE) {
+                final int blockLen = Math.min(ACCUMULATION_BLOCK_SIZE, end - pos);
+                for (int k = 0; k < count; k++) {
+                    final int srcRow = srcRows[idxPos + k];
+                    OctetOps.vectorVectorAddition(
+                        multipliers[multPos + k],
+                        src.arrays[src.rowChunk[srcRow]], src.rowOffset[srcRow] + pos,
+                        dst, dstOff + pos,
+                        dst, dstOff + pos,
+                        blockLen);
+                }
+            }
+        }
+        else {
+            final ByteBuffer dst = chunks[rowChunk[dstRow]];
+            final int dstOff = rowOffset[dstRow];
+            for (int pos = from; pos < end; pos += ACCUMULATION_BLOCK_SIZE) {
+                final int blockLen = Math.min(ACCUMULATION_BLOCK_SIZE, end - pos);
+                for (int k = 0; k < count; k++) {
+                    final int srcRow = srcRows[idxPos + k];
+                    addDirect(multipliers[multPos + k],
+                        src.chunks[src.rowChunk[srcRow]], src.rowOffset[srcRow] + pos,
+                        dst, dstOff + pos,
+                        blockLen);
+                }
+            }
+        }
+    }
+
+    /**
+     * Divides a symbol by a value, in place: {@code D[row] /= value}.
+     *
+     * @param row
+     *            The index of the symbol
+     * @param value
+     *            A non-zero value
+     */
+    public void divideRow(int row, byte value) {
+
+        divideRow(row, value, 0, T);
+    }
+
+    /**
+     * Divides a range of a symbol by a value, in place.
+     *
+     * @param row
+     *            The index of the symbol
+     * @param value
+     *            A non-zero value
+     * @param from
+     *            The first position of the range of the symbol
+     * @param length
+     *            The length of the range of the symbol
+     */
+    public void divideRow(int row, byte value, int from, int length) {
+
+        final int off = rowOffset[row] + from;
+        if (arrays != null) {
+            final byte[] array = arrays[rowChunk[row]];
+            OctetOps.valueVectorDivision(value, array, off, array, off, length);
+        }
+        else {
+            final ByteBuffer buf = chunks[rowChunk[row]];
+            OctetOps.valueVectorDivision(value, buf, off, buf, off, length);
+        }
+    }
+
+    /**
+     * Stores the sum of a number of symbols in an array: {@code result = D[rows[0]] + ... + D[rows[rows.length - 1]]}.
+     *
+     * @param rows
+     *            The indexes of the added symbols (at least one)
+     * @param result
+     *            An array with the size of a symbol
+     */
+    public void sumOfRows(int[] rows, byte[] result) {
+
+        sumOfRows(rows, ByteBuffer.wrap(result));
+    }
+
+    /**
+     * Stores the sum of a number of symbols in a buffer: {@code result = D[rows[0]] + ... + D[rows[rows.length - 1]]}.
+     * The sum is stored at the position of the buffer, and the position and limit of the buffer are not modified.
+     *
+     * @param rows
+     *            The indexes of the added symbols (at least one)
+     * @param result
+     *            A buffer with at least the size of a symbol remaining
+     */
+    public void sumOfRows(int[] rows, ByteBuffer result) {
+
+        final int resPos = result.position();
+        final ByteBuffer dst = result.duplicate();
+        dst.put(row(rows[0]));
+
+        if (arrays != null && result.hasArray()) {
+            final byte[] resArray = result.array();
+            final int resOff = result.arrayOffset() + resPos;
+            for (int pos = 0; pos < T; pos += ACCUMULATION_BLOCK_SIZE) {
+                final int blockLen = Math.min(ACCUMULATION_BLOCK_SIZE, T - pos);
+                for (int k = 1; k < rows.length; k++) {
+                    OctetOps.vectorVectorAddition(
+                        arrays[rowChunk[rows[k]]], rowOffset[rows[k]] + pos,
+                        resArray, resOff + pos,
+                        resArray, resOff + pos,
+                        blockLen);
+                }
+            }
+        }
+        else {
+            for (int pos = 0; pos < T; pos += ACCUMULATION_BLOCK_SIZE) {
+                final int blockLen = Math.min(ACCUMULATION_BLOCK_SIZE, T - pos);
+                for (int k = 1; k < rows.length; k++) {
+                    addDirect((byte)1, chunks[rowChunk[rows[k]]], rowOffset[rows[k]] + pos,
+                        result, resPos + pos,
+                        blockLen);
+                }
+            }
+        }
+    }
+
+    // dst[dstPos..dstPos+length] += multiplier * src[srcPos..srcPos+length], with absolute positions in any buffers
+    private static void addDirect(byte multiplier, ByteBuffer src, int srcPos, ByteBuffer dst, int dstPos, int length) {
+
+        OctetOps.vectorVectorAddition(multiplier, src, srcPos, dst, dstPos, dst, dstPos, length);
+    }
+}
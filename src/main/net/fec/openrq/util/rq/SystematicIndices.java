@@ -66,6 +66,11 @@ public final class SystematicIndices {
         return table2[K_index][4];
     }
 
+    public static int numKIndexes() {
+
+        return table2.length;
+    }
+
     public static int ceil(int k) {
 
         /*
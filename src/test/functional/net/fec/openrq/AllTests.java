@@ -30,6 +30,16 @@ import org.junit.runners.Suite.SuiteClasses;
                LinearAlgebraSuite.class,
                ParametersBoundsSuite.class,
                OpenRQClassTest.class,
+               ConstraintMatrixTest.class,
+               HybridByteMatrixTest.class,
+               ISDProgramTest.class,
+               SourceBlockGroupingTest.class,
+               DecodingSchedulesTest.class,
+               DataCodingTest.class,
+               FileDataDecoderTest.class,
+               ChannelDataEncoderTest.class,
+               ChannelDataDecoderTest.class,
+               AsyncDecodingTest.class,
                DataIntegrityCheckTest.class,
                ReadWriteSuite.class
 })
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.fec.openrq.decoder.SourceBlockDecoder;
+import net.fec.openrq.decoder.SourceBlockState;
+import net.fec.openrq.encoder.SourceBlockEncoder;
+import net.fec.openrq.parameters.FECParameters;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the concurrent reception and the asynchronous decoding of source blocks.
+ */
+public final class AsyncDecodingTest {
+
+    private static final FECParameters FEC_PARAMS = FECParameters.newParameters(64 * 1024, 512, 2);
+
+    private ExecutorService executor;
+
+
+    @Before
+    public void createExecutor() {
+
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void shutdownExecutor() throws InterruptedException {
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void testDecodingWithRepairSymbols() throws Exception {
+
+        final Random rand = TestingCommon.newSeededRandom();
+        final byte[] data = TestingCommon.randomBytes(FEC_PARAMS.dataLengthAsInt(), rand);
+        final ArrayDataEncoder enc = OpenRQ.newEncoder(data, FEC_PARAMS);
+        final ArrayDataDecoder dec = OpenRQ.newDecoder(FEC_PARAMS, 2);
+
+        final List<Future<SourceBlockState>> results = new ArrayList<>();
+        for (SourceBlockEncoder sbEnc : enc.sourceBlockIterable()) {
+            final SourceBlockDecoder sbDec = dec.sourceBlock(sbEnc.sourceBlockNumber());
+            final int K = sbEnc.numberOfSourceSymbols();
+
+            // skip the first source symbols and replace them with repair symbols
+            Future<SourceBlockState> result = null;
+            for (int esi = K / 4; esi < K + K / 4 + sbDec.symbolOverhead(); esi++) {
+                result = sbDec.putEncodingPacket(sbEnc.encodingPacket(esi), executor);
+            }
+            results.add(result);
+        }
+
+        for (Future<SourceBlockState> result : results) {
+            assertEquals(SourceBlockState.DECODED, result.get(1, TimeUnit.MINUTES));
+        }
+        assertArrayEquals(data, dec.dataArray());
+    }
+
+    @Test
+    public void testConcurrentReception() throws Exception {
+
+        final Random rand = TestingCommon.newSeededRandom();
+        final byte[] data = TestingCommon.randomBytes(FEC_PARAMS.dataLengthAsInt(), rand);
+        final ArrayDataEncoder enc = OpenRQ.newEncoder(data, FEC_PARAMS);
+        final ArrayDataDecoder dec = OpenRQ.newDecoder(FEC_PARAMS, 1);
+
+        final SourceBlockEncoder sbEnc = enc.sourceBlock(0);
+        final SourceBlockDecoder sbDec = dec.sourceBlock(0);
+        final int K = sbEnc.numberOfSourceSymbols();
+
+        // every receiver gets the same packets (half of the source symbols plus repair symbols) in a different order
+        final int numReceivers = 4;
+        final ExecutorService receivers = Executors.newFixedThreadPool(numReceivers);
+        try {
+            final List<Future<List<Future<SourceBlockState>>>> received = new ArrayList<>();
+            for (int r = 0; r < numReceivers; r++) {
+                final List<EncodingPacket> packets = new ArrayList<>();
+                for (int esi = K / 2; esi < 2 * K; esi++) {
+                    packets.add(sbEnc.encodingPacket(esi));
+                }
+                Collections.shuffle(packets, new Random(rand.nextLong()));
+
+                received.add(receivers.submit(new Callable<List<Future<SourceBlockState>>>() {
+
+                    @Override
+                    public List<Future<SourceBlockState>> call() {
+
+                        final List<Future<SourceBlockState>> results = new ArrayList<>();
+                        for (EncodingPacket packet : packets) {
+                            results.add(sbDec.putEncodingPacket(packet, executor));
+                        }
+                        return results;
+                    }
+                }));
+            }
+
+            for (Future<List<Future<SourceBlockState>>> results : received) {
+                for (Future<SourceBlockState> result : results.get(1, TimeUnit.MINUTES)) {
+                    result.get(1, TimeUnit.MINUTES);
+                }
+            }
+        }
+        finally {
+            receivers.shutdown();
+        }
+
+        // only the first source block was decoded
+        final int blockLength = K * FEC_PARAMS.symbolSize();
+        assertEquals(SourceBlockState.DECODED, sbDec.latestState());
+        assertArrayEquals(Arrays.copyOf(data, blockLength), Arrays.copyOf(dec.dataArray(), blockLength));
+    }
+
+    @Test
+    public void testCompletedResultWithoutDecoding() throws Exception {
+
+        final byte[] data = TestingCommon.randomBytes(FEC_PARAMS.dataLengthAsInt(), TestingCommon.newSeededRandom());
+        final ArrayDataEncoder enc = OpenRQ.newEncoder(data, FEC_PARAMS);
+        final ArrayDataDecoder dec = OpenRQ.newDecoder(FEC_PARAMS, 0);
+
+        final SourceBlockEncoder sbEnc = enc.sourceBlock(0);
+        final SourceBlockDecoder sbDec = dec.sourceBlock(0);
+
+        // not enough symbols to decode
+        final Future<SourceBlockState> incomplete = sbDec.putEncodingPacket(sbEnc.encodingPacket(0), executor);
+        assertTrue(incomplete.isDone());
+        assertEquals(SourceBlockState.INCOMPLETE, incomplete.get());
+
+        // only source symbols, which decode the source block without a decoding operation
+        Future<SourceBlockState> decoded = null;
+        for (EncodingPacket packet : sbEnc.sourcePacketsIterable()) {
+            decoded = sbDec.putEncodingPacket(packet, executor);
+        }
+        assertTrue(decoded.isDone());
+        assertEquals(SourceBlockState.DECODED, decoded.get());
+    }
+
+    @Test
+    public void testRepairSymbolsReceivedWhileDecoded() throws Exception {
+
+        final byte[] data = TestingCommon.randomBytes(FEC_PARAMS.dataLengthAsInt(), TestingCommon.newSeededRandom());
+        final ArrayDataEncoder enc = OpenRQ.newEncoder(data, FEC_PARAMS);
+        final ArrayDataDecoder dec = OpenRQ.newDecoder(FEC_PARAMS, 0);
+
+        final SourceBlockEncoder sbEnc = enc.sourceBlock(0);
+        final ArraySourceBlockDecoder sbDec = (ArraySourceBlockDecoder)dec.sourceBlock(0);
+        final int K = sbEnc.numberOfSourceSymbols();
+
+        // some repair symbols are received before the source symbols
+        final int numEarlyRepairSymbols = 2;
+        for (int esi = K; esi < K + numEarlyRepairSymbols; esi++) {
+            sbDec.putEncodingPacket(sbEnc.encodingPacket(esi));
+        }
+
+        // other repair symbols are received while the source symbols decode the source block, and are discarded
+        final int numReceivers = 2;
+        final ExecutorService receivers = Executors.newFixedThreadPool(numReceivers);
+        try {
+            final List<Future<?>> received = new ArrayList<>();
+            for (int r = 0; r < numReceivers; r++) {
+                final int firstESI = K + numEarlyRepairSymbols + r;
+                received.add(receivers.submit(new Runnable() {
+
+                    @Override
+                    public void run() {
+
+                        for (int esi = firstESI; esi < 3 * K; esi += numReceivers) {
+                            sbDec.putEncodingPacket(sbEnc.encodingPacket(esi));
+                        }
+                    }
+                }));
+            }
+
+            for (EncodingPacket packet : sbEnc.sourcePacketsIterable()) {
+                sbDec.putEncodingPacket(packet);
+            }
+            for (Future<?> result : received) {
+                result.get(1, TimeUnit.MINUTES);
+            }
+        }
+        finally {
+            receivers.shutdown();
+        }
+
+        assertEquals(SourceBlockState.DECODED, sbDec.latestState());
+        assertEquals(0, sbDec.numRepairSymbols());
+        assertEquals(0, sbDec.availableRepairSymbols().size());
+    }
+}
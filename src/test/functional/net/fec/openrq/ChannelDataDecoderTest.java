@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CountDownLatch;
+
+import net.fec.openrq.decoder.SourceBlockDecoder;
+import net.fec.openrq.decoder.SourceBlockState;
+import net.fec.openrq.encoder.SourceBlockEncoder;
+import net.fec.openrq.parameters.FECParameters;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the decoding of source data that is written in order to a channel.
+ */
+public final class ChannelDataDecoderTest {
+
+    @Test
+    public void testInOrderWriting() {
+
+        final FECParameters fecParams = FECParameters.newParameters(54321, 100, 7);
+        final byte[] data = TestingCommon.randomBytes(fecParams.dataLengthAsInt(), TestingCommon.newSeededRandom());
+        final ArrayDataEncoder enc = OpenRQ.newEncoder(data, fecParams);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ChannelDataDecoder dec = OpenRQ.newStreamingDecoder(Channels.newChannel(out), fecParams, 1);
+
+        // source blocks are decoded in reverse order, so nothing is written until the first source block is decoded
+
+        SourceBlockDecoder firstDecoder = null;
+        for (int sbn = enc.numberOfSourceBlocks() - 1; sbn >= 0; sbn--) {
+            final SourceBlockEncoder sbEnc = enc.sourceBlock(sbn);
+            final SourceBlockDecoder sbDec = dec.sourceBlock(sbn);
+            if (sbn == 0) {
+                firstDecoder = sbDec;
+            }
+            for (EncodingPacket packet : sbEnc.sourcePacketsIterable()) {
+                sbDec.putEncodingPacket(packet);
+            }
+            assertEquals(SourceBlockState.DECODED, sbDec.latestState());
+
+            if (sbn > 0) {
+                assertEquals(0, out.size());
+                assertEquals(false, dec.isDataDecoded());
+            }
+        }
+        assertEquals(true, dec.isDataDecoded());
+        assertArrayEquals(data, out.toByteArray());
+
+        // the decoders of source blocks that were already written are released, and their packets are ignored
+        final SourceBlockEncoder sbEnc = enc.sourceBlock(0);
+        assertNotSame(firstDecoder, dec.sourceBlock(0));
+        assertEquals(true, dec.sourceBlock(0).isSourceBlockDecoded());
+        assertEquals(sbEnc.numberOfSourceSymbols(), dec.sourceBlock(0).numberOfSourceSymbols());
+        assertEquals(0, dec.sourceBlock(0).missingSourceSymbols().size());
+        assertEquals(SourceBlockState.DECODED, dec.sourceBlock(0).putEncodingPacket(sbEnc.encodingPacket(0)));
+        assertEquals(SourceBlockState.DECODED,
+            dec.sourceBlock(0).putEncodingPacket(sbEnc.encodingPacket(sbEnc.numberOfSourceSymbols())));
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test(timeout = 10000)
+    public void testPacketsAreReceivedWhileWriting() throws InterruptedException {
+
+        final FECParameters fecParams = FECParameters.newParameters(54321, 100, 7);
+        final byte[] data = TestingCommon.randomBytes(fecParams.dataLengthAsInt(), TestingCommon.newSeededRandom());
+        final ArrayDataEncoder enc = OpenRQ.newEncoder(data, fecParams);
+
+        // a channel that blocks until it is allowed to write
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch writable = new CountDownLatch(1);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final WritableByteChannel channel = new WritableByteChannel() {
+
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+
+                writing.countDown();
+                try {
+                    writable.await();
+                }
+                catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                final int written = src.remaining();
+                while (src.hasRemaining()) {
+                    out.write(src.get());
+                }
+                return written;
+            }
+
+            @Override
+            public boolean isOpen() {
+
+                return true;
+            }
+
+            @Override
+            public void close() {
+
+                // nothing to close
+            }
+        };
+        final ChannelDataDecoder dec = OpenRQ.newStreamingDecoder(channel, fecParams, 1);
+
+        // the first source block is decoded, and written, by another thread
+        final Thread writer = new Thread() {
+
+            @Override
+            public void run() {
+
+                for (EncodingPacket packet : enc.sourceBlock(0).sourcePacketsIterable()) {
+                    dec.sourceBlock(0).putEncodingPacket(packet);
+                }
+            }
+        };
+        writer.start();
+        writing.await();
+
+        // the other source blocks are decoded while the first one is being written
+        for (int sbn = 1; sbn < enc.numberOfSourceBlocks(); sbn++) {
+            final SourceBlockDecoder sbDec = dec.sourceBlock(sbn);
+            for (EncodingPacket packet : enc.sourceBlock(sbn).sourcePacketsIterable()) {
+                sbDec.putEncodingPacket(packet);
+            }
+            assertEquals(SourceBlockState.DECODED, sbDec.latestState());
+        }
+        assertEquals(false, dec.isDataDecoded());
+
+        writable.countDown();
+        writer.join();
+        assertEquals(true, dec.isDataDecoded());
+        assertArrayEquals(data, out.toByteArray());
+    }
+}
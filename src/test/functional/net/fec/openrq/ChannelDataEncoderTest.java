@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.fec.openrq.parameters.FECParameters;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the order in which the source blocks of source data read from a channel are encoded.
+ */
+public final class ChannelDataEncoderTest {
+
+    private static ExecutorService executor;
+
+
+    @BeforeClass
+    public static void startExecutor() {
+
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterClass
+    public static void stopExecutor() {
+
+        executor.shutdown();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testOutOfOrderSourceBlock() {
+
+        final FECParameters fecParams = FECParameters.newParameters(10000, 64, 3);
+        final byte[] data = TestingCommon.randomBytes(fecParams.dataLengthAsInt(), TestingCommon.newSeededRandom());
+        final ChannelDataEncoder enc = OpenRQ.newEncoder(newChannel(data), fecParams, executor);
+
+        assertSame(enc.sourceBlock(0), enc.sourceBlock(0)); // the latest source block is still accessible
+        enc.sourceBlock(2);
+    }
+
+    @Test(timeout = 10000)
+    public void testSourceBlockIsReturnedBeforeNextIsRead() {
+
+        final FECParameters fecParams = FECParameters.newParameters(10000, 64, 3);
+        final byte[] data = TestingCommon.randomBytes(fecParams.dataLengthAsInt(), TestingCommon.newSeededRandom());
+        final int firstBlockLen = DataUtils.getK(fecParams, 0) * fecParams.symbolSize();
+
+        // the second source block can only be read after the first one is returned
+        final CountDownLatch firstReturned = new CountDownLatch(1);
+        final ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(data) {
+
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+
+                if (pos >= firstBlockLen) {
+                    try {
+                        firstReturned.await();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt(); // the test timed out
+                    }
+                }
+                return super.read(b, off, len);
+            }
+        });
+        final ChannelDataEncoder enc = OpenRQ.newEncoder(channel, fecParams, executor);
+
+        enc.sourceBlock(0);
+        firstReturned.countDown();
+        enc.sourceBlock(1);
+        enc.sourceBlock(2);
+    }
+
+    private static ReadableByteChannel newChannel(byte[] data) {
+
+        return Channels.newChannel(new ByteArrayInputStream(data));
+    }
+}
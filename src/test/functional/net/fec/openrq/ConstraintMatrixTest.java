@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.fec.openrq.util.linearalgebra.matrix.ByteMatrix;
+import net.fec.openrq.util.math.OctetOps;
+import net.fec.openrq.util.rq.Rand;
+import net.fec.openrq.util.rq.SystematicIndices;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+
+/**
+ * Tests the generation of the constraint matrix in class LinearSystem.
+ */
+@RunWith(Parameterized.class)
+public class ConstraintMatrixTest {
+
+    @Parameters(name = "K' = {0}")
+    public static Iterable<Object[]> getKPrimes() {
+
+        // values of K' whose matrices span more than one period of 256 columns in GAMMA
+        final int[] Kprimes = {10, 101, 242, 250, 526, 1002};
+
+        final List<Object[]> params = new ArrayList<>(Kprimes.length);
+        for (int Kprime : Kprimes) {
+            params.add(new Object[] {Kprime});
+        }
+        return params;
+    }
+
+
+    @Parameter(0)
+    public int Kprime;
+
+
+    @Test
+    public void testG_HDPCEqualsMTTimesGAMMA() {
+
+        final int Ki = SystematicIndices.getKIndex(Kprime);
+        final int S = SystematicIndices.S(Ki);
+        final int H = SystematicIndices.H(Ki);
+
+        final byte[][] expected = naiveG_HDPC(H, Kprime, S);
+        final ByteMatrix A = LinearSystem.generateConstraintMatrix(Kprime);
+
+        for (int h = 0; h < H; h++) {
+            for (int col = 0; col < Kprime + S; col++) {
+                assertEquals("G_HDPC[" + h + "][" + col + "]", expected[h][col], A.get(S + h, col));
+            }
+        }
+    }
+
+    @Test
+    public void testOverheadRowsAreEmpty() {
+
+        final ByteMatrix A = LinearSystem.generateConstraintMatrix(Kprime);
+        final ByteMatrix withOverhead = LinearSystem.generateConstraintMatrix(Kprime, 3);
+
+        assertEquals(A.rows() + 3, withOverhead.rows());
+        for (int row = 0; row < A.rows(); row++) {
+            assertEquals(A.getRow(row), withOverhead.getRow(row));
+        }
+        for (int row = A.rows(); row < withOverhead.rows(); row++) {
+            assertEquals(0, withOverhead.nonZerosInRow(row));
+        }
+    }
+
+    // the product MT * GAMMA from section 5.3.3.3 of RFC 6330, computed element by element
+    private static byte[][] naiveG_HDPC(int H, int Kprime, int S) {
+
+        final int N = Kprime + S;
+
+        final byte[][] MT = new byte[H][N];
+        for (int col = 0; col < N - 1; col++) {
+            final int h1 = (int)Rand.rand(col + 1, 6, H);
+            final int h2 = (h1 + (int)Rand.rand(col + 1, 7, H - 1) + 1) % H;
+            MT[h1][col] = 1;
+            MT[h2][col] = 1;
+        }
+        for (int h = 0; h < H; h++) {
+            MT[h][N - 1] = OctetOps.alphaPower(h);
+        }
+
+        final byte[][] G = new byte[H][N];
+        for (int h = 0; h < H; h++) {
+            for (int col = 0; col < N; col++) {
+                byte sum = 0;
+                for (int k = col; k < N; k++) {
+                    final byte gamma = OctetOps.alphaPower((k - col) % 256);
+                    sum = OctetOps.aPlusB(sum, OctetOps.aTimesB(MT[h][k], gamma));
+                }
+                G[h][col] = sum;
+            }
+        }
+
+        return G;
+    }
+}
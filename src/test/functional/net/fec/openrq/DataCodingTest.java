@@ -0,0 +1,322 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.fec.openrq.decoder.DataDecoder;
+import net.fec.openrq.decoder.SourceBlockDecoder;
+import net.fec.openrq.decoder.SourceBlockState;
+import net.fec.openrq.encoder.DataEncoder;
+import net.fec.openrq.encoder.SourceBlockEncoder;
+import net.fec.openrq.parameters.FECParameters;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+
+/**
+ * Tests the encoding and decoding of source data over every kind of data encoder and decoder, by delivering the
+ * packets of each encoder with losses to each decoder and comparing them with the packets of an array encoder.
+ */
+@RunWith(Parameterized.class)
+public final class DataCodingTest {
+
+    // the data is stored at this position inside files and buffers
+    private static final int POSITION = 13;
+
+    private static final double LOSS = 0.1;
+    private static final int REPAIR_PACKET_SYMBOLS = 3;
+
+
+    private enum EncoderKind {
+
+        ARRAY {
+
+            @Override
+            DataEncoder newEncoder(DataCodingTest test, byte[] data, FECParameters fecParams) {
+
+                return OpenRQ.newEncoder(data, POSITION, fecParams);
+            }
+        },
+
+        FILE {
+
+            @Override
+            DataEncoder newEncoder(DataCodingTest test, byte[] data, FECParameters fecParams) throws IOException {
+
+                final Path path = test.folder.newFile().toPath();
+                Files.write(path, data);
+                return OpenRQ.newEncoder(test.open(path, StandardOpenOption.READ), POSITION, fecParams);
+            }
+        },
+
+        HEAP_BUFFER {
+
+            @Override
+            DataEncoder newEncoder(DataCodingTest test, byte[] data, FECParameters fecParams) {
+
+                return OpenRQ.newEncoder((ByteBuffer)ByteBuffer.wrap(data).position(POSITION), fecParams);
+            }
+        },
+
+        DIRECT_BUFFER {
+
+            @Override
+            DataEncoder newEncoder(DataCodingTest test, byte[] data, FECParameters fecParams) {
+
+                final ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+                buffer.put(data).position(POSITION);
+                return OpenRQ.newEncoder(buffer, fecParams);
+            }
+        },
+
+        CHANNEL {
+
+            @Override
+            DataEncoder newEncoder(DataCodingTest test, byte[] data, FECParameters fecParams) {
+
+                // a channel that returns few bytes at a time
+                final ByteArrayInputStream in = new ByteArrayInputStream(data, POSITION, data.length - POSITION) {
+
+                    @Override
+                    public synchronized int read(byte[] b, int off, int len) {
+
+                        return super.read(b, off, Math.min(len, 1000));
+                    }
+                };
+                return OpenRQ.newEncoder(Channels.newChannel(in), fecParams, executor);
+            }
+        };
+
+        abstract DataEncoder newEncoder(DataCodingTest test, byte[] data, FECParameters fecParams)
+            throws IOException;
+    }
+
+    private enum DecoderKind {
+
+        ARRAY {
+
+            @Override
+            DataDecoder newDecoder(DataCodingTest test, FECParameters fecParams) {
+
+                return OpenRQ.newDecoder(fecParams, 1);
+            }
+
+            @Override
+            byte[] decodedData(DataCodingTest test, DataDecoder dec) {
+
+                return ((ArrayDataDecoder)dec).dataArray();
+            }
+        },
+
+        FILE {
+
+            @Override
+            DataDecoder newDecoder(DataCodingTest test, FECParameters fecParams) throws IOException {
+
+                test.decodedFile = test.folder.newFile().toPath();
+                final FileChannel file = test.open(test.decodedFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                return OpenRQ.newDecoder(file, POSITION, fecParams, 1);
+            }
+
+            @Override
+            byte[] decodedData(DataCodingTest test, DataDecoder dec) throws IOException {
+
+                final byte[] fileData = Files.readAllBytes(test.decodedFile);
+                return Arrays.copyOfRange(fileData, POSITION, fileData.length);
+            }
+        },
+
+        DIRECT_BUFFER {
+
+            @Override
+            DataDecoder newDecoder(DataCodingTest test, FECParameters fecParams) {
+
+                final ByteBuffer buffer = ByteBuffer.allocateDirect(POSITION + fecParams.dataLengthAsInt());
+                buffer.position(POSITION);
+                return OpenRQ.newDecoder(buffer, fecParams, 1);
+            }
+
+            @Override
+            byte[] decodedData(DataCodingTest test, DataDecoder dec) {
+
+                final ByteBuffer data = ((BufferDataDecoder)dec).dataBuffer();
+                final byte[] array = new byte[data.remaining()];
+                data.get(array);
+                return array;
+            }
+        },
+
+        CHANNEL {
+
+            @Override
+            DataDecoder newDecoder(DataCodingTest test, FECParameters fecParams) {
+
+                test.decodedStream = new ByteArrayOutputStream();
+                return OpenRQ.newStreamingDecoder(Channels.newChannel(test.decodedStream), fecParams, 1);
+            }
+
+            @Override
+            byte[] decodedData(DataCodingTest test, DataDecoder dec) {
+
+                return test.decodedStream.toByteArray();
+            }
+        };
+
+        abstract DataDecoder newDecoder(DataCodingTest test, FECParameters fecParams) throws IOException;
+
+        abstract byte[] decodedData(DataCodingTest test, DataDecoder dec) throws IOException;
+    }
+
+
+    @Parameters(name = "{0} -> {1}: {2}")
+    public static Iterable<Object[]> getParameters() {
+
+        final FECParameters[] fecParamsList = {
+                                               FECParameters.newParameters(10000, 64, 3),
+                                               FECParameters.newParameters(54321, 100, 7) // last symbol is partial
+        };
+
+        final List<Object[]> params = new ArrayList<>();
+        for (EncoderKind encKind : EncoderKind.values()) {
+            for (DecoderKind decKind : DecoderKind.values()) {
+                for (FECParameters fecParams : fecParamsList) {
+                    params.add(new Object[] {encKind, decKind, fecParams});
+                }
+            }
+        }
+        return params;
+    }
+
+
+    private static ExecutorService executor;
+
+
+    @BeforeClass
+    public static void startExecutor() {
+
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterClass
+    public static void stopExecutor() {
+
+        executor.shutdown();
+    }
+
+
+    @Parameter(0)
+    public EncoderKind encKind;
+
+    @Parameter(1)
+    public DecoderKind decKind;
+
+    @Parameter(2)
+    public FECParameters fecParams;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Closeable> resources = new ArrayList<>();
+    private Path decodedFile;
+    private ByteArrayOutputStream decodedStream;
+
+
+    @After
+    public void closeResources() throws IOException {
+
+        for (Closeable resource : resources) {
+            resource.close();
+        }
+    }
+
+    @Test
+    public void testCodingWithLosses() throws IOException {
+
+        final Random rand = TestingCommon.newSeededRandom();
+        final byte[] data = TestingCommon.randomBytes(POSITION + fecParams.dataLengthAsInt(), rand);
+
+        final ArrayDataEncoder expectedEnc = OpenRQ.newEncoder(data, POSITION, fecParams);
+        final DataEncoder enc = encKind.newEncoder(this, data, fecParams);
+        final DataDecoder dec = decKind.newDecoder(this, fecParams);
+        assertEquals(expectedEnc.numberOfSourceBlocks(), enc.numberOfSourceBlocks());
+
+        for (SourceBlockEncoder sbEnc : enc.sourceBlockIterable()) {
+            final SourceBlockEncoder expectedSBEnc = expectedEnc.sourceBlock(sbEnc.sourceBlockNumber());
+            final SourceBlockDecoder sbDec = dec.sourceBlock(sbEnc.sourceBlockNumber());
+            final int K = expectedSBEnc.numberOfSourceSymbols();
+            assertEquals(K, sbEnc.numberOfSourceSymbols());
+
+            // source packets with a single symbol, followed by repair packets with several symbols
+            for (int esi = 0; sbDec.latestState() != SourceBlockState.DECODED;) {
+                final EncodingPacket expected, actual;
+                if (esi < K) {
+                    expected = expectedSBEnc.encodingPacket(esi);
+                    actual = sbEnc.encodingPacket(esi);
+                    esi++;
+                }
+                else {
+                    expected = expectedSBEnc.repairPacket(esi, REPAIR_PACKET_SYMBOLS);
+                    actual = sbEnc.repairPacket(esi, REPAIR_PACKET_SYMBOLS);
+                    esi += REPAIR_PACKET_SYMBOLS;
+                }
+
+                assertEquals(expected.symbols(), actual.symbols());
+                if (rand.nextDouble() >= LOSS) {
+                    sbDec.putEncodingPacket(actual);
+                }
+            }
+        }
+
+        assertEquals(true, dec.isDataDecoded());
+        assertArrayEquals(Arrays.copyOfRange(data, POSITION, data.length), decKind.decodedData(this, dec));
+    }
+
+    private FileChannel open(Path path, StandardOpenOption... options) throws IOException {
+
+        final FileChannel file = FileChannel.open(path, options);
+        resources.add(file);
+        return file;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import net.fec.openrq.DecodingSchedules.ErasurePattern;
+import net.fec.openrq.decoder.SourceBlockDecoder;
+import net.fec.openrq.decoder.SourceBlockState;
+import net.fec.openrq.encoder.SourceBlockEncoder;
+import net.fec.openrq.parameters.FECParameters;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the decoding of many source blocks with the same erasure pattern.
+ */
+public final class DecodingSchedulesTest {
+
+    private static final int K = 100;
+    private static final int T = 64;
+    private static final int Z = 12;
+
+    private static final int[] LOST_ESIS = {3, 17, 18, 64};
+
+
+    @Test
+    public void testSharedErasurePattern() {
+
+        final FECParameters fecParams = FECParameters.newParameters((long)K * T * Z, T, Z);
+        final byte[] data = TestingCommon.randomBytes(fecParams.dataLengthAsInt(), TestingCommon.newSeededRandom());
+        final ArrayDataEncoder enc = OpenRQ.newEncoder(data, fecParams);
+        final ArrayDataDecoder dec = OpenRQ.newDecoder(fecParams, 0);
+
+        // the same symbols are lost in every source block, and replaced by the same repair symbols, which every other
+        // source block receives in reverse order
+        for (int esi = 0; esi < K; esi++) {
+            if (isLost(esi)) {
+                continue;
+            }
+
+            for (SourceBlockEncoder sbEnc : enc.sourceBlockIterable()) {
+                final SourceBlockDecoder sbDec = dec.sourceBlock(sbEnc.sourceBlockNumber());
+                sbDec.putEncodingPacket(sbEnc.encodingPacket(esi));
+            }
+        }
+        for (int n = 0; n < LOST_ESIS.length; n++) {
+            for (SourceBlockEncoder sbEnc : enc.sourceBlockIterable()) {
+                final SourceBlockDecoder sbDec = dec.sourceBlock(sbEnc.sourceBlockNumber());
+                final boolean reversed = sbEnc.sourceBlockNumber() % 2 == 1;
+                sbDec.putEncodingPacket(sbEnc.encodingPacket(reversed ? K + LOST_ESIS.length - 1 - n : K + n));
+            }
+        }
+
+        for (SourceBlockDecoder sbDec : dec.sourceBlockIterable()) {
+            assertEquals(SourceBlockState.DECODED, sbDec.latestState());
+        }
+        assertArrayEquals(data, dec.dataArray());
+
+        final int[] repairESIs = new int[LOST_ESIS.length];
+        for (int i = 0; i < repairESIs.length; i++) {
+            repairESIs[i] = K + i;
+        }
+        assertNotNull(dec.decodingSchedules().get(new ErasurePattern(K, LOST_ESIS, repairESIs)));
+
+        // the erasure pattern does not depend on the order in which the repair symbols were received
+        final int[] reversedESIs = new int[LOST_ESIS.length];
+        for (int i = 0; i < reversedESIs.length; i++) {
+            reversedESIs[i] = repairESIs[repairESIs.length - 1 - i];
+        }
+        assertNull(dec.decodingSchedules().get(new ErasurePattern(K, LOST_ESIS, reversedESIs)));
+    }
+
+    private static boolean isLost(int esi) {
+
+        for (int lost : LOST_ESIS) {
+            if (esi == lost) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import net.fec.openrq.decoder.SourceBlockDecoder;
+import net.fec.openrq.decoder.SourceBlockState;
+import net.fec.openrq.encoder.SourceBlockEncoder;
+import net.fec.openrq.parameters.FECParameters;
+import net.fec.openrq.util.collection.ImmutableList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the decoding of source data into a file.
+ */
+public final class FileDataDecoderTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void testFileIsExtended() throws IOException {
+
+        final FECParameters fecParams = FECParameters.newParameters(54321, 100, 7);
+        final int position = 13;
+
+        try (FileChannel file = FileChannel.open(folder.newFile().toPath(),
+            StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            OpenRQ.newDecoder(file, position, fecParams, 1);
+            assertEquals(position + fecParams.dataLength(), file.size());
+        }
+    }
+
+    @Test
+    public void testSourceBlockIsMappedWhenFirstWritten() throws IOException {
+
+        final FECParameters fecParams = FECParameters.newParameters(10000, 100, 1);
+        final byte[] data = TestingCommon.randomBytes(fecParams.dataLengthAsInt(), TestingCommon.newSeededRandom());
+        final SourceBlockEncoder sbEnc = OpenRQ.newEncoder(data, fecParams).sourceBlock(0);
+
+        final Path path = folder.newFile().toPath();
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final FileDataDecoder dec = OpenRQ.newDecoder(file, 0, fecParams, 1);
+            final CountingMapping block = new CountingMapping(
+                new FileSourceBlock(file, MapMode.READ_WRITE, 0, fecParams.dataLength(), fecParams.symbolSize()));
+            final SourceBlockDecoder sbDec = ArraySourceBlockDecoder.newDecoder(
+                dec, new DecodingSchedules(), block, 0, 1);
+            assertEquals(0, block.mappings);
+
+            // mapped while the source block is being decoded
+            sbDec.putEncodingPacket(sbEnc.encodingPacket(0));
+            assertEquals(1, block.mappings);
+
+            for (EncodingPacket packet : sbEnc.sourcePacketsIterable()) {
+                sbDec.putEncodingPacket(packet);
+            }
+            assertEquals(SourceBlockState.DECODED, sbDec.latestState());
+            assertEquals(0, block.mappings);
+        }
+
+        assertArrayEquals(data, Files.readAllBytes(path));
+    }
+
+
+    // counts the mappings of a source block that are not released yet
+    private static final class CountingMapping implements SourceBlockMapping {
+
+        private final SourceBlockMapping block;
+        int mappings = 0;
+
+
+        CountingMapping(SourceBlockMapping block) {
+
+            this.block = block;
+        }
+
+        @Override
+        public ImmutableList<SourceSymbol> sourceSymbols(int K) {
+
+            return block.sourceSymbols(K);
+        }
+
+        @Override
+        public void read(int esi, ByteBuffer dst, int len) {
+
+            block.read(esi, dst, len);
+        }
+
+        @Override
+        public void write(int esi, ByteBuffer src, int len) {
+
+            block.write(esi, src, len);
+        }
+
+        @Override
+        public void map() {
+
+            block.map();
+            mappings++;
+        }
+
+        @Override
+        public void unmap() {
+
+            block.unmap();
+            mappings--;
+        }
+
+        @Override
+        public void flush() {
+
+            block.flush();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import net.fec.openrq.util.linearalgebra.LinearAlgebra;
+import net.fec.openrq.util.linearalgebra.matrix.ByteMatrix;
+import net.fec.openrq.util.rq.SystematicIndices;
+
+import org.junit.Test;
+
+
+/**
+ * Tests class HybridByteMatrix against a dense matrix.
+ */
+public final class HybridByteMatrixTest {
+
+    private static final int ROWS = 40;
+    private static final int COLUMNS = 150; // spans more than two words of bits
+
+
+    @Test
+    public void testConstraintMatrixRows() {
+
+        final int Kprime = 101;
+        final int Ki = SystematicIndices.getKIndex(Kprime);
+        final int S = SystematicIndices.S(Ki);
+        final int H = SystematicIndices.H(Ki);
+
+        final ByteMatrix A = LinearSystem.generateConstraintMatrix(Kprime);
+        final HybridByteMatrix hybrid = HybridByteMatrix.copyOf(A);
+
+        assertEquals(A, hybrid);
+        assertEquals(A.nonZeros(), hybrid.nonZeros());
+        for (int row = 0; row < A.rows(); row++) {
+            if (S <= row && row < S + H) {
+                assertFalse("HDPC row " + row, hybrid.isBinaryRow(row));
+            }
+            else {
+                assertTrue("row " + row, hybrid.isBinaryRow(row));
+            }
+        }
+    }
+
+    @Test
+    public void testCopyFromReusesRows() {
+
+        final Random rand = TestingCommon.newSeededRandom();
+        final ByteMatrix previous = randomMatrix(rand, ROWS + 3, 3);
+        final ByteMatrix expected = randomMatrix(rand, ROWS + 3, 5);
+        for (int row = ROWS; row < ROWS + 3; row++) {
+            expected.clearRow(row);
+        }
+        final ByteMatrix source = randomMatrix(rand, ROWS, 5);
+        for (int row = 0; row < ROWS; row++) {
+            for (int col = 0; col < COLUMNS; col++) {
+                expected.set(row, col, source.get(row, col));
+            }
+        }
+
+        final HybridByteMatrix actual = HybridByteMatrix.copyOf(previous);
+        actual.copyFrom(source);
+        assertEquals(expected, actual);
+
+        actual.copyFrom(HybridByteMatrix.copyOf(previous));
+        assertEquals(previous, actual);
+        actual.copyFrom(HybridByteMatrix.copyOf(source));
+        assertEquals(expected, actual);
+    }
+
+    // mostly binary rows, and a few dense ones
+    private static ByteMatrix randomMatrix(Random rand, int rows, int denseRowsPeriod) {
+
+        final ByteMatrix matrix = LinearAlgebra.BASIC2D_FACTORY.createMatrix(rows, COLUMNS);
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < COLUMNS; col++) {
+                final int bound = (row % denseRowsPeriod == 0) ? 256 : 2;
+                matrix.set(row, col, (byte)rand.nextInt(bound));
+            }
+        }
+
+        return matrix;
+    }
+
+    @Test
+    public void testRandomRowOperations() {
+
+        final Random rand = TestingCommon.newSeededRandom();
+        final ByteMatrix expected = LinearAlgebra.BASIC2D_FACTORY.createMatrix(ROWS, COLUMNS);
+        for (int row = 0; row < ROWS; row++) {
+            for (int col = 0; col < COLUMNS; col++) {
+                // mostly binary rows, and a few dense ones
+                final int bound = (row % 8 == 0) ? 256 : 2;
+                expected.set(row, col, (byte)rand.nextInt(bound));
+            }
+        }
+
+        final HybridByteMatrix actual = HybridByteMatrix.copyOf(expected);
+        assertEquals(expected, actual);
+
+        for (int n = 0; n < 2000; n++) {
+            final int row1 = rand.nextInt(ROWS);
+            final int row2 = rand.nextInt(ROWS);
+            final int from = rand.nextInt(COLUMNS + 1);
+            final int to = from + rand.nextInt(COLUMNS + 1 - from);
+            // mostly additions of binary rows, which keep these binary
+            final byte multiplier = (byte)(rand.nextInt(10) == 0 ? rand.nextInt(256) : 1);
+
+            switch (rand.nextInt(4)) {
+                case 0:
+                    expected.swapRows(row1, row2);
+                    actual.swapRows(row1, row2);
+                    break;
+
+                case 1:
+                    final int col1 = rand.nextInt(COLUMNS);
+                    final int col2 = rand.nextInt(COLUMNS);
+                    expected.swapColumns(col1, col2);
+                    actual.swapColumns(col1, col2);
+                    break;
+
+                case 2:
+                    expected.addRowsInPlace(multiplier, row1, row2, from, to);
+                    actual.addRowsInPlace(multiplier, row1, row2, from, to);
+                    break;
+
+                case 3:
+                    if (multiplier != 0) {
+                        expected.divideRowInPlace(row1, multiplier, from, to);
+                        actual.divideRowInPlace(row1, multiplier, from, to);
+                    }
+                    break;
+
+                default:
+                    throw new AssertionError();
+            }
+
+            assertEquals(expected.nonZerosInRow(row2, from, to), actual.nonZerosInRow(row2, from, to));
+            assertArrayEquals(
+                expected.nonZeroPositionsInRow(row2, from, to),
+                actual.nonZeroPositionsInRow(row2, from, to));
+        }
+
+        assertEquals(expected, actual);
+        assertEquals(expected, actual.copy());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.fec.openrq.util.io.ByteBuffers.BufferType;
+import net.fec.openrq.util.rq.SymbolMatrix;
+import net.fec.openrq.util.rq.SystematicIndices;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the serial and striped execution of recorded decoding programs.
+ */
+public final class ISDProgramTest {
+
+    private static final int T = 1001; // not a multiple of the number of stripes
+
+
+    @Test
+    public void testStripedExecutionMatchesDecoding() throws SingularMatrixException {
+
+        final Random rand = TestingCommon.newSeededRandom();
+        for (int Kprime : new int[] {10, 101, 526}) {
+            final int Ki = SystematicIndices.getKIndex(Kprime);
+            final int S = SystematicIndices.S(Ki);
+            final int H = SystematicIndices.H(Ki);
+
+            // S + H zero symbols followed by K' random source symbols
+            final byte[][] D = new byte[S + H + Kprime][T];
+            for (int i = S + H; i < D.length; i++) {
+                rand.nextBytes(D[i]);
+            }
+
+            final List<ISDOperation> ops = new ArrayList<>();
+            final byte[][] expected = toArrays(LinearSystem.PInactivationDecoding(
+                LinearSystem.generateConstraintMatrix(Kprime), toMatrix(D, BufferType.ARRAY_BACKED), Kprime, ops));
+            final ISDProgram program = ISDProgram.compile(ops);
+
+            for (BufferType type : BufferType.values()) {
+                final String msg = "K' = " + Kprime + ", " + type;
+                assertArrayEquals(msg, expected, toArrays(program.execute(toMatrix(D, type), 1)));
+                assertArrayEquals(msg, expected, toArrays(program.execute(toMatrix(D, type), 3)));
+                assertArrayEquals(msg, expected, toArrays(program.execute(toMatrix(D, type), T + 1)));
+            }
+        }
+    }
+
+    @Test
+    public void testRecordedDecodingOfWideSymbols() throws SingularMatrixException {
+
+        // wide enough to be decoded in parallel stripes while recording, if there are several processors
+        final int wideT = 256 * 1024;
+        final int Kprime = 10;
+        final int Ki = SystematicIndices.getKIndex(Kprime);
+        final int S = SystematicIndices.S(Ki);
+        final int H = SystematicIndices.H(Ki);
+
+        // S + H zero symbols followed by K' random source symbols
+        final Random rand = TestingCommon.newSeededRandom();
+        final byte[][] D = new byte[S + H + Kprime][wideT];
+        for (int i = S + H; i < D.length; i++) {
+            rand.nextBytes(D[i]);
+        }
+
+        final byte[][] expected = toArrays(LinearSystem.PInactivationDecoding(
+            LinearSystem.generateConstraintMatrix(Kprime), toMatrix(D, BufferType.ARRAY_BACKED), Kprime));
+
+        final List<ISDOperation> ops = new ArrayList<>();
+        assertArrayEquals(expected, toArrays(LinearSystem.PInactivationDecoding(
+            LinearSystem.generateConstraintMatrix(Kprime), toMatrix(D, BufferType.ARRAY_BACKED), Kprime, ops)));
+        assertArrayEquals(expected, toArrays(ISDProgram.compile(ops).execute(toMatrix(D, BufferType.ARRAY_BACKED))));
+    }
+
+    @Test(timeout = 10000)
+    public void testExecutionOverEmptySymbols() throws SingularMatrixException {
+
+        final int Kprime = 101;
+        final int Ki = SystematicIndices.getKIndex(Kprime);
+        final int L = Kprime + SystematicIndices.S(Ki) + SystematicIndices.H(Ki);
+
+        final List<ISDOperation> ops = new ArrayList<>();
+        LinearSystem.PInactivationDecoding(
+            LinearSystem.generateConstraintMatrix(Kprime), SymbolMatrix.allocate(L, T), Kprime, ops);
+        final ISDProgram program = ISDProgram.compile(ops);
+
+        // must terminate, even though no bytes are processed
+        for (BufferType type : BufferType.values()) {
+            program.execute(SymbolMatrix.allocate(L, 0, type), 1);
+        }
+    }
+
+    private static SymbolMatrix toMatrix(byte[][] D, BufferType type) {
+
+        final SymbolMatrix matrix = SymbolMatrix.allocate(D.length, D[0].length, type);
+        for (int i = 0; i < D.length; i++) {
+            matrix.row(i).put(D[i]);
+        }
+        return matrix;
+    }
+
+    private static byte[][] toArrays(SymbolMatrix matrix) {
+
+        final byte[][] arrays = new byte[matrix.rows()][matrix.symbolSize()];
+        for (int i = 0; i < arrays.length; i++) {
+            matrix.row(i).get(arrays[i]);
+        }
+        return arrays;
+    }
+}
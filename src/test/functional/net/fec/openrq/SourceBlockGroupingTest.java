@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import net.fec.openrq.encoder.SourceBlockEncoder;
+import net.fec.openrq.parameters.FECParameters;
+import net.fec.openrq.util.rq.SystematicIndices;
+
+import org.junit.Test;
+
+
+/**
+ * Tests that the intermediate symbols of source blocks with the same K', which are generated together when they are
+ * prepared by the data encoder, are the same as if each source block was encoded alone.
+ */
+public final class SourceBlockGroupingTest {
+
+    private static final int K = 10;
+    private static final int T = 65528; // large symbols, so that few source blocks fill a group
+    private static final int NUM_REPAIR_PACKETS = 3;
+
+
+    @Test
+    public void testRepairPacketGeneratesOnlyItsSourceBlock() {
+
+        final FECParameters fecParams = FECParameters.newParameters(3 * K * T, T, 3);
+        final byte[] data = TestingCommon.randomBytes(fecParams.dataLengthAsInt(), TestingCommon.newSeededRandom());
+        final ArrayDataEncoder enc = OpenRQ.newEncoder(data, fecParams);
+
+        enc.sourceBlock(1).repairPacket(K);
+        assertFalse(((ArraySourceBlockEncoder)enc.sourceBlock(0)).hasIntermediateSymbols());
+        assertTrue(((ArraySourceBlockEncoder)enc.sourceBlock(1)).hasIntermediateSymbols());
+        assertFalse(((ArraySourceBlockEncoder)enc.sourceBlock(2)).hasIntermediateSymbols());
+    }
+
+    @Test
+    public void testSameRepairSymbolsAsSingleBlocks() throws InterruptedException {
+
+        final int Kprime = SystematicIndices.ceil(K);
+        final int Ki = SystematicIndices.getKIndex(Kprime);
+        final int L = Kprime + SystematicIndices.S(Ki) + SystematicIndices.H(Ki);
+
+        // the source blocks do not fit in a single group
+        final long maxGroupBlocks = ArraySourceBlockEncoder.MAX_GROUP_SIZE / ((long)L * T);
+        final int Z = (int)maxGroupBlocks + 3;
+        assertTrue(maxGroupBlocks > 1);
+
+        final FECParameters fecParams = FECParameters.newParameters((long)Z * K * T, T, Z);
+        final byte[] data = TestingCommon.randomBytes(fecParams.dataLengthAsInt(), TestingCommon.newSeededRandom());
+        final ArrayDataEncoder enc = OpenRQ.newEncoder(data, fecParams);
+
+        // concurrent preparations generate each source block once
+        final Thread[] threads = new Thread[3];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+
+                    enc.prepareIntermediateSymbols();
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        final FECParameters blockParams = FECParameters.newParameters(K * T, T, 1);
+        for (SourceBlockEncoder sbEnc : enc.sourceBlockIterable()) {
+            assertEquals(K, sbEnc.numberOfSourceSymbols());
+            assertTrue(((ArraySourceBlockEncoder)sbEnc).hasIntermediateSymbols());
+
+            final int blockOff = sbEnc.sourceBlockNumber() * K * T;
+            final byte[] blockData = Arrays.copyOfRange(data, blockOff, blockOff + K * T);
+            final SourceBlockEncoder aloneEnc = OpenRQ.newEncoder(blockData, blockParams).sourceBlock(0);
+
+            for (int esi = K; esi < K + NUM_REPAIR_PACKETS; esi++) {
+                assertEquals("SBN = " + sbEnc.sourceBlockNumber() + ", ESI = " + esi,
+                    aloneEnc.repairPacket(esi).symbols(),
+                    sbEnc.repairPacket(esi).symbols());
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2014 OpenRQ Team
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fec.openrq.util.math;
+
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * Vector operations over octets implemented with the (incubating) Java Vector API.
+ * <p>
+ * The product of an octet by a fixed multiplier is the sum of the products of its low and high nibbles by the same
+ * multiplier. Each product is obtained by a table lookup with 16 entries, which is done for all lanes at once with a
+ * single shuffle instruction.
+ * <p>
+ * This class is loaded by reflection from {@link OctetOps}, and requires the option
+ * {@code --add-modules jdk.incubator.vector} at run time.
+ */
+final class SIMDVectorKernels implements VectorKernels {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    // the byte order is irrelevant for lanes of octets
+    private static final ByteOrder ORDER = ByteOrder.nativeOrder();
+
+    // products of the low and high nibbles by each multiplier (16 entries, repeated over all the lanes)
+    // (loading these from arrays on each call is faster than keeping arrays of vectors)
+    private static final byte[][] LOW_PRODUCTS;
+    private static final byte[][] HIGH_PRODUCTS;
+
+    static {
+        final int size = 1 << Byte.SIZE;
+
+        LOW_PRODUCTS = new byte[size][SPECIES.length()];
+        HIGH_PRODUCTS = new byte[size][SPECIES.length()];
+
+        for (int m = 0; m < size; m++) {
+            final byte[] low = LOW_PRODUCTS[m];
+            final byte[] high = HIGH_PRODUCTS[m];
+            final byte[] multRow = OctetOps.multiplicationRow((byte)m);
+            for (int n = 0; n < SPECIES.length(); n++) {
+                low[n] = multRow[n & 0x0F];
+                high[n] = multRow[(n & 0x0F) << 4];
+            }
+        }
+    }
+
+
+    // public constructor for reflective instantiation
+    public SIMDVectorKernels() {
+
+        // nothing to initialize
+    }
+
+    @Override
+    public void multiplyAdd(
+        byte multiplier,
+        byte[] vector1,
+        int vecPos1,
+        byte[] vector2,
+        int vecPos2,
+        byte[] result,
+        int resPos,
+        int length)
+    {
+
+        final ByteVector low = ByteVector.fromArray(SPECIES, LOW_PRODUCTS[multiplier & 0xFF], 0);
+        final ByteVector high = ByteVector.fromArray(SPECIES, HIGH_PRODUCTS[multiplier & 0xFF], 0);
+        final int bound = SPECIES.loopBound(length);
+
+        int n = 0;
+        for (; n < bound; n += SPECIES.length()) {
+            final ByteVector prod = product(low, high, ByteVector.fromArray(SPECIES, vector1, vecPos1 + n));
+            final ByteVector v2 = ByteVector.fromArray(SPECIES, vector2, vecPos2 + n);
+            prod.lanewise(VectorOperators.XOR, v2).intoArray(result, resPos + n);
+        }
+
+        final byte[] multRow = OctetOps.multiplicationRow(multiplier);
+        for (; n < length; n++) {
+            result[resPos + n] = (byte)(multRow[vector1[vecPos1 + n] & 0xFF] ^ vector2[vecPos2 + n]);
+        }
+    }
+
+    @Override
+    public void multiply(byte multiplier, byte[] vector, int vecPos, byte[] result, int resPos, int length) {
+
+        final ByteVector low = ByteVector.fromArray(SPECIES, LOW_PRODUCTS[multiplier & 0xFF], 0);
+        final ByteVector high = ByteVector.fromArray(SPECIES, HIGH_PRODUCTS[multiplier & 0xFF], 0);
+        final int bound = SPECIES.loopBound(length);
+
+        int n = 0;
+        for (; n < bound; n += SPECIES.length()) {
+            product(low, high, ByteVector.fromArray(SPECIES, vector, vecPos + n)).intoArray(result, resPos + n);
+        }
+
+        final byte[] multRow = OctetOps.multiplicationRow(multiplier);
+        for (; n < length; n++) {
+            result[resPos + n] = multRow[vector[vecPos + n] & 0xFF];
+        }
+    }
+
+    @Override
+    public void add(
+        ByteBuffer vector1,
+        int vecPos1,
+        ByteBuffer vector2,
+        int vecPos2,
+        ByteBuffer result,
+        int resPos,
+        int length)
+    {
+
+        final int bound = SPECIES.loopBound(length);
+
+        int n = 0;
+        for (; n < bound; n += SPECIES.length()) {
+            final ByteVector v1 = ByteVector.fromByteBuffer(SPECIES, vector1, vecPos1 + n, ORDER);
+            final ByteVector v2 = ByteVector.fromByteBuffer(SPECIES, vector2, vecPos2 + n, ORDER);
+            v1.lanewise(VectorOperators.XOR, v2).intoByteBuffer(result, resPos + n, ORDER);
+        }
+
+        for (; n < length; n++) {
+            result.put(resPos + n, (byte)(vector1.get(vecPos1 + n) ^ vector2.get(vecPos2 + n)));
+        }
+    }
+
+    @Override
+    public void multiplyAdd(
+        byte multiplier,
+        ByteBuffer vector1,
+        int vecPos1,
+        ByteBuffer vector2,
+        int vecPos2,
+        ByteBuffer result,
+        int resPos,
+        int length)
+    {
+
+        final ByteVector low = ByteVector.fromArray(SPECIES, LOW_PRODUCTS[multiplier & 0xFF], 0);
+        final ByteVector high = ByteVector.fromArray(SPECIES, HIGH_PRODUCTS[multiplier & 0xFF], 0);
+        final int bound = SPECIES.loopBound(length);
+
+        int n = 0;
+        for (; n < bound; n += SPECIES.length()) {
+            final ByteVector v1 = ByteVector.fromByteBuffer(SPECIES, vector1, vecPos1 + n, ORDER);
+            final ByteVector v2 = ByteVector.fromByteBuffer(SPECIES, vector2, vecPos2 + n, ORDER);
+            product(low, high, v1).lanewise(VectorOperators.XOR, v2).intoByteBuffer(result, resPos + n, ORDER);
+        }
+
+        final byte[] multRow = OctetOps.multiplicationRow(multiplier);
+        for (; n < length; n++) {
+            result.put(resPos + n, (byte)(multRow[vector1.get(vecPos1 + n) & 0xFF] ^ vector2.get(vecPos2 + n)));
+        }
+    }
+
+    @Override
+    public void multiply(byte multiplier, ByteBuffer vector, int vecPos, ByteBuffer result, int resPos, int length) {
+
+        final ByteVector low = ByteVector.fromArray(SPECIES, LOW_PRODUCTS[multiplier & 0xFF], 0);
+        final ByteVector high = ByteVector.fromArray(SPECIES, HIGH_PRODUCTS[multiplier & 0xFF], 0);
+        final int bound = SPECIES.loopBound(length);
+
+        int n = 0;
+        for (; n < bound; n += SPECIES.length()) {
+            final ByteVector v = ByteVector.fromByteBuffer(SPECIES, vector, vecPos + n, ORDER);
+            product(low, high, v).intoByteBuffer(result, resPos + n, ORDER);
+        }
+
+        final byte[] multRow = OctetOps.multiplicationRow(multiplier);
+        for (; n < length; n++) {
+            result.put(resPos + n, multRow[vector.get(vecPos + n) & 0xFF]);
+        }
+    }
+
+    private static ByteVector product(ByteVector low, ByteVector high, ByteVector v) {
+
+        final ByteVector lowNibbles = v.and((byte)0x0F);
+        final ByteVector highNibbles = v.lanewise(VectorOperators.LSHR, 4).and((byte)0x0F);
+        return lowNibbles.selectFrom(low).lanewise(VectorOperators.XOR, highNibbles.selectFrom(high));
+    }
+}